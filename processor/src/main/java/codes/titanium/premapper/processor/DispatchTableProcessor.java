@@ -0,0 +1,423 @@
+package codes.titanium.premapper.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates dispatch table of module from classes annotated with {@code IndexedPreprocessor}
+ * and service interfaces annotated with {@code IndexedService}.
+ * Table contains preprocessed type of every preprocessor and preprocessors matched for every return type of services,
+ * matching follows the same rules as runtime matching of preprocessor library.
+ * Table is {@code GeneratedDispatchTable} in common package of annotated classes, unless its qualified name is set by
+ * {@code codes.titanium.premapper.dispatchTable} option, and it is registered in {@code META-INF/services} for runtime discovery.
+ * Table is written in first round with annotated elements, elements generated in later rounds are resolved at runtime.
+ */
+public class DispatchTableProcessor extends AbstractProcessor {
+
+  private static final String PACKAGE = "codes.titanium.premapper";
+  private static final String INDEXED_PREPROCESSOR = PACKAGE + ".IndexedPreprocessor";
+  private static final String INDEXED_SERVICE = PACKAGE + ".IndexedService";
+  private static final String PREPROCESSOR = PACKAGE + ".Preprocessor";
+  private static final String BODY_PREPROCESSOR = PACKAGE + ".BodyPreprocessor";
+  private static final String RAW_BODY_PREPROCESSOR = PACKAGE + ".RawBodyPreprocessor";
+  private static final String DISPATCH_TABLE = PACKAGE + ".DispatchTable";
+  private static final String TABLE_NAME = "GeneratedDispatchTable";
+  private static final String TABLE_OPTION = PACKAGE + ".dispatchTable";
+
+  //preprocessor class -> preprocessed type, collected over all rounds
+  private final Map<TypeElement, TypeMirror> preprocessors = new LinkedHashMap<>();
+  private final Set<TypeElement> services = new LinkedHashSet<>();
+  //table is written in first round with annotated elements, so it is compiled like any other source
+  private boolean written;
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return new HashSet<>(Arrays.asList(INDEXED_PREPROCESSOR, INDEXED_SERVICE));
+  }
+
+  @Override
+  public Set<String> getSupportedOptions() {
+    return Collections.singleton(TABLE_OPTION);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (TypeElement annotation : annotations) {
+      boolean service = annotation.getQualifiedName().contentEquals(INDEXED_SERVICE);
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (written)
+          warning(element, "Element generated after dispatch table can't be indexed");
+        else if (service)
+          addService(element);
+        else
+          addPreprocessor(element);
+      }
+    }
+    if (!written && !(preprocessors.isEmpty() && services.isEmpty())) {
+      writeTable();
+      written = true;
+    }
+    return true;
+  }
+
+  private void addPreprocessor(Element element) {
+    if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT) ||
+        !((TypeElement) element).getTypeParameters().isEmpty() || isPrivate(element)) {
+      error(element, "Indexed preprocessor should be not abstract, not generic and not private class");
+      return;
+    }
+    TypeMirror preprocessed = findSupertypeArgument(element.asType(), PREPROCESSOR);
+    if (preprocessed == null)
+      preprocessed = findSupertypeArgument(element.asType(), BODY_PREPROCESSOR);
+    if (preprocessed == null)
+      preprocessed = findSupertypeArgument(element.asType(), RAW_BODY_PREPROCESSOR);
+    if (preprocessed == null) {
+      error(element, "Indexed preprocessor should implement Preprocessor, BodyPreprocessor or RawBodyPreprocessor");
+      return;
+    }
+    preprocessors.put((TypeElement) element, preprocessed);
+  }
+
+  private void addService(Element element) {
+    if (element.getKind() != ElementKind.INTERFACE || isPrivate(element)) {
+      error(element, "Indexed service should be not private interface");
+      return;
+    }
+    services.add((TypeElement) element);
+  }
+
+  private void writeTable() {
+    Element[] origins = origins();
+    String table = processingEnv.getOptions().get(TABLE_OPTION);
+    if (table == null)
+      table = commonPackage(origins) + TABLE_NAME;
+    int dot = table.lastIndexOf('.');
+    String tablePackage = dot < 0 ? "" : table.substring(0, dot);
+    //preprocessors and types that can't be referenced from table are left for runtime resolution
+    Map<TypeElement, TypeMirror> indexed = new LinkedHashMap<>();
+    for (Map.Entry<TypeElement, TypeMirror> preprocessor : preprocessors.entrySet()) {
+      if (!isAccessible(preprocessor.getKey(), tablePackage))
+        warning(preprocessor.getKey(), "Preprocessor is not accessible from " + table + " and can't be indexed");
+      else if (!isExpressible(preprocessor.getValue(), tablePackage))
+        warning(preprocessor.getKey(), "Preprocessed type " + preprocessor.getValue() + " can't be indexed");
+      else
+        indexed.put(preprocessor.getKey(), preprocessor.getValue());
+    }
+    //return type -> matched preprocessors, types are compared by their source representation
+    Map<String, List<TypeElement>> matches = new LinkedHashMap<>();
+    for (TypeElement service : services) {
+      if (!isAccessible(service, tablePackage)) {
+        warning(service, "Service is not accessible from " + table + " and can't be indexed");
+        continue;
+      }
+      for (Element member : service.getEnclosedElements()) {
+        if (member.getKind() != ElementKind.METHOD || member.getModifiers().contains(Modifier.STATIC) || member.getModifiers().contains(Modifier.DEFAULT))
+          continue;
+        TypeMirror returnType = ((ExecutableElement) member).getReturnType();
+        if (!isExpressible(returnType, tablePackage))
+          continue;
+        String key = typeExpression(returnType);
+        if (matches.containsKey(key))
+          continue;
+        List<TypeElement> matched = new ArrayList<>();
+        for (Map.Entry<TypeElement, TypeMirror> preprocessor : indexed.entrySet()) {
+          if (isAssignableFromTo(returnType, preprocessor.getValue()))
+            matched.add(preprocessor.getKey());
+        }
+        matches.put(key, matched);
+      }
+    }
+    StringBuilder source = new StringBuilder();
+    if (!tablePackage.isEmpty())
+      source.append("package ").append(tablePackage).append(";\n\n");
+    if (!tablePackage.equals(PACKAGE))
+      source.append("import ").append(DISPATCH_TABLE).append(";\n")
+          .append("import ").append(PACKAGE).append(".Types;\n");
+    source.append("import java.lang.reflect.Type;\n")
+        .append("import java.util.HashMap;\n")
+        .append("import java.util.Map;\n\n")
+        .append("/**\n * Generated by ").append(getClass().getName()).append(", do not edit\n */\n")
+        .append("public final class ").append(table.substring(dot + 1)).append(" implements DispatchTable {\n\n")
+        .append("  private static final Map<Class<?>, Type> TYPES = new HashMap<>();\n")
+        .append("  private static final Map<Type, Class<?>[]> PREPROCESSORS = new HashMap<>();\n\n")
+        .append("  static {\n");
+    for (Map.Entry<TypeElement, TypeMirror> preprocessor : indexed.entrySet()) {
+      source.append("    TYPES.put(").append(classLiteral(preprocessor.getKey())).append(", ")
+          .append(typeExpression(preprocessor.getValue())).append(");\n");
+    }
+    for (Map.Entry<String, List<TypeElement>> match : matches.entrySet()) {
+      source.append("    PREPROCESSORS.put(").append(match.getKey()).append(", new Class<?>[]{");
+      for (int i = 0; i < match.getValue().size(); i++) {
+        source.append(i == 0 ? "" : ", ").append(classLiteral(match.getValue().get(i)));
+      }
+      source.append("});\n");
+    }
+    source.append("  }\n\n")
+        .append("  @Override\n")
+        .append("  public Type getPreprocessedType(Class<?> preprocessorClass) {\n")
+        .append("    return TYPES.get(preprocessorClass);\n")
+        .append("  }\n\n")
+        .append("  @Override\n")
+        .append("  public Class<?>[] getPreprocessors(Type returnType) {\n")
+        .append("    return PREPROCESSORS.get(returnType);\n")
+        .append("  }\n\n")
+        .append("}\n");
+    try (Writer writer = processingEnv.getFiler().createSourceFile(table, origins).openWriter()) {
+      writer.write(source.toString());
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write " + table + ": " + e.getMessage());
+    }
+    try (Writer writer = processingEnv.getFiler()
+        .createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + DISPATCH_TABLE, origins).openWriter()) {
+      writer.write(table + "\n");
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't register " + table + ": " + e.getMessage());
+    }
+  }
+
+  private Element[] origins() {
+    Element[] origins = new Element[preprocessors.size() + services.size()];
+    int i = 0;
+    for (TypeElement origin : preprocessors.keySet()) {
+      origins[i++] = origin;
+    }
+    for (TypeElement origin : services) {
+      origins[i++] = origin;
+    }
+    return origins;
+  }
+
+  /**
+   * Longest package that contains all origins, e.g. com.example for com.example.api and com.example.preprocessors
+   *
+   * @return package name with trailing dot, empty string for default package
+   */
+  private static String commonPackage(Element[] origins) {
+    String common = null;
+    for (Element origin : origins) {
+      String name = packageOf(origin).getQualifiedName() + ".";
+      if (common == null)
+        common = name;
+      while (!name.startsWith(common)) {
+        common = common.substring(0, common.lastIndexOf('.', common.length() - 2) + 1);
+      }
+    }
+    return common == null || common.equals(".") ? "" : common;
+  }
+
+  /**
+   * Gets first type argument of supertype as it is seen from specified type, e.g. String for class that implements Preprocessor<String>
+   */
+  private TypeMirror findSupertypeArgument(TypeMirror type, String supertype) {
+    for (TypeMirror direct : types().directSupertypes(type)) {
+      if (direct.getKind() != TypeKind.DECLARED)
+        continue;
+      DeclaredType declared = (DeclaredType) direct;
+      if (((TypeElement) declared.asElement()).getQualifiedName().contentEquals(supertype))
+        return declared.getTypeArguments().isEmpty() ? null : declared.getTypeArguments().get(0);
+      TypeMirror result = findSupertypeArgument(direct, supertype);
+      if (result != null)
+        return result;
+    }
+    return null;
+  }
+
+  /**
+   * Port of runtime ReflectionUtils.isAssignableFromTo, class at runtime is declared type without type arguments here
+   *
+   * @param from return type of endpoint
+   * @param to   preprocessed type
+   */
+  private boolean isAssignableFromTo(TypeMirror from, TypeMirror to) {
+    if (isClass(to) && isClass(from))
+      return types().isSameType(from, to);
+    if (isParameterized(to)) {
+      List<? extends TypeMirror> toArguments = ((DeclaredType) to).getTypeArguments();
+      if (isParameterized(from)) {
+        List<? extends TypeMirror> fromArguments = ((DeclaredType) from).getTypeArguments();
+        if (!sameErasure(from, to) || fromArguments.size() != toArguments.size())
+          return false;
+        for (int i = 0; i < fromArguments.size(); i++) {
+          if (!isAssignableFromTo(fromArguments.get(i), toArguments.get(i)))
+            return false;
+        }
+        return true;
+      }
+      if (!isClass(from) || !sameErasure(from, to))
+        return false;
+      for (TypeMirror toArgument : toArguments) {
+        if (!isAssignableFromTo(object(), toArgument))
+          return false;
+      }
+      return true;
+    }
+    if (to.getKind() == TypeKind.WILDCARD) {
+      TypeMirror bound = ((WildcardType) to).getExtendsBound();
+      if (bound == null)
+        bound = object();
+      if (!isParameterized(from) && !isClass(from))
+        return false;
+      if (!types().isSubtype(types().erasure(from), types().erasure(bound)))
+        return false;
+      if (!isParameterized(bound) || !isParameterized(from))
+        return true;
+      List<? extends TypeMirror> fromArguments = ((DeclaredType) from).getTypeArguments();
+      List<? extends TypeMirror> boundArguments = ((DeclaredType) bound).getTypeArguments();
+      if (fromArguments.size() != boundArguments.size())
+        return false;
+      for (int i = 0; i < fromArguments.size(); i++) {
+        if (!isAssignableFromTo(fromArguments.get(i), boundArguments.get(i)))
+          return false;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Type that is represented by Class at runtime
+   */
+  private static boolean isClass(TypeMirror type) {
+    if (type.getKind().isPrimitive())
+      return true;
+    if (type.getKind() == TypeKind.ARRAY)
+      return isClass(((ArrayType) type).getComponentType());
+    return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).getTypeArguments().isEmpty();
+  }
+
+  private static boolean isParameterized(TypeMirror type) {
+    return type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty();
+  }
+
+  private boolean sameErasure(TypeMirror first, TypeMirror second) {
+    return types().isSameType(types().erasure(first), types().erasure(second));
+  }
+
+  /**
+   * Defines if type can be created in generated source, types with type variables or owner types with arguments can't
+   */
+  private boolean isExpressible(TypeMirror type, String tablePackage) {
+    switch (type.getKind()) {
+      case ARRAY:
+        return isExpressible(((ArrayType) type).getComponentType(), tablePackage);
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        return (wildcard.getExtendsBound() == null || isExpressible(wildcard.getExtendsBound(), tablePackage)) &&
+            (wildcard.getSuperBound() == null || isExpressible(wildcard.getSuperBound(), tablePackage));
+      case DECLARED:
+        DeclaredType declared = (DeclaredType) type;
+        if (!isAccessible(declared.asElement(), tablePackage) || isParameterized(declared.getEnclosingType()))
+          return false;
+        for (TypeMirror argument : declared.getTypeArguments()) {
+          if (!isExpressible(argument, tablePackage))
+            return false;
+        }
+        return true;
+      default:
+        return type.getKind().isPrimitive() || type.getKind() == TypeKind.VOID;
+    }
+  }
+
+  /**
+   * Creates java expression that builds type equal to reflection type of specified type mirror
+   */
+  private String typeExpression(TypeMirror type) {
+    if (isClass(type) || type.getKind() == TypeKind.VOID)
+      return types().erasure(type).toString() + ".class";
+    if (type.getKind() == TypeKind.ARRAY)
+      return "Types.arrayOf(" + typeExpression(((ArrayType) type).getComponentType()) + ")";
+    if (type.getKind() == TypeKind.WILDCARD) {
+      WildcardType wildcard = (WildcardType) type;
+      if (wildcard.getSuperBound() != null)
+        return "Types.supertypeOf(" + typeExpression(wildcard.getSuperBound()) + ")";
+      return "Types.subtypeOf(" + (wildcard.getExtendsBound() == null ? "Object.class" : typeExpression(wildcard.getExtendsBound())) + ")";
+    }
+    StringBuilder result = new StringBuilder("Types.parameterized(").append(types().erasure(type)).append(".class");
+    for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+      result.append(", ").append(typeExpression(argument));
+    }
+    return result.append(')').toString();
+  }
+
+  private static String classLiteral(TypeElement element) {
+    return element.getQualifiedName() + ".class";
+  }
+
+  /**
+   * Referenced classes should not be private, not public ones should be in package of generated table
+   */
+  private static boolean isAccessible(Element element, String tablePackage) {
+    for (Element current = element; current != null && current.getKind() != ElementKind.PACKAGE; current = current.getEnclosingElement()) {
+      if (current.getModifiers().contains(Modifier.PRIVATE))
+        return false;
+      if ((current.getKind().isClass() || current.getKind().isInterface()) && !current.getModifiers().contains(Modifier.PUBLIC) &&
+          !packageOf(current).getQualifiedName().contentEquals(tablePackage))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isPrivate(Element element) {
+    for (Element current = element; current != null && current.getKind() != ElementKind.PACKAGE; current = current.getEnclosingElement()) {
+      if (current.getModifiers().contains(Modifier.PRIVATE))
+        return true;
+    }
+    return false;
+  }
+
+  private static PackageElement packageOf(Element element) {
+    Element current = element;
+    while (current.getKind() != ElementKind.PACKAGE) {
+      current = current.getEnclosingElement();
+    }
+    return (PackageElement) current;
+  }
+
+  private TypeMirror object() {
+    return processingEnv.getElementUtils().getTypeElement("java.lang.Object").asType();
+  }
+
+  private Types types() {
+    return processingEnv.getTypeUtils();
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  private void warning(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, element);
+  }
+
+}
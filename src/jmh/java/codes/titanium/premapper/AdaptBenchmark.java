@@ -0,0 +1,48 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import org.openjdk.jmh.annotations.*;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import static codes.titanium.premapper.BenchmarkSupport.*;
+
+/**
+ * Measures per call overhead of preprocessing chain, run with gc profiler to see allocation per call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaptBenchmark {
+
+  @Param({"0", "1", "5", "20"})
+  int chainLength;
+
+  private CallAdapter<TestEntity, Object> callAdapter;
+  private Call<TestEntity> call;
+
+  @Setup
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    Type returnType = Endpoints.class.getDeclaredMethod("call").getGenericReturnType();
+    PreprocessAdapter adapter = PreprocessAdapter.create(new DirectCallAdapterFactory(), callPreprocessors(chainLength));
+    callAdapter = (CallAdapter<TestEntity, Object>) adapter.get(returnType, NO_ANNOTATIONS, RETROFIT);
+    call = new StubCall();
+  }
+
+  @Benchmark
+  public Object adapt() {
+    return callAdapter.adapt(call);
+  }
+
+  private interface Endpoints {
+    Call<TestEntity> call();
+  }
+
+}
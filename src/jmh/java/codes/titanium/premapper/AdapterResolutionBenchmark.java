@@ -0,0 +1,49 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestService;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import static codes.titanium.premapper.BenchmarkSupport.*;
+
+/**
+ * Measures {@link PreprocessAdapter#get} cost, that is paid for every endpoint on first call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdapterResolutionBenchmark {
+
+  @Param({"1", "10", "150"})
+  int preprocessorsCount;
+
+  @Param({"1", "3", "5"})
+  int depth;
+
+  private PreprocessAdapter adapter;
+  private Type nestedType;
+  private Type parametrizedType;
+
+  @Setup
+  public void setUp() throws Exception {
+    adapter = PreprocessAdapter.create(new DirectCallAdapterFactory(), resolutionPreprocessors(preprocessorsCount));
+    nestedType = nestedType(depth);
+    parametrizedType = TestService.class.getMethod("getParametrized").getGenericReturnType();
+  }
+
+  @Benchmark
+  public Object nested() {
+    return adapter.get(nestedType, NO_ANNOTATIONS, RETROFIT);
+  }
+
+  @Benchmark
+  public Object parametrized() {
+    return adapter.get(parametrizedType, NO_ANNOTATIONS, RETROFIT);
+  }
+
+}
@@ -0,0 +1,265 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import rx.Observable;
+import rx.Single;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Shared infrastructure for benchmarks, nothing here touches network
+ */
+final class BenchmarkSupport {
+
+  static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+  static final Retrofit RETROFIT = new Retrofit.Builder()
+      .baseUrl("http://example.com")
+      .build();
+
+  private BenchmarkSupport() {
+  }
+
+  /**
+   * Creates list of preprocessors for resolution benchmarks.
+   * Matching and not matching signatures are mixed, so every bucket of index is filled.
+   */
+  static List<Preprocessor> resolutionPreprocessors(int count) {
+    List<Preprocessor> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      switch (i % 6) {
+        case 0:
+          result.add(new EntityPreprocessor());
+          break;
+        case 1:
+          result.add(new WildcardPreprocessor());
+          break;
+        case 2:
+          result.add(new NestedListPreprocessor());
+          break;
+        case 3:
+          result.add(new EntityListPreprocessor());
+          break;
+        case 4:
+          result.add(new SinglePreprocessor());
+          break;
+        default:
+          result.add(new StringPreprocessor());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Creates chain of {@code Call<TestEntity>} preprocessors, 5 different classes are rotated
+   */
+  static List<Preprocessor> callPreprocessors(int count) {
+    List<Preprocessor> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      switch (i % 5) {
+        case 0:
+          result.add(new FirstCallPreprocessor());
+          break;
+        case 1:
+          result.add(new SecondCallPreprocessor());
+          break;
+        case 2:
+          result.add(new ThirdCallPreprocessor());
+          break;
+        case 3:
+          result.add(new FourthCallPreprocessor());
+          break;
+        default:
+          result.add(new FifthCallPreprocessor());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Creates type with specified nesting depth, e.g. {@code Observable<List<List<TestEntity>>>} for depth 3
+   */
+  static Type nestedType(int depth) {
+    Type result = TestEntity.class;
+    for (int i = 1; i < depth; i++) {
+      result = new SimpleParameterizedType(List.class, result);
+    }
+    return new SimpleParameterizedType(Observable.class, result);
+  }
+
+  /**
+   * Call adapter factory that returns call itself, so adapt cost consists only of preprocessing
+   */
+  static class DirectCallAdapterFactory extends CallAdapter.Factory {
+    @Override
+    public CallAdapter<?, ?> get(final Type returnType, Annotation[] annotations, Retrofit retrofit) {
+      return new CallAdapter<Object, Object>() {
+        @Override
+        public Type responseType() {
+          return returnType;
+        }
+
+        @Override
+        public Object adapt(Call<Object> call) {
+          return call;
+        }
+      };
+    }
+  }
+
+  static class StubCall implements Call<TestEntity> {
+    @Override
+    public Response<TestEntity> execute() {
+      return Response.success(new TestEntity());
+    }
+
+    @Override
+    public void enqueue(Callback<TestEntity> callback) {
+      callback.onResponse(this, execute());
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return false;
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return false;
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<TestEntity> clone() {
+      return new StubCall();
+    }
+
+    @Override
+    public Request request() {
+      return new Request.Builder().url("http://example.com").build();
+    }
+  }
+
+  private static class SimpleParameterizedType implements ParameterizedType {
+    private final Class<?> rawType;
+    private final Type[] arguments;
+
+    private SimpleParameterizedType(Class<?> rawType, Type... arguments) {
+      this.rawType = rawType;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public Type[] getActualTypeArguments() {
+      return arguments.clone();
+    }
+
+    @Override
+    public Type getRawType() {
+      return rawType;
+    }
+
+    @Override
+    public Type getOwnerType() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return rawType.getName() + Arrays.toString(arguments);
+    }
+  }
+
+  private static class EntityPreprocessor implements Preprocessor<Observable<TestEntity>> {
+    @Override
+    public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+      return source;
+    }
+  }
+
+  private static class WildcardPreprocessor implements Preprocessor<Observable<?>> {
+    @Override
+    public Observable<?> preprocess(Observable<?> source) {
+      return source;
+    }
+  }
+
+  private static class NestedListPreprocessor implements Preprocessor<Observable<? extends List<? extends List<?>>>> {
+    @Override
+    public Observable<? extends List<? extends List<?>>> preprocess(Observable<? extends List<? extends List<?>>> source) {
+      return source;
+    }
+  }
+
+  private static class EntityListPreprocessor implements Preprocessor<Observable<List<TestEntity>>> {
+    @Override
+    public Observable<List<TestEntity>> preprocess(Observable<List<TestEntity>> source) {
+      return source;
+    }
+  }
+
+  private static class SinglePreprocessor implements Preprocessor<Single<TestEntity>> {
+    @Override
+    public Single<TestEntity> preprocess(Single<TestEntity> source) {
+      return source;
+    }
+  }
+
+  private static class StringPreprocessor implements Preprocessor<Observable<String>> {
+    @Override
+    public Observable<String> preprocess(Observable<String> source) {
+      return source;
+    }
+  }
+
+  private static class FirstCallPreprocessor implements Preprocessor<Call<TestEntity>> {
+    @Override
+    public Call<TestEntity> preprocess(Call<TestEntity> source) {
+      return source;
+    }
+  }
+
+  private static class SecondCallPreprocessor implements Preprocessor<Call<TestEntity>> {
+    @Override
+    public Call<TestEntity> preprocess(Call<TestEntity> source) {
+      return source;
+    }
+  }
+
+  private static class ThirdCallPreprocessor implements Preprocessor<Call<TestEntity>> {
+    @Override
+    public Call<TestEntity> preprocess(Call<TestEntity> source) {
+      return source;
+    }
+  }
+
+  private static class FourthCallPreprocessor implements Preprocessor<Call<TestEntity>> {
+    @Override
+    public Call<TestEntity> preprocess(Call<TestEntity> source) {
+      return source;
+    }
+  }
+
+  private static class FifthCallPreprocessor implements Preprocessor<Call<TestEntity>> {
+    @Override
+    public Call<TestEntity> preprocess(Call<TestEntity> source) {
+      return source;
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.*;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures throughput of full calls through adapter shared by threads, compare single thread score with score per thread
+ * of contended run to see whether shared state of adapter makes parallel calls slower
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+
+  private TestService testService;
+
+  @Setup
+  public void setUp() {
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(appendingPreprocessor("a"))
+        .addPreprocessor(appendingPreprocessor("b"))
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            return body.setTestString("body");
+          }
+        })
+        .build();
+    testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder()
+            .addInterceptor(chain -> new Response.Builder()
+                .request(chain.request())
+                .protocol(Protocol.HTTP_1_1)
+                .body(ResponseBody.create(MediaType.parse("text/plain"), ""))
+                .message("Success")
+                .code(200)
+                .build())
+            .build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public TestEntity singleThread() {
+    return testService.getEntity().toBlocking().first();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public TestEntity contended() {
+    return testService.getEntity().toBlocking().first();
+  }
+
+  private static Preprocessor<Observable<TestEntity>> appendingPreprocessor(String suffix) {
+    return new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source.doOnNext(entity -> entity.setTestString(entity.getTestString() + suffix));
+      }
+    };
+  }
+
+}
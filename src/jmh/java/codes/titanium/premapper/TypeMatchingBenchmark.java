@@ -0,0 +1,97 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import org.openjdk.jmh.annotations.*;
+import rx.Observable;
+
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ReflectionUtils#isAssignableFromTo} for different shapes of types
+ * and memoized {@link TypeMatcher} with keys described once, as adapters do
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeMatchingBenchmark {
+
+  private Type entityClass;
+  private Type mapListString;
+  private Type listSet;
+  private Type fullWildcard;
+  private Type nestedWildcard;
+  private Type mapWildcard;
+  private TypeMatcher.TypeKey listSetKey;
+  private TypeMatcher.TypeKey nestedWildcardKey;
+
+  @Setup
+  public void setUp() throws Exception {
+    entityClass = type("entityClass");
+    mapListString = type("mapListString");
+    listSet = type("listSet");
+    fullWildcard = type("fullWildcard");
+    nestedWildcard = type("nestedWildcard");
+    mapWildcard = type("mapWildcard");
+    listSetKey = TypeMatcher.TypeKey.of(listSet);
+    nestedWildcardKey = TypeMatcher.TypeKey.of(nestedWildcard);
+  }
+
+  @Benchmark
+  public boolean classToClass() {
+    return ReflectionUtils.isAssignableFromTo(entityClass, entityClass);
+  }
+
+  @Benchmark
+  public boolean parametrizedToParametrized() {
+    return ReflectionUtils.isAssignableFromTo(mapListString, mapListString);
+  }
+
+  @Benchmark
+  public boolean parametrizedToFullWildcard() {
+    return ReflectionUtils.isAssignableFromTo(mapListString, fullWildcard);
+  }
+
+  @Benchmark
+  public boolean parametrizedToNestedWildcard() {
+    return ReflectionUtils.isAssignableFromTo(listSet, nestedWildcard);
+  }
+
+  @Benchmark
+  public boolean parametrizedToMapWildcard() {
+    return ReflectionUtils.isAssignableFromTo(mapListString, mapWildcard);
+  }
+
+  @Benchmark
+  public boolean memoizedParametrizedToNestedWildcard() {
+    return TypeMatcher.isAssignableFromTo(listSet, listSetKey, nestedWildcard, nestedWildcardKey);
+  }
+
+  private static Type type(String name) throws Exception {
+    return Shapes.class.getDeclaredMethod(name).getGenericReturnType();
+  }
+
+  private static abstract class Shapes {
+
+    abstract TestEntity entityClass();
+
+    abstract Observable<Map<List, String>> mapListString();
+
+    abstract Observable<List<HashSet>> listSet();
+
+    abstract Observable<?> fullWildcard();
+
+    abstract Observable<? extends List<? extends Set>> nestedWildcard();
+
+    abstract Observable<Map<? extends List, ?>> mapWildcard();
+
+  }
+
+}
@@ -0,0 +1,177 @@
+package codes.titanium.premapper;
+
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Applies {@link AsyncPreprocessor} chain of endpoint to body of successful response.
+ * Stages of enqueued calls are composed in callbacks, so no thread waits for them,
+ * {@link Call#execute()} waits for them on caller thread instead of dispatcher of client.
+ */
+class AsyncPreprocessing implements CallDecorator {
+
+  private final AsyncPreprocessor<Object>[] preprocessors;
+
+  @SuppressWarnings("unchecked")
+  AsyncPreprocessing(List<AsyncPreprocessor> preprocessors) {
+    this.preprocessors = preprocessors.toArray(new AsyncPreprocessor[preprocessors.size()]);
+  }
+
+  @Override
+  public <R> Call<R> decorate(Call<R> call) {
+    return new AsyncCall<>(call, this);
+  }
+
+  private static class AsyncCall<R> implements Call<R> {
+
+    private final Call<R> delegate;
+    private final AsyncPreprocessing preprocessing;
+    private final AtomicBoolean executed = new AtomicBoolean();
+    private volatile boolean canceled;
+
+    private AsyncCall(Call<R> delegate, AsyncPreprocessing preprocessing) {
+      this.delegate = delegate;
+      this.preprocessing = preprocessing;
+    }
+
+    /**
+     * Executes request on caller thread and waits for stages of preprocessors one by one
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Response<R> execute() throws IOException {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      Response<R> response = delegate.execute();
+      if (!response.isSuccessful() || response.body() == null)
+        return response;
+      Object body = response.body();
+      for (AsyncPreprocessor<Object> preprocessor : preprocessing.preprocessors) {
+        if (canceled)
+          throw new IOException("Canceled");
+        body = await(stageOf(preprocessor, body));
+      }
+      return Response.success((R) body, response.raw());
+    }
+
+    @Override
+    public void enqueue(final Callback<R> callback) {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      delegate.enqueue(new Callback<R>() {
+        @Override
+        public void onResponse(Call<R> call, Response<R> response) {
+          if (!response.isSuccessful() || response.body() == null) {
+            callback.onResponse(AsyncCall.this, response);
+            return;
+          }
+          preprocess(0, response.body(), response.raw(), callback);
+        }
+
+        @Override
+        public void onFailure(Call<R> call, Throwable t) {
+          callback.onFailure(AsyncCall.this, t);
+        }
+      });
+    }
+
+    /**
+     * Starts preprocessor with given index, next one is started when its stage is completed
+     */
+    @SuppressWarnings("unchecked")
+    private void preprocess(final int index, Object body, final okhttp3.Response raw, final Callback<R> callback) {
+      if (canceled) {
+        callback.onFailure(this, new IOException("Canceled"));
+        return;
+      }
+      if (index == preprocessing.preprocessors.length) {
+        callback.onResponse(this, Response.success((R) body, raw));
+        return;
+      }
+      CompletionStage<Object> stage;
+      try {
+        stage = stageOf(preprocessing.preprocessors[index], body);
+      } catch (RuntimeException e) {
+        callback.onFailure(this, e);
+        return;
+      }
+      stage.whenComplete(new BiConsumer<Object, Throwable>() {
+        @Override
+        public void accept(Object result, Throwable failure) {
+          if (failure == null)
+            preprocess(index + 1, result, raw, callback);
+          else
+            callback.onFailure(AsyncCall.this, unwrap(failure));
+        }
+      });
+    }
+
+    private static CompletionStage<Object> stageOf(AsyncPreprocessor<Object> preprocessor, Object body) {
+      CompletionStage<Object> stage = preprocessor.preprocess(body);
+      if (stage == null)
+        throw new NullPointerException("Async preprocessor " + preprocessor + " returned null stage");
+      return stage;
+    }
+
+    private static Object await(CompletionStage<Object> stage) throws IOException {
+      try {
+        return stage.toCompletableFuture().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for async preprocessor");
+      } catch (ExecutionException e) {
+        Throwable failure = unwrap(e.getCause());
+        if (failure instanceof IOException)
+          throw (IOException) failure;
+        if (failure instanceof RuntimeException)
+          throw (RuntimeException) failure;
+        if (failure instanceof Error)
+          throw (Error) failure;
+        throw new IOException(failure);
+      }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+      return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    @Override
+    public void cancel() {
+      canceled = true;
+      delegate.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return canceled;
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<R> clone() {
+      return new AsyncCall<>(delegate.clone(), preprocessing);
+    }
+
+    @Override
+    public Request request() {
+      return delegate.request();
+    }
+  }
+
+}
@@ -0,0 +1,19 @@
+package codes.titanium.premapper;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Preprocessor for entity converted from response body that completes asynchronously, e.g. after lookup in remote cache.
+ * Applied to responses of endpoints of any call adapter after {@link BodyPreprocessor}, caller thread is never blocked:
+ * response is passed further when stages of all async preprocessors are completed.
+ * Failed stage fails the call.
+ */
+public interface AsyncPreprocessor<T> {
+
+  /**
+   * @param body entity converted from response body
+   * @return stage with entity that will be passed further
+   */
+  CompletionStage<T> preprocess(T body);
+
+}
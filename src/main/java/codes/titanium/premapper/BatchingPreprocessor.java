@@ -0,0 +1,185 @@
+package codes.titanium.premapper;
+
+import java.io.Closeable;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Body preprocessor that gathers entities from all responses into batches and passes every batch to {@link #onBatch(List)}.
+ * Batch is flushed as soon as it reaches batch size or when its oldest entity waits for max delay.
+ * Entities are collected in lock free queue and flushed by single daemon thread, started on first entity.
+ * <p>
+ * Should be extended with concrete type, e.g. {@code new BatchingPreprocessor<Cookie>(100, 50, TimeUnit.MILLISECONDS, false) {...}}
+ */
+public abstract class BatchingPreprocessor<T> implements BodyPreprocessor<T>, Typed, Closeable {
+
+  private final Type preprocessedType;
+  private final int batchSize;
+  private final long maxDelayNanos;
+  private final boolean awaitCommit;
+  private final Queue<Pending<T>> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private final Thread flusher;
+  private final AtomicInteger state = new AtomicInteger(NEW);
+
+  private static final int NEW = 0;
+  private static final int RUNNING = 1;
+  private static final int CLOSED = 2;
+
+  /**
+   * @param batchSize   max number of entities in one batch
+   * @param maxDelay    max time that entity waits for its batch
+   * @param awaitCommit if true entity is passed further only after its batch was processed by {@link #onBatch(List)}
+   */
+  protected BatchingPreprocessor(int batchSize, long maxDelay, TimeUnit unit, boolean awaitCommit) {
+    if (batchSize < 1)
+      throw new IllegalArgumentException("Batch size should be positive");
+    if (maxDelay < 0)
+      throw new IllegalArgumentException("Max delay should not be negative");
+    this.preprocessedType = ReflectionUtils.getSupertypeArgument(getClass(), BatchingPreprocessor.class);
+    this.batchSize = batchSize;
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.awaitCommit = awaitCommit;
+    this.flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flushLoop();
+      }
+    }, "preprocessor-batching-" + getClass().getName());
+    this.flusher.setDaemon(true);
+  }
+
+  /**
+   * Processes batch of entities, e.g. saves all of them to database in single transaction.
+   * Called only from flusher thread, so batches are never processed concurrently.
+   */
+  protected abstract void onBatch(List<T> batch);
+
+  @Override
+  public final T preprocess(T body) {
+    if (state.get() == NEW && state.compareAndSet(NEW, RUNNING))
+      flusher.start();
+    if (state.get() == CLOSED)
+      throw new IllegalStateException("Batching preprocessor is closed");
+    Pending<T> pending = new Pending<>(body, awaitCommit ? new CountDownLatch(1) : null);
+    queue.add(pending);
+    //flusher could already finish its last flush, entity can't be processed in that case
+    if (state.get() == CLOSED && queue.remove(pending))
+      throw new IllegalStateException("Batching preprocessor is closed");
+    int currentSize = size.incrementAndGet();
+    if (currentSize == 1 || currentSize >= batchSize)
+      LockSupport.unpark(flusher);
+    if (awaitCommit)
+      pending.await();
+    return body;
+  }
+
+  @Override
+  public final Type getPreprocessedType() {
+    return preprocessedType;
+  }
+
+  /**
+   * Flushes all pending entities and stops flusher thread
+   */
+  @Override
+  public void close() {
+    if (state.getAndSet(CLOSED) != RUNNING)
+      return;
+    LockSupport.unpark(flusher);
+    boolean interrupted = false;
+    while (flusher.isAlive()) {
+      try {
+        flusher.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private void flushLoop() {
+    while (true) {
+      //state is read first, entity added before producer saw running state is in queue once flusher sees it closed
+      boolean closed = state.get() == CLOSED;
+      Pending<T> oldest = queue.peek();
+      if (oldest == null) {
+        if (closed)
+          return;
+        LockSupport.park(this);
+        continue;
+      }
+      long delay = oldest.enqueuedAt + maxDelayNanos - System.nanoTime();
+      if (!closed && size.get() < batchSize && delay > 0) {
+        LockSupport.parkNanos(this, delay);
+        continue;
+      }
+      flush();
+    }
+  }
+
+  private void flush() {
+    List<Pending<T>> pendings = new ArrayList<>(Math.min(batchSize, size.get()));
+    Pending<T> pending;
+    while (pendings.size() < batchSize && (pending = queue.poll()) != null) {
+      pendings.add(pending);
+    }
+    size.addAndGet(-pendings.size());
+    List<T> batch = new ArrayList<>(pendings.size());
+    for (Pending<T> item : pendings) {
+      batch.add(item.body);
+    }
+    //any failure, even error, fails only this batch, so flusher keeps running and waiting entities are released
+    Throwable failure = null;
+    try {
+      onBatch(batch);
+    } catch (Throwable t) {
+      failure = t;
+    }
+    for (Pending<T> item : pendings) {
+      item.commit(failure);
+    }
+  }
+
+  private static class Pending<T> {
+    private final T body;
+    private final long enqueuedAt = System.nanoTime();
+    private final CountDownLatch committed;
+    private volatile Throwable failure;
+
+    private Pending(T body, CountDownLatch committed) {
+      this.body = body;
+      this.committed = committed;
+    }
+
+    private void commit(Throwable failure) {
+      if (committed == null)
+        return;
+      this.failure = failure;
+      committed.countDown();
+    }
+
+    /**
+     * Waits until batch is processed, interruption stops waiting, keeps interrupted flag and fails as entity is not committed
+     */
+    private void await() {
+      try {
+        committed.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for batch with entity", e);
+      }
+      if (failure != null)
+        throw new IllegalStateException("Batch with entity was not processed", failure);
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+package codes.titanium.premapper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor of blocking preprocessors.
+ * This implementation is bounded pool of daemon threads, on Java 21+ it is replaced by implementation from
+ * META-INF/versions/21 of multi release jar, which starts virtual thread for every preprocessor.
+ */
+final class BlockingExecutors {
+
+  private BlockingExecutors() {
+  }
+
+  static Executor shared() {
+    return Holder.INSTANCE;
+  }
+
+  private static class Holder {
+    private static final int THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+    private static final ThreadPoolExecutor INSTANCE = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "premapper-blocking-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    static {
+      INSTANCE.allowCoreThreadTimeOut(true);
+    }
+  }
+
+}
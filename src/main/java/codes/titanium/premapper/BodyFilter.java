@@ -0,0 +1,18 @@
+package codes.titanium.premapper;
+
+/**
+ * Filter for entity converted from response body, applied in chain of body preprocessors.
+ * Dropped entity is not passed to remaining body preprocessors, so implement {@link Prioritized} to drop entities
+ * before expensive preprocessors.
+ */
+public interface BodyFilter<T> {
+
+  /**
+   * Exception thrown from here rejects whole response, like exception of any preprocessor.
+   *
+   * @return false to drop entity: element of collection, array or {@link ElementStream} is removed,
+   * dropped body of response fails call with {@link DroppedBodyException}
+   */
+  boolean accept(T body);
+
+}
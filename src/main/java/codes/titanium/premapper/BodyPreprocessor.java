@@ -0,0 +1,21 @@
+package codes.titanium.premapper;
+
+
+/**
+ * Preprocessor for entity converted from response body.
+ * Unlike {@link Preprocessor} it receives plain entity instead of adapted type, so same preprocessor works with any call adapter.
+ * Invoked by {@link PreprocessAdapter#converterFactory()} just after deserialization, on the thread that executed request.
+ */
+public interface BodyPreprocessor<T> {
+
+  /**
+   * Main logic of body preprocessing should be here.
+   *
+   * @param body entity just after it was converted from response body
+   * @return entity that will be passed further to call adapter, null drops entity like {@link BodyFilter}:
+   * remaining body preprocessors are skipped, element of collection, array or {@link ElementStream} is removed,
+   * dropped body of response fails call with {@link DroppedBodyException}
+   */
+  T preprocess(T body);
+
+}
@@ -0,0 +1,47 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits number of concurrent calls of annotated endpoint, so degraded upstream can't take all threads of http client.
+ * Calls over limit wait in queue or are rejected with {@link RejectedCallException} before request is sent.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkhead {
+
+  /**
+   * Max number of concurrent calls
+   */
+  int maxConcurrent();
+
+  /**
+   * Endpoints with same group share single limit, every endpoint method of every retrofit has its own limit by default.
+   * Settings of first created endpoint of group are used.
+   */
+  String group() default "";
+
+  /**
+   * Max number of calls waiting for permit, calls over it are rejected
+   */
+  int maxQueued() default 0;
+
+  /**
+   * Max time that executed call waits in queue, after it call is rejected with {@link RejectedCallException}.
+   * Enqueued calls wait in queue without thread and are not limited by it
+   */
+  long maxWait() default 30_000;
+
+  /**
+   * Latency that is treated as overload, enables adaptive limit: it is decreased by tenth on slow or failed calls
+   * and increased by one after every limit of fast calls, but never above {@link #maxConcurrent()}. 0 for fixed limit.
+   */
+  long latencyThreshold() default 0;
+
+  /**
+   * Unit of {@link #latencyThreshold()} and {@link #maxWait()}
+   */
+  TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+}
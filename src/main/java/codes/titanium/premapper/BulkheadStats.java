@@ -0,0 +1,69 @@
+package codes.titanium.premapper;
+
+/**
+ * Immutable counters of bulkhead
+ */
+public final class BulkheadStats {
+
+  private final int limit;
+  private final int inFlight;
+  private final int queued;
+  private final long accepted;
+  private final long rejected;
+
+  BulkheadStats(int limit, int inFlight, int queued, long accepted, long rejected) {
+    this.limit = limit;
+    this.inFlight = inFlight;
+    this.queued = queued;
+    this.accepted = accepted;
+    this.rejected = rejected;
+  }
+
+  /**
+   * @return sum of counters, e.g. of endpoints with same description
+   */
+  BulkheadStats plus(BulkheadStats other) {
+    return new BulkheadStats(limit + other.limit, inFlight + other.inFlight, queued + other.queued,
+        accepted + other.accepted, rejected + other.rejected);
+  }
+
+  /**
+   * @return current limit of concurrent calls, changes over time for adaptive bulkhead
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  public int getQueued() {
+    return queued;
+  }
+
+  /**
+   * @return number of calls that got permit
+   */
+  public long getAccepted() {
+    return accepted;
+  }
+
+  /**
+   * @return number of calls that were rejected because limit and queue were full
+   */
+  public long getRejected() {
+    return rejected;
+  }
+
+  @Override
+  public String toString() {
+    return "BulkheadStats{" +
+        "limit=" + limit +
+        ", inFlight=" + inFlight +
+        ", queued=" + queued +
+        ", accepted=" + accepted +
+        ", rejected=" + rejected +
+        '}';
+  }
+}
@@ -0,0 +1,66 @@
+package codes.titanium.premapper;
+
+/**
+ * Immutable counters of in memory cache
+ */
+public final class CacheStats {
+
+  private final long hits;
+  private final long misses;
+  private final long evictions;
+  private final int size;
+
+  CacheStats(long hits, long misses, long evictions, int size) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.size = size;
+  }
+
+  /**
+   * @return sum of counters, e.g. of endpoints with same description
+   */
+  CacheStats plus(CacheStats other) {
+    return new CacheStats(hits + other.hits, misses + other.misses, evictions + other.evictions, size + other.size);
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return number of entries that were removed because cache was full
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return current number of entries
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return ratio of hits to all requests, 0 if cache was never requested
+   */
+  public double getHitRatio() {
+    long requests = hits + misses;
+    return requests == 0 ? 0 : (double) hits / requests;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats{" +
+        "hits=" + hits +
+        ", misses=" + misses +
+        ", evictions=" + evictions +
+        ", size=" + size +
+        '}';
+  }
+}
@@ -0,0 +1,32 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Successful responses of annotated endpoint are cached in memory already preprocessed, by url and headers of request.
+ * Cache hit is returned without network request, conversion, body preprocessing and preprocessors of adapted type.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+
+  /**
+   * Time to live of cached response
+   */
+  long ttl();
+
+  TimeUnit unit() default TimeUnit.SECONDS;
+
+  /**
+   * Max number of cached responses for endpoint, least recently used are evicted first
+   */
+  int maxEntries() default 100;
+
+  /**
+   * Max sum of Content-Length of cached responses for endpoint, least recently used are evicted first, 0 for no limit.
+   * Responses longer than it are not cached, responses without Content-Length are weighed as empty.
+   */
+  long maxBytes() default 0;
+
+}
@@ -0,0 +1,306 @@
+package codes.titanium.premapper;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces identical in flight calls of single endpoint, created for every endpoint annotated with {@link Coalesce}.
+ * First call executes request, calls with same key that arrive before it is finished wait for its response.
+ * Key is removed as soon as request is finished, so responses are never reused afterwards.
+ * Request is always finished, even by error, and calls waiting synchronously give up after max wait of endpoint.
+ * Call decorated while identical request is in flight joins it, so adapter skips {@link Preprocessor} of adapted type
+ * for it, shared body is preprocessed by call that sent request. Endpoints with such preprocessors join calls only
+ * when they are decorated, calls that find identical request in flight only when they are executed send their own requests.
+ * Clones of joined call return the same response.
+ */
+class CallCoalescer implements CallDecorator {
+
+  private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>();
+  private final long maxWaitNanos;
+  //false if preprocessors of adapted type already run on call when it is executed
+  private final boolean joinsOnExecute;
+
+  /**
+   * @param adaptedPreprocessors true if endpoint has or can get preprocessors of adapted type
+   */
+  CallCoalescer(Coalesce coalesce, boolean adaptedPreprocessors) {
+    if (coalesce.maxWait() <= 0)
+      throw new IllegalArgumentException("Max wait of coalesced endpoint should be positive");
+    this.maxWaitNanos = coalesce.unit().toNanos(coalesce.maxWait());
+    this.joinsOnExecute = !adaptedPreprocessors;
+  }
+
+  @Override
+  public <R> Call<R> decorate(Call<R> call) {
+    return new CoalescingCall<>(call, this, inFlight.get(CallDecorators.keyOf(call.request())));
+  }
+
+  private static class CoalescingCall<R> implements Call<R>, CallDecorators.SharedCall {
+
+    private final Call<R> delegate;
+    private final CallCoalescer coalescer;
+    //request in flight found when call was decorated, null if call sends request or joins one when it is executed
+    private final InFlight joined;
+    private final AtomicBoolean executed = new AtomicBoolean();
+    private volatile boolean canceled;
+
+    private CoalescingCall(Call<R> delegate, CallCoalescer coalescer, InFlight joined) {
+      this.delegate = delegate;
+      this.coalescer = coalescer;
+      this.joined = joined;
+    }
+
+    @Override
+    public Response<R> execute() throws IOException {
+      markExecuted();
+      if (joined != null)
+        return joined.await(this, coalescer.maxWaitNanos);
+      String key = CallDecorators.keyOf(delegate.request());
+      InFlight created = new InFlight();
+      InFlight existing = coalescer.inFlight.putIfAbsent(key, created);
+      if (existing != null)
+        return coalescer.joinsOnExecute ? existing.<R>await(this, coalescer.maxWaitNanos) : delegate.execute();
+      Response<R> response;
+      try {
+        response = delegate.execute();
+      } catch (Throwable t) {
+        finish(key, created, null, t);
+        throw t;
+      }
+      finish(key, created, response, null);
+      return created.await(this, coalescer.maxWaitNanos);
+    }
+
+    @Override
+    public void enqueue(final Callback<R> callback) {
+      markExecuted();
+      if (joined != null) {
+        joined.listen(this, callback);
+        return;
+      }
+      final String key = CallDecorators.keyOf(delegate.request());
+      final InFlight created = new InFlight();
+      InFlight existing = coalescer.inFlight.putIfAbsent(key, created);
+      if (existing != null && coalescer.joinsOnExecute) {
+        existing.listen(this, callback);
+        return;
+      }
+      if (existing != null) {
+        enqueueOwn(callback);
+        return;
+      }
+      try {
+        enqueueShared(key, created, callback);
+      } catch (Throwable t) {
+        finish(key, created, null, t);
+        throw t;
+      }
+    }
+
+    private void enqueueShared(final String key, final InFlight created, final Callback<R> callback) {
+      delegate.enqueue(new Callback<R>() {
+        @Override
+        public void onResponse(Call<R> call, Response<R> response) {
+          finish(key, created, response, null);
+          created.listen(CoalescingCall.this, callback);
+        }
+
+        @Override
+        public void onFailure(Call<R> call, Throwable t) {
+          finish(key, created, null, t);
+          created.listen(CoalescingCall.this, callback);
+        }
+      });
+    }
+
+    private void enqueueOwn(final Callback<R> callback) {
+      delegate.enqueue(new Callback<R>() {
+        @Override
+        public void onResponse(Call<R> call, Response<R> response) {
+          callback.onResponse(CoalescingCall.this, response);
+        }
+
+        @Override
+        public void onFailure(Call<R> call, Throwable t) {
+          callback.onFailure(CoalescingCall.this, t);
+        }
+      });
+    }
+
+    /**
+     * Removes key, so next calls execute new request, and passes result to waiting calls
+     */
+    private void finish(String key, InFlight flight, Response<R> response, Throwable failure) {
+      try {
+        coalescer.inFlight.remove(key, flight);
+      } finally {
+        flight.complete(response, failure);
+      }
+    }
+
+    private void markExecuted() {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+    }
+
+    @Override
+    public boolean isShared() {
+      return joined != null || CallDecorators.isShared(delegate);
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    /**
+     * Cancels only this call, shared request is not canceled as other calls can wait for it
+     */
+    @Override
+    public void cancel() {
+      canceled = true;
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return canceled;
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<R> clone() {
+      return new CoalescingCall<>(delegate.clone(), coalescer, joined);
+    }
+
+    @Override
+    public Request request() {
+      return delegate.request();
+    }
+  }
+
+  /**
+   * Result of request shared between coalesced calls.
+   * Error body can be read only once, so it is buffered and new body is created for every call.
+   */
+  private static class InFlight {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Listener> listeners = new ArrayList<>();
+    private Response<?> response;
+    private byte[] errorBody;
+    private MediaType errorBodyType;
+    private Throwable failure;
+    private boolean completed;
+
+    private void complete(Response<?> response, Throwable failure) {
+      List<Listener> toNotify;
+      synchronized (this) {
+        if (completed)
+          return;
+        if (response == null && failure == null)
+          failure = new IOException("Coalesced call finished without response");
+        if (response != null && !response.isSuccessful() && response.errorBody() != null) {
+          try {
+            errorBodyType = response.errorBody().contentType();
+            errorBody = response.errorBody().bytes();
+          } catch (Throwable t) {
+            response = null;
+            failure = t;
+          }
+        }
+        this.response = response;
+        this.failure = failure;
+        this.completed = true;
+        toNotify = new ArrayList<>(listeners);
+        listeners.clear();
+      }
+      done.countDown();
+      for (Listener listener : toNotify) {
+        listener.notifyResult();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <R> Response<R> responseFor() {
+      if (errorBody == null)
+        return (Response<R>) response;
+      return Response.error(ResponseBody.create(errorBodyType, errorBody), response.raw());
+    }
+
+    private <R> Response<R> await(CoalescingCall<R> call, long maxWaitNanos) throws IOException {
+      try {
+        if (!done.await(maxWaitNanos, TimeUnit.NANOSECONDS))
+          throw new InterruptedIOException("Timed out waiting for coalesced call");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for coalesced call", e);
+      }
+      if (call.canceled)
+        throw new IOException("Canceled");
+      Throwable result;
+      synchronized (this) {
+        result = failure;
+      }
+      if (result instanceof IOException)
+        throw (IOException) result;
+      if (result instanceof RuntimeException)
+        throw (RuntimeException) result;
+      if (result instanceof Error)
+        throw (Error) result;
+      if (result != null)
+        throw new IOException(result);
+      return responseFor();
+    }
+
+    private <R> void listen(CoalescingCall<R> call, Callback<R> callback) {
+      Listener<R> listener = new Listener<>(this, call, callback);
+      synchronized (this) {
+        if (!completed) {
+          listeners.add(listener);
+          return;
+        }
+      }
+      listener.notifyResult();
+    }
+  }
+
+  private static class Listener<R> {
+    private final InFlight flight;
+    private final CoalescingCall<R> call;
+    private final Callback<R> callback;
+
+    private Listener(InFlight flight, CoalescingCall<R> call, Callback<R> callback) {
+      this.flight = flight;
+      this.call = call;
+      this.callback = callback;
+    }
+
+    private void notifyResult() {
+      Throwable failure;
+      synchronized (flight) {
+        failure = flight.failure;
+      }
+      if (call.canceled)
+        callback.onFailure(call, new IOException("Canceled"));
+      else if (failure != null)
+        callback.onFailure(call, failure);
+      else
+        callback.onResponse(call, flight.<R>responseFor());
+    }
+  }
+
+}
@@ -0,0 +1,12 @@
+package codes.titanium.premapper;
+
+import retrofit2.Call;
+
+/**
+ * Decorates call of endpoint before it is passed to wrapped call adapter
+ */
+interface CallDecorator {
+
+  <R> Call<R> decorate(Call<R> call);
+
+}
@@ -0,0 +1,120 @@
+package codes.titanium.premapper;
+
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Helpers for call decorators of endpoint
+ */
+final class CallDecorators {
+
+  private CallDecorators() {
+  }
+
+  /**
+   * @return decorator that applies all decorators, first one is outermost, null if list is empty
+   */
+  static CallDecorator compose(List<CallDecorator> decorators) {
+    switch (decorators.size()) {
+      case 0:
+        return null;
+      case 1:
+        return decorators.get(0);
+      default:
+        return new Composite(decorators.toArray(new CallDecorator[decorators.size()]));
+    }
+  }
+
+  /**
+   * @return true if call returns response shared with other calls, so preprocessors of adapted type should not run on it again
+   */
+  static boolean isShared(Call<?> call) {
+    return call instanceof SharedCall && ((SharedCall) call).isShared();
+  }
+
+  /**
+   * @return key that identifies request by its method, url and headers
+   */
+  static String keyOf(Request request) {
+    return request.method() + " " + request.url() + "\n" + request.headers();
+  }
+
+  /**
+   * Callback that lets synchronous caller wait for result passed from another thread
+   */
+  static class BlockingCallback<R> implements Callback<R> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private Response<R> response;
+    private Throwable failure;
+
+    /**
+     * Waits for result, interruption cancels call
+     */
+    Response<R> await(Call<R> call) throws IOException {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        call.cancel();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for call");
+      }
+      if (failure instanceof IOException)
+        throw (IOException) failure;
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error)
+        throw (Error) failure;
+      if (failure != null)
+        throw new IOException(failure);
+      return response;
+    }
+
+    @Override
+    public void onResponse(Call<R> call, Response<R> response) {
+      this.response = response;
+      done.countDown();
+    }
+
+    @Override
+    public void onFailure(Call<R> call, Throwable t) {
+      this.failure = t;
+      done.countDown();
+    }
+  }
+
+  /**
+   * Call of decorator that can return response of another call, e.g. cached or coalesced one
+   */
+  interface SharedCall {
+
+    /**
+     * Known when call is decorated, before adapter applies preprocessors of adapted type
+     */
+    boolean isShared();
+  }
+
+  private static class Composite implements CallDecorator {
+    private final CallDecorator[] decorators;
+
+    private Composite(CallDecorator[] decorators) {
+      this.decorators = decorators;
+    }
+
+    @Override
+    public <R> Call<R> decorate(Call<R> call) {
+      Call<R> result = call;
+      for (int i = decorators.length - 1; i >= 0; i--) {
+        result = decorators[i].decorate(result);
+      }
+      return result;
+    }
+  }
+
+}
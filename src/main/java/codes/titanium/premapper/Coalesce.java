@@ -0,0 +1,21 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identical calls of annotated endpoint (same url and headers) that are in flight at the same time share single network request
+ * and single preprocessed response. Use it only for idempotent requests.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Coalesce {
+
+  /**
+   * Max time that call waits for identical call in flight, after it call fails with {@link java.io.InterruptedIOException}
+   */
+  long maxWait() default 30_000;
+
+  TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+}
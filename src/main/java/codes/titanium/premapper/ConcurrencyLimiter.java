@@ -0,0 +1,307 @@
+package codes.titanium.premapper;
+
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits concurrent calls of endpoint or group of endpoints annotated with {@link Bulkhead}.
+ * Permits are taken without locks and blocking: calls over limit are put into queue and started by call that releases permit,
+ * or are rejected when queue is full. Executed calls wait in queue on their own thread for max wait of bulkhead at most,
+ * and are sent on it. Adaptive limit follows additive increase, multiplicative decrease by latency of calls.
+ */
+class ConcurrencyLimiter implements CallDecorator {
+
+  private final String name;
+  private final int maxLimit;
+  private final int maxQueued;
+  private final long maxWaitNanos;
+  //0 if limit is fixed
+  private final long thresholdNanos;
+  private final AtomicInteger limit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+  //fast calls since last change of limit
+  private final AtomicInteger fastCalls = new AtomicInteger();
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final Queue<Pending<?>> queue = new ConcurrentLinkedQueue<>();
+
+  ConcurrencyLimiter(String name, Bulkhead bulkhead) {
+    if (bulkhead.maxConcurrent() < 1)
+      throw new IllegalArgumentException("Max concurrent calls of bulkhead should be positive");
+    if (bulkhead.maxQueued() < 0)
+      throw new IllegalArgumentException("Max queued calls of bulkhead should not be negative");
+    if (bulkhead.latencyThreshold() < 0)
+      throw new IllegalArgumentException("Latency threshold of bulkhead should not be negative");
+    if (bulkhead.maxWait() <= 0)
+      throw new IllegalArgumentException("Max wait of bulkhead should be positive");
+    this.name = name;
+    this.maxLimit = bulkhead.maxConcurrent();
+    this.maxQueued = bulkhead.maxQueued();
+    this.maxWaitNanos = bulkhead.unit().toNanos(bulkhead.maxWait());
+    this.thresholdNanos = bulkhead.unit().toNanos(bulkhead.latencyThreshold());
+    this.limit = new AtomicInteger(maxLimit);
+  }
+
+  @Override
+  public <R> Call<R> decorate(Call<R> call) {
+    return new LimitedCall<>(call, this);
+  }
+
+  BulkheadStats stats() {
+    return new BulkheadStats(limit.get(), inFlight.get(), queued.get(), accepted.get(), rejected.get());
+  }
+
+  private <R> void submit(LimitedCall<R> call, Callback<R> callback) {
+    if (tryAcquire()) {
+      call.start(callback);
+      return;
+    }
+    if (!tryReserveQueue()) {
+      rejected.incrementAndGet();
+      callback.onFailure(call, new RejectedCallException("Bulkhead " + name + " is full"));
+      return;
+    }
+    queue.add(new Pending<>(call, callback));
+    //permit could be released before call was added to queue
+    drain();
+  }
+
+  /**
+   * Takes permit for call executed on current thread, waits in queue for max wait at most
+   */
+  private void acquire() throws IOException {
+    if (tryAcquire())
+      return;
+    if (!tryReserveQueue()) {
+      rejected.incrementAndGet();
+      throw new RejectedCallException("Bulkhead " + name + " is full");
+    }
+    Pending<?> pending = new Pending<>(null, null);
+    queue.add(pending);
+    drain();
+    try {
+      if (pending.permitted.await(maxWaitNanos, TimeUnit.NANOSECONDS))
+        return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      //permit could be given to call right before interruption
+      if (!withdraw(pending)) {
+        inFlight.decrementAndGet();
+        drain();
+      }
+      throw new InterruptedIOException("Interrupted while waiting for bulkhead " + name);
+    }
+    if (withdraw(pending)) {
+      rejected.incrementAndGet();
+      throw new RejectedCallException("Timed out waiting for bulkhead " + name);
+    }
+  }
+
+  /**
+   * @return false if call was already taken from queue and got permit
+   */
+  private boolean withdraw(Pending<?> pending) {
+    if (!queue.remove(pending))
+      return false;
+    queued.decrementAndGet();
+    return true;
+  }
+
+  private boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit.get())
+        return false;
+      if (inFlight.compareAndSet(current, current + 1))
+        return true;
+    }
+  }
+
+  private boolean tryReserveQueue() {
+    while (true) {
+      int current = queued.get();
+      if (current >= maxQueued)
+        return false;
+      if (queued.compareAndSet(current, current + 1))
+        return true;
+    }
+  }
+
+  private void release(long latencyNanos, boolean failed) {
+    adaptLimit(latencyNanos, failed);
+    inFlight.decrementAndGet();
+    drain();
+  }
+
+  /**
+   * Starts queued calls while there are free permits
+   */
+  private void drain() {
+    while (!queue.isEmpty() && tryAcquire()) {
+      Pending<?> next = queue.poll();
+      if (next == null) {
+        inFlight.decrementAndGet();
+        return;
+      }
+      queued.decrementAndGet();
+      next.start();
+    }
+  }
+
+  private void adaptLimit(long latencyNanos, boolean failed) {
+    if (thresholdNanos == 0)
+      return;
+    if (failed || latencyNanos > thresholdNanos) {
+      fastCalls.set(0);
+      while (true) {
+        int current = limit.get();
+        int next = Math.max(1, current - Math.max(1, current / 10));
+        if (current == next || limit.compareAndSet(current, next))
+          return;
+      }
+    }
+    if (fastCalls.incrementAndGet() < limit.get())
+      return;
+    fastCalls.set(0);
+    while (true) {
+      int current = limit.get();
+      int next = Math.min(maxLimit, current + 1);
+      if (current == next || limit.compareAndSet(current, next))
+        return;
+    }
+  }
+
+  private static class LimitedCall<R> implements Call<R> {
+
+    private final Call<R> delegate;
+    private final ConcurrencyLimiter limiter;
+    private final AtomicBoolean executed = new AtomicBoolean();
+    private volatile boolean canceled;
+
+    private LimitedCall(Call<R> delegate, ConcurrencyLimiter limiter) {
+      this.delegate = delegate;
+      this.limiter = limiter;
+    }
+
+    @Override
+    public Response<R> execute() throws IOException {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      limiter.acquire();
+      if (canceled) {
+        limiter.inFlight.decrementAndGet();
+        limiter.drain();
+        throw new IOException("Canceled");
+      }
+      limiter.accepted.incrementAndGet();
+      long startedAt = System.nanoTime();
+      Response<R> response;
+      try {
+        response = delegate.execute();
+      } catch (IOException | RuntimeException | Error e) {
+        limiter.release(System.nanoTime() - startedAt, !canceled);
+        throw e;
+      }
+      limiter.release(System.nanoTime() - startedAt, response.code() >= 500);
+      return response;
+    }
+
+    @Override
+    public void enqueue(Callback<R> callback) {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      limiter.submit(this, callback);
+    }
+
+    /**
+     * Sends request when permit is taken, permit is released as soon as request is finished
+     */
+    private void start(final Callback<R> callback) {
+      if (canceled) {
+        limiter.inFlight.decrementAndGet();
+        limiter.drain();
+        callback.onFailure(this, new IOException("Canceled"));
+        return;
+      }
+      limiter.accepted.incrementAndGet();
+      final long startedAt = System.nanoTime();
+      delegate.enqueue(new Callback<R>() {
+        @Override
+        public void onResponse(Call<R> call, Response<R> response) {
+          limiter.release(System.nanoTime() - startedAt, response.code() >= 500);
+          callback.onResponse(LimitedCall.this, response);
+        }
+
+        @Override
+        public void onFailure(Call<R> call, Throwable t) {
+          limiter.release(System.nanoTime() - startedAt, !canceled);
+          callback.onFailure(LimitedCall.this, t);
+        }
+      });
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    @Override
+    public void cancel() {
+      canceled = true;
+      delegate.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return canceled;
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<R> clone() {
+      return new LimitedCall<>(delegate.clone(), limiter);
+    }
+
+    @Override
+    public Request request() {
+      return delegate.request();
+    }
+  }
+
+  /**
+   * Queued call, enqueued one is started by call that releases permit, executed one is woken up to be sent by its thread
+   */
+  private static class Pending<R> {
+    private final LimitedCall<R> call;
+    //null for executed call
+    private final Callback<R> callback;
+    private final CountDownLatch permitted;
+
+    private Pending(LimitedCall<R> call, Callback<R> callback) {
+      this.call = call;
+      this.callback = callback;
+      this.permitted = callback == null ? new CountDownLatch(1) : null;
+    }
+
+    private void start() {
+      if (callback == null)
+        permitted.countDown();
+      else
+        call.start(callback);
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+package codes.titanium.premapper;
+
+import okio.ByteString;
+
+/**
+ * Hash of response bytes bound to entity converted from them, while body preprocessors of that entity run on current thread.
+ * Used as key of {@link PurePreprocessor}, so equal responses share memoized results.
+ */
+final class ContentFingerprint {
+
+  private static final ThreadLocal<ContentFingerprint> CURRENT = new ThreadLocal<>();
+
+  private final Object body;
+  private final ByteString hash;
+
+  private ContentFingerprint(Object body, ByteString hash) {
+    this.body = body;
+    this.hash = hash;
+  }
+
+  /**
+   * @return previous fingerprint of thread, should be passed to {@link #restore}
+   */
+  static ContentFingerprint bind(Object body, ByteString hash) {
+    ContentFingerprint previous = CURRENT.get();
+    CURRENT.set(new ContentFingerprint(body, hash));
+    return previous;
+  }
+
+  /**
+   * Unbinds fingerprint of current thread, e.g. before preprocessor that can modify entity, so hash no longer describes it
+   */
+  static void invalidate() {
+    CURRENT.remove();
+  }
+
+  static void restore(ContentFingerprint previous) {
+    if (previous == null)
+      CURRENT.remove();
+    else
+      CURRENT.set(previous);
+  }
+
+  /**
+   * @return hash of response converted to entity, null if entity is not converted body of current response, e.g. element of list
+   */
+  static ByteString of(Object body) {
+    ContentFingerprint current = CURRENT.get();
+    return current != null && current.body == body ? current.hash : null;
+  }
+
+}
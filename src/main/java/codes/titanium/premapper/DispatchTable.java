@@ -0,0 +1,23 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+
+/**
+ * Preprocessor types and matches resolved ahead of time.
+ * Generated by preprocessor annotation processor for every module and registered in {@code META-INF/services},
+ * tables of all modules are discovered by {@link PreprocessAdapter} automatically or are set by
+ * {@link PreprocessAdapter.Builder#dispatchTable(DispatchTable)}. Everything that is not in tables is resolved by reflection.
+ */
+public interface DispatchTable {
+
+  /**
+   * @return preprocessed type of preprocessor class, null if class is not in table
+   */
+  Type getPreprocessedType(Class<?> preprocessorClass);
+
+  /**
+   * @return classes of preprocessors from table that can be applied to return type of endpoint, null if return type is not in table
+   */
+  Class<?>[] getPreprocessors(Type returnType);
+
+}
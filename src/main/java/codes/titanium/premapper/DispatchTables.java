@@ -0,0 +1,59 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Dispatch tables of several modules, every preprocessor is matched only by table that knows its class,
+ * since tables of other modules don't know it and never list it in their matches.
+ */
+final class DispatchTables implements DispatchTable {
+
+  private final DispatchTable[] tables;
+
+  private DispatchTables(List<DispatchTable> tables) {
+    this.tables = tables.toArray(new DispatchTable[tables.size()]);
+  }
+
+  /**
+   * @return null if there are no tables, single table as is
+   */
+  static DispatchTable of(List<DispatchTable> tables) {
+    if (tables.isEmpty())
+      return null;
+    return tables.size() == 1 ? tables.get(0) : new DispatchTables(tables);
+  }
+
+  /**
+   * @return table which contains preprocessor class, null if no table contains it
+   */
+  static DispatchTable ownerOf(DispatchTable table, Class<?> preprocessorClass) {
+    if (!(table instanceof DispatchTables))
+      return table.getPreprocessedType(preprocessorClass) == null ? null : table;
+    for (DispatchTable current : ((DispatchTables) table).tables) {
+      if (current.getPreprocessedType(preprocessorClass) != null)
+        return current;
+    }
+    return null;
+  }
+
+  @Override
+  public Type getPreprocessedType(Class<?> preprocessorClass) {
+    DispatchTable owner = ownerOf(this, preprocessorClass);
+    return owner == null ? null : owner.getPreprocessedType(preprocessorClass);
+  }
+
+  /**
+   * @return matches of first table that knows return type, index asks owner of every preprocessor instead
+   */
+  @Override
+  public Class<?>[] getPreprocessors(Type returnType) {
+    for (DispatchTable table : tables) {
+      Class<?>[] preprocessors = table.getPreprocessors(returnType);
+      if (preprocessors != null)
+        return preprocessors;
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,16 @@
+package codes.titanium.premapper;
+
+import java.io.IOException;
+
+/**
+ * Body of successful response was dropped by {@link BodyFilter}, so call fails instead of passing null body to call adapter
+ */
+public class DroppedBodyException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public DroppedBodyException(String message) {
+    super(message);
+  }
+
+}
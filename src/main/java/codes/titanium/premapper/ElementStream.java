@@ -0,0 +1,20 @@
+package codes.titanium.premapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Elements of big array response that are read one by one, so whole response is never kept in memory.
+ * Return it from endpoint, e.g. {@code Call<ElementStream<Cookie>>}, every element is preprocessed by {@link BodyPreprocessor}
+ * of element type just after it is read. Stream should be closed if it is not read till the end.
+ */
+public interface ElementStream<T> extends Closeable {
+
+  boolean hasNext() throws IOException;
+
+  /**
+   * @throws java.util.NoSuchElementException if there are no more elements
+   */
+  T next() throws IOException;
+
+}
@@ -0,0 +1,19 @@
+package codes.titanium.premapper;
+
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Creates streams that parse elements from response incrementally, e.g. with streaming json parser of your converter
+ */
+public interface ElementStreamFactory {
+
+  /**
+   * @param elementType type of elements, e.g. Cookie for {@code ElementStream<Cookie>}
+   * @param source      body of response, it is closed together with stream
+   */
+  ElementStream<?> create(Type elementType, BufferedSource source) throws IOException;
+
+}
@@ -0,0 +1,287 @@
+package codes.titanium.premapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.RandomAccess;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies chain of {@link BodyPreprocessor} to every element of collection or array response.
+ * Lists and arrays with size above threshold are split into chunks that are processed in parallel on executor,
+ * calling thread takes chunks too and waits only for chunks that are already being processed by other threads.
+ * Elements that chain drops, e.g. by {@link BodyFilter}, are removed, original null elements are kept.
+ */
+class ElementsPreprocessor implements BodyPreprocessor<Object> {
+
+  private final BodyPreprocessor<Object> chain;
+  private final int parallelThreshold;
+  private final Executor executor;
+
+  ElementsPreprocessor(BodyPreprocessor<Object> chain, int parallelThreshold, Executor executor) {
+    this.chain = chain;
+    this.parallelThreshold = parallelThreshold;
+    this.executor = executor;
+  }
+
+  /**
+   * @return same collection or array without dropped elements, new array if any element of array was dropped
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object preprocess(Object body) {
+    if (body instanceof Object[])
+      return preprocess(new ArrayElements((Object[]) body));
+    if (body instanceof List && body instanceof RandomAccess)
+      return preprocess(new ListElements((List<Object>) body));
+    if (body instanceof List)
+      preprocessSequential((List<Object>) body);
+    else if (body instanceof Collection)
+      preprocessSequential((Collection<Object>) body);
+    return body;
+  }
+
+  private Object preprocess(Elements elements) {
+    int size = elements.size();
+    int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+    if (size < parallelThreshold || size < 2)
+      return elements.truncate(preprocess(elements, 0, size));
+    int chunks = Math.min(Math.max(2, parallelism), size);
+    int chunkSize = (size + chunks - 1) / chunks;
+    Chunks work = new Chunks(elements, size, chunkSize);
+    for (int task = 1; task < work.count; task++) {
+      try {
+        executor.execute(work);
+      } catch (RejectedExecutionException e) {
+        //chunks that are not taken by submitted tasks are processed by calling thread
+        break;
+      }
+    }
+    work.run();
+    work.await();
+    Throwable throwable = work.failure.get();
+    if (throwable instanceof RuntimeException)
+      throw (RuntimeException) throwable;
+    if (throwable instanceof Error)
+      throw (Error) throwable;
+    //kept elements of every chunk are at its beginning, they are moved next to kept elements of previous chunks
+    int total = work.kept[0];
+    for (int chunk = 1; chunk < work.count; chunk++) {
+      int from = chunk * chunkSize;
+      if (total != from) {
+        for (int i = 0; i < work.kept[chunk]; i++) {
+          elements.set(total + i, elements.get(from + i));
+        }
+      }
+      total += work.kept[chunk];
+    }
+    return elements.truncate(total);
+  }
+
+  /**
+   * Elements dropped by chain are skipped, kept elements are moved to beginning of range
+   *
+   * @return number of kept elements
+   */
+  private int preprocess(Elements elements, int from, int to) {
+    int kept = from;
+    for (int i = from; i < to; i++) {
+      Object element = elements.get(i);
+      Object result = element == null ? null : chain.preprocess(element);
+      if (element != null && result == null)
+        continue;
+      if (result != element || kept != i)
+        elements.set(kept, result);
+      kept++;
+    }
+    return kept - from;
+  }
+
+  private void preprocessSequential(List<Object> list) {
+    ListIterator<Object> iterator = list.listIterator();
+    while (iterator.hasNext()) {
+      Object element = iterator.next();
+      if (element == null)
+        continue;
+      Object result = chain.preprocess(element);
+      if (result == null)
+        iterator.remove();
+      else if (result != element)
+        iterator.set(result);
+    }
+  }
+
+  /**
+   * Elements of sets can't be replaced in place, so collection is refilled only if any element was replaced or dropped
+   */
+  private void preprocessSequential(Collection<Object> collection) {
+    List<Object> results = new ArrayList<>(collection.size());
+    boolean replaced = false;
+    for (Object element : collection) {
+      Object result = element == null ? null : chain.preprocess(element);
+      replaced |= result != element;
+      if (element == null || result != null)
+        results.add(result);
+    }
+    if (replaced) {
+      collection.clear();
+      collection.addAll(results);
+    }
+  }
+
+  /**
+   * Chunks of elements that are taken one by one by submitted tasks and calling thread, so calling thread never waits
+   * for chunk that is not started yet, e.g. when executor is busy or rejected some of tasks
+   */
+  private class Chunks implements Runnable, ForkJoinPool.ManagedBlocker {
+    private final Elements elements;
+    private final int size;
+    private final int chunkSize;
+    private final int count;
+    private final int[] kept;
+    private final AtomicInteger next = new AtomicInteger();
+    private final CountDownLatch done;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private Chunks(Elements elements, int size, int chunkSize) {
+      this.elements = elements;
+      this.size = size;
+      this.chunkSize = chunkSize;
+      this.count = (size + chunkSize - 1) / chunkSize;
+      this.kept = new int[count];
+      this.done = new CountDownLatch(count);
+    }
+
+    @Override
+    public void run() {
+      int chunk;
+      while ((chunk = next.getAndIncrement()) < count) {
+        try {
+          if (failure.get() == null)
+            kept[chunk] = preprocess(elements, chunk * chunkSize, Math.min(size, (chunk + 1) * chunkSize));
+        } catch (RuntimeException | Error e) {
+          failure.compareAndSet(null, e);
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+
+    /**
+     * Waits for chunks taken by other threads, compensates blocked worker of fork join pool.
+     * Preprocessors are expected to be cpu bound, so waiting is finished even if thread was interrupted
+     */
+    private void await() {
+      boolean interrupted = false;
+      while (!isReleasable()) {
+        try {
+          if (Thread.currentThread() instanceof ForkJoinWorkerThread)
+            ForkJoinPool.managedBlock(this);
+          else
+            done.await();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      done.await();
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return done.getCount() == 0;
+    }
+  }
+
+  /**
+   * Random access to elements of list or array
+   */
+  private interface Elements {
+    int size();
+
+    Object get(int index);
+
+    void set(int index, Object element);
+
+    /**
+     * @return list or array with given number of first elements
+     */
+    Object truncate(int size);
+  }
+
+  private static class ListElements implements Elements {
+    private final List<Object> list;
+
+    private ListElements(List<Object> list) {
+      this.list = list;
+    }
+
+    @Override
+    public int size() {
+      return list.size();
+    }
+
+    @Override
+    public Object get(int index) {
+      return list.get(index);
+    }
+
+    @Override
+    public void set(int index, Object element) {
+      list.set(index, element);
+    }
+
+    @Override
+    public Object truncate(int size) {
+      if (size < list.size())
+        list.subList(size, list.size()).clear();
+      return list;
+    }
+  }
+
+  private static class ArrayElements implements Elements {
+    private final Object[] array;
+
+    private ArrayElements(Object[] array) {
+      this.array = array;
+    }
+
+    @Override
+    public int size() {
+      return array.length;
+    }
+
+    @Override
+    public Object get(int index) {
+      return array[index];
+    }
+
+    @Override
+    public void set(int index, Object element) {
+      array[index] = element;
+    }
+
+    /**
+     * Arrays can't shrink, so copy of same component type is created
+     */
+    @Override
+    public Object truncate(int size) {
+      return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+  }
+
+}
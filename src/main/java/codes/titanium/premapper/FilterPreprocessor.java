@@ -0,0 +1,38 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+
+/**
+ * Applies {@link BodyFilter} as body preprocessor that returns null for dropped entity, callers of chain remove it
+ */
+class FilterPreprocessor implements BodyPreprocessor<Object>, Typed, Prioritized {
+
+  private final BodyFilter<Object> filter;
+  private final Type preprocessedType;
+
+  @SuppressWarnings("unchecked")
+  FilterPreprocessor(BodyFilter filter, Type preprocessedType) {
+    this.filter = filter;
+    this.preprocessedType = preprocessedType;
+  }
+
+  @Override
+  public Object preprocess(Object body) {
+    return filter.accept(body) ? body : null;
+  }
+
+  @Override
+  public Type getPreprocessedType() {
+    return preprocessedType;
+  }
+
+  @Override
+  public int getPriority() {
+    return filter instanceof Prioritized ? ((Prioritized) filter).getPriority() : 0;
+  }
+
+  @Override
+  public String toString() {
+    return filter.toString();
+  }
+}
@@ -0,0 +1,34 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Java Flight Recorder integration.
+ * This implementation does nothing, on Java 11+ it is replaced by implementation from META-INF/versions/11 of multi release jar,
+ * which emits events for every adapter resolution and, if enabled, preprocessor execution.
+ */
+final class FlightRecorder {
+
+  private FlightRecorder() {
+  }
+
+  /**
+   * @return token that should be passed to {@link #endResolution}, null if events are not recorded
+   */
+  static Object beginResolution() {
+    return null;
+  }
+
+  static void endResolution(Object token, String endpoint, Type returnType, int candidates, int matched) {
+  }
+
+  static List<Preprocessor> wrap(List<Preprocessor> preprocessors, String endpoint) {
+    return preprocessors;
+  }
+
+  static List<BodyPreprocessor> wrapBody(List<BodyPreprocessor> preprocessors, String endpoint) {
+    return preprocessors;
+  }
+
+}
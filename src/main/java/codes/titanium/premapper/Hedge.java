@@ -0,0 +1,31 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls of annotated endpoint send second identical request if first one is not finished after delay,
+ * response that arrives first is used and other request is canceled. Use it only for idempotent requests.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Hedge {
+
+  /**
+   * Delay before second request, used until endpoint has enough latency samples for {@link #percentile()}
+   */
+  long delay();
+
+  TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+  /**
+   * Percentile of recent latencies of endpoint that is used as delay, e.g. 95, 0 to always use fixed {@link #delay()}
+   */
+  double percentile() default 0;
+
+  /**
+   * Max percent of calls that can be hedged, so slow upstream is not flooded with doubled load
+   */
+  int budgetPercent() default 10;
+
+}
@@ -0,0 +1,62 @@
+package codes.titanium.premapper;
+
+/**
+ * Immutable counters of hedged endpoint
+ */
+public final class HedgeStats {
+
+  private final long calls;
+  private final long hedges;
+  private final long hedgeWins;
+  private final long delayNanos;
+
+  HedgeStats(long calls, long hedges, long hedgeWins, long delayNanos) {
+    this.calls = calls;
+    this.hedges = hedges;
+    this.hedgeWins = hedgeWins;
+    this.delayNanos = delayNanos;
+  }
+
+  /**
+   * @return sum of counters, e.g. of endpoints with same description, and the longest of their delays
+   */
+  HedgeStats plus(HedgeStats other) {
+    return new HedgeStats(calls + other.calls, hedges + other.hedges, hedgeWins + other.hedgeWins,
+        Math.max(delayNanos, other.delayNanos));
+  }
+
+  public long getCalls() {
+    return calls;
+  }
+
+  /**
+   * @return number of sent second requests
+   */
+  public long getHedges() {
+    return hedges;
+  }
+
+  /**
+   * @return number of second requests that were faster than first ones
+   */
+  public long getHedgeWins() {
+    return hedgeWins;
+  }
+
+  /**
+   * @return current delay before second request
+   */
+  public long getDelayNanos() {
+    return delayNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "HedgeStats{" +
+        "calls=" + calls +
+        ", hedges=" + hedges +
+        ", hedgeWins=" + hedgeWins +
+        ", delayNanos=" + delayNanos +
+        '}';
+  }
+}
@@ -0,0 +1,374 @@
+package codes.titanium.premapper;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Converter;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hedges calls of single endpoint annotated with {@link Hedge}.
+ * Requests are sent by call factory of retrofit, second one is sent when first one is not finished after delay.
+ * First response with headers wins, other request is canceled before its body is read, so only winner is converted
+ * and preprocessed. Number of second requests is limited by budget of endpoint.
+ * Executed calls send first request on calling thread and only second one is enqueued, so caller does not wait for
+ * dispatcher of call factory unless second request wins or first one fails while second one is running.
+ */
+class Hedger implements CallDecorator {
+
+  //recent latencies are kept in ring buffer, its size is power of two
+  private static final int SAMPLES = 128;
+  private static final int MIN_SAMPLES = 20;
+  //percentile is recalculated after this number of new samples
+  private static final int RECALCULATE_EVERY = 16;
+
+  private final long fixedDelayNanos;
+  private final double percentile;
+  private final int budgetPercent;
+  private final okhttp3.Call.Factory callFactory;
+  private final Converter<ResponseBody, ?> converter;
+  private final AtomicLongArray latencies = new AtomicLongArray(SAMPLES);
+  private final AtomicLong samples = new AtomicLong();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+  private volatile long delayNanos;
+
+  Hedger(Hedge hedge, okhttp3.Call.Factory callFactory, Converter<ResponseBody, ?> converter) {
+    if (hedge.delay() <= 0)
+      throw new IllegalArgumentException("Delay of hedged endpoint should be positive");
+    if (hedge.percentile() < 0 || hedge.percentile() >= 100)
+      throw new IllegalArgumentException("Percentile of hedged endpoint should be in range [0, 100)");
+    if (hedge.budgetPercent() < 1 || hedge.budgetPercent() > 100)
+      throw new IllegalArgumentException("Budget of hedged endpoint should be in range [1, 100]");
+    this.fixedDelayNanos = hedge.unit().toNanos(hedge.delay());
+    this.percentile = hedge.percentile();
+    this.budgetPercent = hedge.budgetPercent();
+    this.callFactory = callFactory;
+    this.converter = converter;
+    this.delayNanos = fixedDelayNanos;
+  }
+
+  @Override
+  public <R> Call<R> decorate(Call<R> call) {
+    return new HedgingCall<>(call, this);
+  }
+
+  HedgeStats stats() {
+    return new HedgeStats(calls.get(), hedges.get(), hedgeWins.get(), delayNanos);
+  }
+
+  void recordLatency(long nanos) {
+    long count = samples.incrementAndGet();
+    latencies.set((int) ((count - 1) & (SAMPLES - 1)), nanos);
+    if (percentile > 0 && count >= MIN_SAMPLES && count % RECALCULATE_EVERY == 0)
+      recalculateDelay((int) Math.min(count, SAMPLES));
+  }
+
+  private void recalculateDelay(int size) {
+    long[] sorted = new long[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = latencies.get(i);
+    }
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(percentile / 100 * size);
+    delayNanos = sorted[Math.max(rank - 1, 0)];
+  }
+
+  /**
+   * Converts winner response the same way as retrofit does: error body is buffered, 204 and 205 have no body
+   */
+  @SuppressWarnings("unchecked")
+  private <R> Response<R> parse(okhttp3.Response rawResponse) throws IOException {
+    ResponseBody rawBody = rawResponse.body();
+    rawResponse = rawResponse.newBuilder().body(new NoContentResponseBody(rawBody.contentType(), rawBody.contentLength())).build();
+    int code = rawResponse.code();
+    try {
+      if (code < 200 || code >= 300) {
+        Buffer buffer = new Buffer();
+        rawBody.source().readAll(buffer);
+        return Response.error(ResponseBody.create(rawBody.contentType(), rawBody.contentLength(), buffer), rawResponse);
+      }
+      if (code == 204 || code == 205)
+        return Response.success(null, rawResponse);
+      return Response.success((R) converter.convert(rawBody), rawResponse);
+    } finally {
+      rawBody.close();
+    }
+  }
+
+  /**
+   * Takes hedge from budget, budget is percent of all calls
+   */
+  private boolean tryAcquireHedge() {
+    while (true) {
+      long used = hedges.get();
+      if (used * 100 >= calls.get() * budgetPercent)
+        return false;
+      if (hedges.compareAndSet(used, used + 1))
+        return true;
+    }
+  }
+
+  private static class HedgingCall<R> implements Call<R> {
+
+    private final Call<R> delegate;
+    private final Hedger hedger;
+    private final AtomicBoolean executed = new AtomicBoolean();
+    private volatile boolean canceled;
+    private volatile Race<R> race;
+
+    private HedgingCall(Call<R> delegate, Hedger hedger) {
+      this.delegate = delegate;
+      this.hedger = hedger;
+    }
+
+    @Override
+    public Response<R> execute() throws IOException {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      CallDecorators.BlockingCallback<R> callback = new CallDecorators.BlockingCallback<>();
+      race = new Race<>(this, callback);
+      race.execute();
+      return callback.await(this);
+    }
+
+    @Override
+    public void enqueue(Callback<R> callback) {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      race = new Race<>(this, callback);
+      race.start();
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    @Override
+    public void cancel() {
+      canceled = true;
+      Race<R> current = race;
+      if (current != null)
+        current.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return canceled;
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<R> clone() {
+      return new HedgingCall<>(delegate.clone(), hedger);
+    }
+
+    @Override
+    public Request request() {
+      return delegate.request();
+    }
+  }
+
+  /**
+   * First request and optional second one, result of first finished request is passed to callback.
+   * Failure is passed only when there is no other running request.
+   */
+  private static class Race<R> implements Runnable {
+
+    private final HedgingCall<R> owner;
+    private final Callback<R> callback;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicInteger running = new AtomicInteger(1);
+    private volatile okhttp3.Call first;
+    private volatile okhttp3.Call second;
+    private volatile ScheduledFuture<?> timer;
+    //both attempts are measured from start of call, so samples are latencies seen by caller
+    private volatile long startedAt;
+
+    private Race(HedgingCall<R> owner, Callback<R> callback) {
+      this.owner = owner;
+      this.callback = callback;
+    }
+
+    private void start() {
+      okhttp3.Call call = begin();
+      call.enqueue(new Attempt(false));
+      if (owner.canceled)
+        call.cancel();
+      if (!finished.get())
+        timer = Scheduler.INSTANCE.schedule(this, owner.hedger.delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Executes first request on calling thread, its response is converted on it too, timer enqueues second request
+     */
+    private void execute() {
+      okhttp3.Call call = begin();
+      if (owner.canceled)
+        call.cancel();
+      timer = Scheduler.INSTANCE.schedule(this, owner.hedger.delayNanos, TimeUnit.NANOSECONDS);
+      Attempt attempt = new Attempt(false);
+      okhttp3.Response rawResponse;
+      try {
+        rawResponse = call.execute();
+      } catch (IOException e) {
+        attempt.onFailure(call, e);
+        return;
+      } catch (RuntimeException | Error e) {
+        running.decrementAndGet();
+        if (finished.compareAndSet(false, true)) {
+          cancel();
+          callback.onFailure(owner, e);
+        }
+        return;
+      }
+      attempt.onResponse(call, rawResponse);
+    }
+
+    private okhttp3.Call begin() {
+      owner.hedger.calls.incrementAndGet();
+      startedAt = System.nanoTime();
+      okhttp3.Call call = owner.hedger.callFactory.newCall(owner.delegate.request());
+      first = call;
+      return call;
+    }
+
+    /**
+     * Sends second request when delay is passed
+     */
+    @Override
+    public void run() {
+      if (finished.get() || owner.canceled || !owner.hedger.tryAcquireHedge())
+        return;
+      running.incrementAndGet();
+      okhttp3.Call hedge = first.clone();
+      second = hedge;
+      hedge.enqueue(new Attempt(true));
+      if (finished.get())
+        hedge.cancel();
+    }
+
+    private void cancel() {
+      okhttp3.Call call = first;
+      if (call != null)
+        call.cancel();
+      okhttp3.Call hedge = second;
+      if (hedge != null)
+        hedge.cancel();
+      stopTimer();
+    }
+
+    private void stopTimer() {
+      ScheduledFuture<?> current = timer;
+      if (current != null)
+        current.cancel(false);
+    }
+
+    private class Attempt implements okhttp3.Callback {
+      private final boolean hedge;
+
+      private Attempt(boolean hedge) {
+        this.hedge = hedge;
+      }
+
+      @Override
+      public void onResponse(okhttp3.Call call, okhttp3.Response rawResponse) {
+        owner.hedger.recordLatency(System.nanoTime() - startedAt);
+        if (!finished.compareAndSet(false, true)) {
+          //loser is closed without reading its body
+          rawResponse.close();
+          return;
+        }
+        stopTimer();
+        if (hedge) {
+          owner.hedger.hedgeWins.incrementAndGet();
+          first.cancel();
+        } else if (second != null) {
+          second.cancel();
+        }
+        Response<R> response;
+        try {
+          response = owner.hedger.parse(rawResponse);
+        } catch (Throwable t) {
+          callback.onFailure(owner, t);
+          return;
+        }
+        callback.onResponse(owner, response);
+      }
+
+      @Override
+      public void onFailure(okhttp3.Call call, IOException e) {
+        if (running.decrementAndGet() > 0 && !owner.canceled)
+          return;
+        if (!finished.compareAndSet(false, true))
+          return;
+        stopTimer();
+        callback.onFailure(owner, e);
+      }
+    }
+  }
+
+  /**
+   * Body of converted response, it was already read by converter
+   */
+  private static class NoContentResponseBody extends ResponseBody {
+    private final MediaType contentType;
+    private final long contentLength;
+
+    private NoContentResponseBody(MediaType contentType, long contentLength) {
+      this.contentType = contentType;
+      this.contentLength = contentLength;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+      return contentLength;
+    }
+
+    @Override
+    public BufferedSource source() {
+      throw new IllegalStateException("Cannot read raw response body of a converted body.");
+    }
+  }
+
+  /**
+   * Single daemon thread shared by all hedged endpoints, it only sends second requests
+   */
+  private static class Scheduler {
+    private static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "premapper-hedge");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    static {
+      INSTANCE.setRemoveOnCancelPolicy(true);
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+package codes.titanium.premapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics sink that keeps counters and latency histograms in memory, use {@link #snapshot()} to read them.
+ * Recording is lock free, counters are striped with {@link LongAdder}. Instrumented preprocessors resolve their counters once,
+ * so they record without lookup.
+ */
+public class InMemoryMetricsSink implements MetricsSink {
+
+  private final ConcurrentMap<Key, Recorder> recorders = new ConcurrentHashMap<>();
+
+  @Override
+  public void record(String endpoint, Class<?> preprocessor, long durationNanos, boolean failed) {
+    recorderOf(endpoint, preprocessor).record(durationNanos, failed);
+  }
+
+  /**
+   * @return counters of preprocessor of endpoint, they are kept by sink until it is garbage collected
+   */
+  Recorder recorderOf(String endpoint, Class<?> preprocessor) {
+    Key key = new Key(endpoint, preprocessor);
+    Recorder recorder = recorders.get(key);
+    if (recorder == null) {
+      Recorder created = new Recorder();
+      recorder = recorders.putIfAbsent(key, created);
+      if (recorder == null)
+        recorder = created;
+    }
+    return recorder;
+  }
+
+  /**
+   * @return metrics of preprocessors that were invoked since creation or last reset
+   */
+  public MetricsSnapshot snapshot() {
+    List<PreprocessorMetrics> result = new ArrayList<>(recorders.size());
+    for (Map.Entry<Key, Recorder> entry : recorders.entrySet()) {
+      Recorder recorder = entry.getValue();
+      if (recorder.count.sum() == 0)
+        continue;
+      result.add(new PreprocessorMetrics(entry.getKey().endpoint, entry.getKey().preprocessor, recorder.count.sum(),
+          recorder.errors.sum(), recorder.totalNanos.sum(), recorder.histogram.snapshot()));
+    }
+    return new MetricsSnapshot(result);
+  }
+
+  /**
+   * Resets all gathered metrics, counters are zeroed in place as instrumented preprocessors keep them
+   */
+  public void reset() {
+    for (Recorder recorder : recorders.values()) {
+      recorder.reset();
+    }
+  }
+
+  static class Recorder {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    void record(long durationNanos, boolean failed) {
+      count.increment();
+      totalNanos.add(durationNanos);
+      histogram.record(durationNanos);
+      if (failed)
+        errors.increment();
+    }
+
+    private void reset() {
+      count.reset();
+      errors.reset();
+      totalNanos.reset();
+      histogram.reset();
+    }
+  }
+
+  private static class Key {
+    private final String endpoint;
+    private final Class<?> preprocessor;
+
+    private Key(String endpoint, Class<?> preprocessor) {
+      this.endpoint = endpoint;
+      this.preprocessor = preprocessor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return endpoint.equals(key.endpoint) && preprocessor.equals(key.preprocessor);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * endpoint.hashCode() + preprocessor.hashCode();
+    }
+  }
+
+}
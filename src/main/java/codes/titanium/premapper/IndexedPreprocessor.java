@@ -0,0 +1,16 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks {@link Preprocessor} or {@link BodyPreprocessor} implementation for preprocessor annotation processor.
+ * Preprocessed type of annotated class is resolved at compile time and stored in {@link DispatchTable}, so it is not resolved by reflection.
+ * Annotated class should not be private, generic or abstract.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface IndexedPreprocessor {
+}
@@ -0,0 +1,15 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks retrofit service interface for preprocessor annotation processor.
+ * Return types of its methods are matched with {@link IndexedPreprocessor} classes at compile time and stored in {@link DispatchTable}.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface IndexedService {
+}
@@ -0,0 +1,105 @@
+package codes.titanium.premapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wrappers that measure every invocation of preprocessor and report it to {@link MetricsSink}.
+ * Used only when instrumentation is enabled, otherwise preprocessors are chained as is.
+ * Counters of {@link InMemoryMetricsSink} are resolved once when wrapper is created.
+ */
+final class Instrumented {
+
+  private Instrumented() {
+  }
+
+  static List<Preprocessor> wrap(List<Preprocessor> preprocessors, String endpoint, MetricsSink sink) {
+    List<Preprocessor> result = new ArrayList<>(preprocessors.size());
+    for (Preprocessor preprocessor : preprocessors) {
+      result.add(new InstrumentedPreprocessor(preprocessor, endpoint, sink));
+    }
+    return result;
+  }
+
+  static List<BodyPreprocessor> wrapBody(List<BodyPreprocessor> preprocessors, String endpoint, MetricsSink sink) {
+    List<BodyPreprocessor> result = new ArrayList<>(preprocessors.size());
+    for (BodyPreprocessor preprocessor : preprocessors) {
+      result.add(new InstrumentedBodyPreprocessor(preprocessor, endpoint, sink));
+    }
+    return result;
+  }
+
+  /**
+   * @return null for other sinks, including subclasses of in memory one that can override recording
+   */
+  private static InMemoryMetricsSink.Recorder recorderOf(MetricsSink sink, String endpoint, Object preprocessor) {
+    return sink.getClass() == InMemoryMetricsSink.class ? ((InMemoryMetricsSink) sink).recorderOf(endpoint, preprocessor.getClass()) : null;
+  }
+
+  private static void record(MetricsSink sink, InMemoryMetricsSink.Recorder recorder, String endpoint, Object preprocessor,
+                             long durationNanos, boolean failed) {
+    if (recorder != null)
+      recorder.record(durationNanos, failed);
+    else
+      sink.record(endpoint, preprocessor.getClass(), durationNanos, failed);
+  }
+
+  private static class InstrumentedPreprocessor implements Preprocessor<Object> {
+    private final Preprocessor<Object> wrapped;
+    private final String endpoint;
+    private final MetricsSink sink;
+    //null if sink is not in memory one
+    private final InMemoryMetricsSink.Recorder recorder;
+
+    @SuppressWarnings("unchecked")
+    private InstrumentedPreprocessor(Preprocessor wrapped, String endpoint, MetricsSink sink) {
+      this.wrapped = wrapped;
+      this.endpoint = endpoint;
+      this.sink = sink;
+      this.recorder = recorderOf(sink, endpoint, wrapped);
+    }
+
+    @Override
+    public Object preprocess(Object source) {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        Object result = wrapped.preprocess(source);
+        failed = false;
+        return result;
+      } finally {
+        record(sink, recorder, endpoint, wrapped, System.nanoTime() - start, failed);
+      }
+    }
+  }
+
+  private static class InstrumentedBodyPreprocessor implements BodyPreprocessor<Object> {
+    private final BodyPreprocessor<Object> wrapped;
+    private final String endpoint;
+    private final MetricsSink sink;
+    //null if sink is not in memory one
+    private final InMemoryMetricsSink.Recorder recorder;
+
+    @SuppressWarnings("unchecked")
+    private InstrumentedBodyPreprocessor(BodyPreprocessor wrapped, String endpoint, MetricsSink sink) {
+      this.wrapped = wrapped;
+      this.endpoint = endpoint;
+      this.sink = sink;
+      this.recorder = recorderOf(sink, endpoint, wrapped);
+    }
+
+    @Override
+    public Object preprocess(Object body) {
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        Object result = wrapped.preprocess(body);
+        failed = false;
+        return result;
+      } finally {
+        record(sink, recorder, endpoint, wrapped, System.nanoTime() - start, failed);
+      }
+    }
+  }
+
+}
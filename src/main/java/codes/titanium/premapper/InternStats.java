@@ -0,0 +1,77 @@
+package codes.titanium.premapper;
+
+/**
+ * Immutable counters of {@link InterningPreprocessor}
+ */
+public final class InternStats {
+
+  private final long entityHits;
+  private final long entityMisses;
+  private final long stringHits;
+  private final long evictions;
+  private final int size;
+  private final long bytesSaved;
+
+  InternStats(long entityHits, long entityMisses, long stringHits, long evictions, int size, long bytesSaved) {
+    this.entityHits = entityHits;
+    this.entityMisses = entityMisses;
+    this.stringHits = stringHits;
+    this.evictions = evictions;
+    this.size = size;
+    this.bytesSaved = bytesSaved;
+  }
+
+  /**
+   * @return number of entities replaced with equal interned instance
+   */
+  public long getEntityHits() {
+    return entityHits;
+  }
+
+  /**
+   * @return number of entities that were interned as new canonical instance
+   */
+  public long getEntityMisses() {
+    return entityMisses;
+  }
+
+  /**
+   * @return number of string fields replaced with equal interned string
+   */
+  public long getStringHits() {
+    return stringHits;
+  }
+
+  /**
+   * @return number of entities and strings that were removed because table was full
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return current number of interned entities and strings, including not yet expunged collected ones
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return estimated number of bytes of duplicates that were dropped instead of being retained
+   */
+  public long getBytesSaved() {
+    return bytesSaved;
+  }
+
+  @Override
+  public String toString() {
+    return "InternStats{" +
+        "entityHits=" + entityHits +
+        ", entityMisses=" + entityMisses +
+        ", stringHits=" + stringHits +
+        ", evictions=" + evictions +
+        ", size=" + size +
+        ", bytesSaved=" + bytesSaved +
+        '}';
+  }
+}
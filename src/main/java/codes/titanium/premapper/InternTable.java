@@ -0,0 +1,157 @@
+package codes.titanium.premapper;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded table of canonical instances, equal values are resolved to first interned one.
+ * Values are referenced weakly, so table never keeps instance that is not used anywhere else,
+ * and least recently used values are evicted when table is full.
+ * Split into segments by hash like {@link LruCache}.
+ */
+class InternTable<V> {
+
+  private static final int MAX_SEGMENTS = 16;
+  private static final int MIN_SEGMENT_SIZE = 16;
+
+  private final Segment<V>[] segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  @SuppressWarnings("unchecked")
+  InternTable(int maxEntries) {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException("Max entries should be positive");
+    int count = 1;
+    while (count < MAX_SEGMENTS && maxEntries / (count * 2) >= MIN_SEGMENT_SIZE) {
+      count *= 2;
+    }
+    segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment<>(maxEntries / count + (i < maxEntries % count ? 1 : 0), evictions);
+    }
+  }
+
+  /**
+   * @return interned instance equal to value, value itself if there is no such instance
+   */
+  V intern(V value) {
+    int hash = value.hashCode();
+    V result = segments[(hash ^ hash >>> 16) & (segments.length - 1)].intern(value, hash);
+    (result == value ? misses : hits).incrementAndGet();
+    return result;
+  }
+
+  long hits() {
+    return hits.get();
+  }
+
+  long misses() {
+    return misses.get();
+  }
+
+  long evictions() {
+    return evictions.get();
+  }
+
+  int size() {
+    int result = 0;
+    for (Segment<V> segment : segments) {
+      result += segment.size();
+    }
+    return result;
+  }
+
+  private static class Segment<V> {
+    private final LinkedHashMap<Object, WeakEntry<V>> map;
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+
+    private Segment(final int maxEntries, final AtomicLong evictions) {
+      this.map = new LinkedHashMap<Object, WeakEntry<V>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, WeakEntry<V>> eldest) {
+          if (size() <= maxEntries)
+            return false;
+          evictions.incrementAndGet();
+          return true;
+        }
+      };
+    }
+
+    private synchronized V intern(V value, int hash) {
+      expunge();
+      WeakEntry<V> entry = map.get(new Probe(value, hash));
+      V existing = entry == null ? null : entry.get();
+      if (existing != null)
+        return existing;
+      if (entry != null)
+        map.remove(entry);
+      WeakEntry<V> added = new WeakEntry<>(value, hash, collected);
+      map.put(added, added);
+      return value;
+    }
+
+    private synchronized int size() {
+      expunge();
+      return map.size();
+    }
+
+    /**
+     * Removes entries with collected values
+     */
+    private void expunge() {
+      Object reference;
+      while ((reference = collected.poll()) != null) {
+        map.remove(reference);
+      }
+    }
+  }
+
+  /**
+   * Key and value of table, equal only to itself, so it can be removed after its value is collected
+   */
+  private static class WeakEntry<V> extends WeakReference<V> {
+    private final int hash;
+
+    private WeakEntry(V value, int hash, ReferenceQueue<V> queue) {
+      super(value, queue);
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Lookup key, hash map compares it with keys by {@link #equals(Object)} of probe, so it finds entry with equal value
+   */
+  private static class Probe {
+    private final Object value;
+    private final int hash;
+
+    private Probe(Object value, int hash) {
+      this.value = value;
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof WeakEntry))
+        return false;
+      Object other = ((WeakEntry<?>) o).get();
+      return other != null && value.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
@@ -0,0 +1,90 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Body preprocessor that replaces entity with equal instance received before, so repeated reference data shares one instance.
+ * Entities are compared by {@link Object#equals(Object)} and {@link Object#hashCode()}, selected string fields are interned
+ * by {@link #internFields(Object)}. Interned instances are referenced weakly and number of them is bounded,
+ * so table never keeps entity that is not retained anywhere else.
+ * <p>
+ * Should be extended with concrete type, e.g. {@code new InterningPreprocessor<Cookie>(10_000) {...}},
+ * and added with {@link PreprocessAdapter.Builder#addBodyPreprocessor(BodyPreprocessor)}, then type argument is matched exactly.
+ * Entities declared as subclasses are interned too when it is added with wildcard type, e.g.
+ * {@code addBodyPreprocessor(Types.subtypeOf(Cookie.class), interning)}.
+ * <p>
+ * Interned entities are shared by responses, so they should not be modified afterwards: body preprocessors that modify entity
+ * should run before interning, i.e. be added before it or have higher priority, and preprocessors of adapted type
+ * like {@code doOnNext} and subscribers should only read interned entities.
+ */
+public abstract class InterningPreprocessor<T> implements BodyPreprocessor<T>, Typed {
+
+  //estimated shallow size of object header with few fields
+  private static final int DEFAULT_ENTITY_SIZE = 16;
+  //estimated size of string and its array without characters
+  private static final int STRING_OVERHEAD = 40;
+
+  private final Type preprocessedType;
+  private final InternTable<T> entities;
+  private final InternTable<String> strings;
+  private final AtomicLong bytesSaved = new AtomicLong();
+
+  /**
+   * @param maxEntries max number of interned entities, same number of strings is interned
+   */
+  protected InterningPreprocessor(int maxEntries) {
+    this.preprocessedType = ReflectionUtils.getSupertypeArgument(getClass(), InterningPreprocessor.class);
+    this.entities = new InternTable<>(maxEntries);
+    this.strings = new InternTable<>(maxEntries);
+  }
+
+  /**
+   * Replaces string fields of new entity with interned ones, e.g. {@code cookie.setName(intern(cookie.getName()))}.
+   * Called for every entity before it is looked up in table, does nothing by default.
+   */
+  protected void internFields(T entity) {
+  }
+
+  /**
+   * @return estimated size of entity in bytes without its strings, used only for {@link InternStats#getBytesSaved()}
+   */
+  protected int sizeOf(T entity) {
+    return DEFAULT_ENTITY_SIZE;
+  }
+
+  /**
+   * @return interned string equal to value, null for null
+   */
+  protected final String intern(String value) {
+    if (value == null)
+      return null;
+    String result = strings.intern(value);
+    if (result != value)
+      bytesSaved.addAndGet(STRING_OVERHEAD + 2L * value.length());
+    return result;
+  }
+
+  @Override
+  public final T preprocess(T body) {
+    if (body == null)
+      return null;
+    //fields are interned before entity is published to other threads, strings of duplicate are counted as saved by intern
+    internFields(body);
+    T result = entities.intern(body);
+    if (result != body)
+      bytesSaved.addAndGet(sizeOf(body));
+    return result;
+  }
+
+  @Override
+  public final Type getPreprocessedType() {
+    return preprocessedType;
+  }
+
+  public InternStats stats() {
+    return new InternStats(entities.hits(), entities.misses(), strings.hits(),
+        entities.evictions() + strings.evictions(), entities.size() + strings.size(), bytesSaved.get());
+  }
+
+}
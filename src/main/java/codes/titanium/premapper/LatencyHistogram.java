@@ -0,0 +1,65 @@
+package codes.titanium.premapper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free log-linear histogram of durations in nanoseconds.
+ * Every power of two is split into 16 buckets, so relative error of percentiles is below 1/16.
+ */
+class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  //durations up to 2^40 ns (~18 minutes) are distinguished, longer are stored in last bucket
+  private static final int MAX_EXPONENT = 40;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  void record(long durationNanos) {
+    counts.incrementAndGet(bucketOf(durationNanos));
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  long[] snapshot() {
+    long[] result = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      result[i] = counts.get(i);
+    }
+    return result;
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS)
+      return value < 0 ? 0 : (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent > MAX_EXPONENT)
+      return BUCKETS - 1;
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return highest value that is stored in bucket
+   */
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    if (bucket == BUCKETS - 1)
+      return Long.MAX_VALUE;
+    return lowestValueOf(bucket + 1) - 1;
+  }
+
+  private static long lowestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+  }
+
+}
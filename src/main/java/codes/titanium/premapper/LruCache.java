@@ -0,0 +1,185 @@
+package codes.titanium.premapper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache with least recently used eviction.
+ * Split into segments by hash of key, every segment is access ordered map guarded by its own lock,
+ * so concurrent access to different keys rarely contends.
+ * Optional max weight bounds sum of weights of all values, segment that exceeds it evicts its own least recently used values
+ * and then other segments evict theirs one by one, so lock of only one segment is held at a time.
+ */
+class LruCache<K, V> {
+
+  private static final int MAX_SEGMENTS = 16;
+  //segments are used only when every segment keeps at least that number of entries, so eviction stays close to global lru
+  private static final int MIN_SEGMENT_SIZE = 16;
+
+  private final Segment[] segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong weight = new AtomicLong();
+  private final long maxWeight;
+  //null if values are not weighed
+  private final Weigher<? super V> weigher;
+
+  LruCache(int maxEntries) {
+    this(maxEntries, Long.MAX_VALUE, null);
+  }
+
+  /**
+   * @param maxWeight max sum of weights of values
+   * @param weigher   weight of value, it should not change while value is cached
+   */
+  @SuppressWarnings("unchecked")
+  LruCache(int maxEntries, long maxWeight, Weigher<? super V> weigher) {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException("Max entries should be positive");
+    if (maxWeight < 1)
+      throw new IllegalArgumentException("Max weight should be positive");
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    int count = 1;
+    while (count < MAX_SEGMENTS && maxEntries / (count * 2) >= MIN_SEGMENT_SIZE) {
+      count *= 2;
+    }
+    segments = (Segment[]) new LruCache.Segment[count];
+    for (int i = 0; i < count; i++) {
+      //first segments get remainder, so total capacity is exactly max entries
+      segments[i] = new Segment(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * @return cached value or null, counts hit or miss
+   */
+  V get(K key) {
+    V result = segmentFor(key).get(key);
+    (result == null ? misses : hits).incrementAndGet();
+    return result;
+  }
+
+  /**
+   * @return cached value or null, hit or miss is not counted
+   */
+  V peek(K key) {
+    return segmentFor(key).get(key);
+  }
+
+  /**
+   * Counts hit or miss of value that was peeked and checked by caller
+   */
+  void record(boolean hit) {
+    (hit ? hits : misses).incrementAndGet();
+  }
+
+  void put(K key, V value) {
+    Segment segment = segmentFor(key);
+    segment.put(key, value);
+    while (weight.get() > maxWeight) {
+      boolean evicted = false;
+      for (Segment other : segments) {
+        if (other != segment && weight.get() > maxWeight)
+          evicted |= other.evictEldest();
+      }
+      if (!evicted)
+        break;
+    }
+  }
+
+  /**
+   * Removes value only if it is still mapped to key
+   */
+  void remove(K key, V value) {
+    segmentFor(key).remove(key, value);
+  }
+
+  int size() {
+    int result = 0;
+    for (Segment segment : segments) {
+      result += segment.size();
+    }
+    return result;
+  }
+
+  CacheStats stats() {
+    return new CacheStats(hits.get(), misses.get(), evictions.get(), size());
+  }
+
+  /**
+   * @return sum of weights of cached values, 0 if values are not weighed
+   */
+  long weight() {
+    return weight.get();
+  }
+
+  private Segment segmentFor(K key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return segments[hash & (segments.length - 1)];
+  }
+
+  interface Weigher<V> {
+    long weigh(V value);
+  }
+
+  private class Segment {
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxEntries;
+
+    private Segment(int maxEntries) {
+      this.maxEntries = maxEntries;
+    }
+
+    private synchronized V get(K key) {
+      return map.get(key);
+    }
+
+    /**
+     * Evicts least recently used values of segment while it is full or total weight is exceeded, new value is always kept
+     */
+    private synchronized void put(K key, V value) {
+      V previous = map.put(key, value);
+      if (weigher != null)
+        weight.addAndGet(weigher.weigh(value) - (previous == null ? 0 : weigher.weigh(previous)));
+      Iterator<V> eldest = map.values().iterator();
+      while (map.size() > 1 && (map.size() > maxEntries || weight.get() > maxWeight)) {
+        V evicted = eldest.next();
+        eldest.remove();
+        if (weigher != null)
+          weight.addAndGet(-weigher.weigh(evicted));
+        evictions.incrementAndGet();
+      }
+    }
+
+    /**
+     * @return false if segment is empty
+     */
+    private synchronized boolean evictEldest() {
+      Iterator<V> eldest = map.values().iterator();
+      if (!eldest.hasNext())
+        return false;
+      V evicted = eldest.next();
+      eldest.remove();
+      weight.addAndGet(-weigher.weigh(evicted));
+      evictions.incrementAndGet();
+      return true;
+    }
+
+    private synchronized void remove(K key, V value) {
+      if (map.get(key) != value)
+        return;
+      map.remove(key);
+      if (weigher != null)
+        weight.addAndGet(-weigher.weigh(value));
+    }
+
+    private synchronized int size() {
+      return map.size();
+    }
+  }
+
+}
@@ -0,0 +1,18 @@
+package codes.titanium.premapper;
+
+/**
+ * Receives measurements of every preprocessor invocation when instrumentation is enabled by
+ * {@link PreprocessAdapter.Builder#metricsSink(MetricsSink)}.
+ * Called on the thread that invoked preprocessor, so implementations should be thread safe and cheap.
+ */
+public interface MetricsSink {
+
+  /**
+   * @param endpoint      description of endpoint, e.g. "GET /cookies"
+   * @param preprocessor  class of invoked preprocessor
+   * @param durationNanos time spent inside of preprocessor
+   * @param failed        true if preprocessor thrown exception
+   */
+  void record(String endpoint, Class<?> preprocessor, long durationNanos, boolean failed);
+
+}
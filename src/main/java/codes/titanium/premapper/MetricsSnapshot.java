@@ -0,0 +1,55 @@
+package codes.titanium.premapper;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point in time copy of metrics gathered by {@link InMemoryMetricsSink}
+ */
+public final class MetricsSnapshot {
+
+  private final List<PreprocessorMetrics> metrics;
+
+  MetricsSnapshot(List<PreprocessorMetrics> metrics) {
+    this.metrics = Collections.unmodifiableList(metrics);
+  }
+
+  /**
+   * @return metrics for every pair of endpoint and preprocessor
+   */
+  public List<PreprocessorMetrics> getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return metrics of every preprocessor aggregated for all endpoints
+   */
+  public Map<Class<?>, PreprocessorMetrics> byPreprocessor() {
+    Map<Class<?>, PreprocessorMetrics> result = new LinkedHashMap<>();
+    for (PreprocessorMetrics item : metrics) {
+      PreprocessorMetrics previous = result.get(item.getPreprocessor());
+      result.put(item.getPreprocessor(), previous == null ? item.merge(empty(), null, item.getPreprocessor()) :
+          previous.merge(item, null, item.getPreprocessor()));
+    }
+    return result;
+  }
+
+  /**
+   * @return metrics of every endpoint aggregated for all its preprocessors
+   */
+  public Map<String, PreprocessorMetrics> byEndpoint() {
+    Map<String, PreprocessorMetrics> result = new LinkedHashMap<>();
+    for (PreprocessorMetrics item : metrics) {
+      PreprocessorMetrics previous = result.get(item.getEndpoint());
+      result.put(item.getEndpoint(), previous == null ? item.merge(empty(), item.getEndpoint(), null) :
+          previous.merge(item, item.getEndpoint(), null));
+    }
+    return result;
+  }
+
+  private static PreprocessorMetrics empty() {
+    return new PreprocessorMetrics(null, null, 0, 0, 0, new long[LatencyHistogram.BUCKETS]);
+  }
+}
@@ -0,0 +1,54 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs blocking body preprocessor on executor, so it can be used as {@link AsyncPreprocessor}
+ */
+class OffloadedPreprocessor implements AsyncPreprocessor<Object>, Typed, Prioritized {
+
+  private final BodyPreprocessor<Object> preprocessor;
+  private final Type preprocessedType;
+  private final Executor executor;
+
+  @SuppressWarnings("unchecked")
+  OffloadedPreprocessor(BodyPreprocessor preprocessor, Type preprocessedType, Executor executor) {
+    this.preprocessor = preprocessor;
+    this.preprocessedType = preprocessedType;
+    this.executor = executor;
+  }
+
+  @Override
+  public CompletionStage<Object> preprocess(final Object body) {
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.complete(preprocessor.preprocess(body));
+        } catch (Throwable t) {
+          result.completeExceptionally(t);
+        }
+      }
+    });
+    return result;
+  }
+
+  @Override
+  public Type getPreprocessedType() {
+    return preprocessedType;
+  }
+
+  @Override
+  public int getPriority() {
+    return preprocessor instanceof Prioritized ? ((Prioritized) preprocessor).getPriority() : 0;
+  }
+
+  @Override
+  public String toString() {
+    return preprocessor.toString();
+  }
+}
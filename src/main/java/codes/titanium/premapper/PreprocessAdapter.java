@@ -1,13 +1,31 @@
 package codes.titanium.premapper;
 
+import okhttp3.Interceptor;
+import okhttp3.Request;
 import retrofit2.Call;
 import retrofit2.CallAdapter;
+import retrofit2.Converter;
 import retrofit2.Retrofit;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 import static codes.titanium.premapper.ReflectionUtils.*;
 
@@ -20,13 +38,55 @@ public class PreprocessAdapter extends CallAdapter.Factory {
 
   private CallAdapter.Factory wrapped;
 
-  private List<Preprocessor> preprocessors;
+  private PreprocessorIndex<Preprocessor> preprocessors;
 
-  private PreprocessAdapter(CallAdapter.Factory wrapped, List<Preprocessor> preprocessors) {
-    if (preprocessors == null)
-      throw new NullPointerException("Preprocessors should not be null");
-    this.wrapped = wrapped;
-    this.preprocessors = new ArrayList<>(preprocessors);
+  private PreprocessConverterFactory converterFactory;
+
+  private MetricsSink metricsSink;
+
+  private Executor executor;
+
+  private PreprocessorIndex<AsyncPreprocessor> asyncPreprocessors;
+
+  //whether endpoints of next factories of retrofit are decorated too
+  private boolean decorateNextAdapters;
+
+  //null if preprocessors are fixed
+  private PreprocessorRegistry registry;
+  //explicit dispatch table of builder which registry preprocessors are matched by, null if generated one is used
+  private final DispatchTable registryTable;
+
+  //endpoints of different services or retrofits can have same description
+  private final ConcurrentMap<String, List<ResponseCache>> responseCaches = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, List<Hedger>> hedgers = new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<String, List<Revalidator>> revalidators = new ConcurrentHashMap<>();
+
+  //revalidated calls in flight by their requests, for revalidation interceptor
+  private final ConcurrentMap<Request, Revalidator.Exchange> revalidations = new ConcurrentHashMap<>();
+
+  //by group
+  private final ConcurrentMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+  //limiters of endpoints without group, one per resolved endpoint, by endpoint description
+  private final ConcurrentMap<String, List<ConcurrencyLimiter>> endpointLimiters = new ConcurrentHashMap<>();
+
+  //call adapters resolved by warm up, so retrofit gets them without second resolution
+  private final ConcurrentMap<WarmUpKey, CallAdapter<?, ?>> warmedAdapters = new ConcurrentHashMap<>();
+
+  private PreprocessAdapter(Builder builder) {
+    this.wrapped = builder.wrapped;
+    this.decorateNextAdapters = builder.decorateNextAdapters;
+    DispatchTable table = builder.dispatchTables.isEmpty() ? loadGeneratedDispatchTable() : DispatchTables.of(builder.dispatchTables);
+    this.preprocessors = PreprocessorIndex.of(builder.preprocessors, builder.preprocessorTypes, table);
+    this.registry = builder.registry;
+    this.registryTable = builder.dispatchTables.isEmpty() ? null : table;
+    this.metricsSink = builder.metricsSink;
+    this.executor = builder.executor == null ? ForkJoinPool.commonPool() : builder.executor;
+    this.asyncPreprocessors = PreprocessorIndex.of(builder.resolveAsyncPreprocessors(), builder.asyncPreprocessorTypes, table);
+    this.converterFactory = new PreprocessConverterFactory(PreprocessorIndex.<BodyPreprocessor>of(builder.bodyPreprocessors, builder.bodyPreprocessorTypes, table),
+        PreprocessorIndex.<RawBodyPreprocessor>of(builder.rawPreprocessors, builder.rawPreprocessorTypes, table), builder.parallelThreshold, executor, metricsSink,
+        builder.streamFactory);
   }
 
   /**
@@ -35,35 +95,337 @@ public class PreprocessAdapter extends CallAdapter.Factory {
    * @param preprocessors that will intercept responses
    */
   public static PreprocessAdapter create(CallAdapter.Factory factory, List<Preprocessor> preprocessors) {
-    return new PreprocessAdapter(factory, preprocessors);
+    return builder(factory).addPreprocessors(preprocessors).build();
+  }
+
+  /**
+   * Creates new instance of preprocess adapter bases on your selected adapter
+   *
+   * @param preprocessors     that will intercept adapted responses
+   * @param bodyPreprocessors that will intercept entities inside of {@link #converterFactory()}
+   */
+  public static PreprocessAdapter create(CallAdapter.Factory factory, List<Preprocessor> preprocessors, List<BodyPreprocessor> bodyPreprocessors) {
+    return builder(factory).addPreprocessors(preprocessors).addBodyPreprocessors(bodyPreprocessors).build();
+  }
+
+  /**
+   * Creates builder of preprocess adapter bases on your selected adapter
+   */
+  public static Builder builder(CallAdapter.Factory factory) {
+    return new Builder(factory);
+  }
+
+  /**
+   * Converter factory that runs {@link BodyPreprocessor} just after deserialization.
+   * Should be added to retrofit before your converter factories
+   */
+  public Converter.Factory converterFactory() {
+    return converterFactory;
+  }
+
+  /**
+   * Resolves call adapters, preprocessors and converters of all methods of services in parallel on {@link Builder#parallelExecutor(Executor)},
+   * so first calls of endpoints do not pay for resolution, e.g. before readiness check of application.
+   * Should be called with same retrofit that creates services.
+   *
+   * @return wall time from start of warm up until all methods of service were resolved in nanoseconds, by service
+   * @throws IllegalArgumentException if retrofit has no preprocess adapter or service is not interface
+   */
+  public static Map<Class<?>, Long> warmUp(Retrofit retrofit, Class<?>... services) throws InterruptedException {
+    PreprocessAdapter adapter = null;
+    for (CallAdapter.Factory factory : retrofit.callAdapterFactories()) {
+      if (factory instanceof PreprocessAdapter) {
+        adapter = (PreprocessAdapter) factory;
+        break;
+      }
+    }
+    if (adapter == null)
+      throw new IllegalArgumentException("Retrofit has no preprocess adapter");
+    Map<Class<?>, List<FutureTask<Long>>> tasks = new LinkedHashMap<>();
+    long startedAt = System.nanoTime();
+    for (Class<?> service : services) {
+      if (!service.isInterface())
+        throw new IllegalArgumentException("Service should be interface, but was " + service);
+      List<FutureTask<Long>> serviceTasks = new ArrayList<>();
+      for (Method method : service.getDeclaredMethods()) {
+        //retrofit does not adapt default and static methods
+        if (!Modifier.isAbstract(method.getModifiers()))
+          continue;
+        FutureTask<Long> task = new FutureTask<>(new WarmUpTask(retrofit, adapter, method));
+        adapter.executor.execute(task);
+        serviceTasks.add(task);
+      }
+      tasks.put(service, serviceTasks);
+    }
+    Map<Class<?>, Long> result = new LinkedHashMap<>();
+    for (Map.Entry<Class<?>, List<FutureTask<Long>>> entry : tasks.entrySet()) {
+      long finishedAt = startedAt;
+      for (FutureTask<Long> task : entry.getValue()) {
+        try {
+          finishedAt = Math.max(finishedAt, task.get());
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+          if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+          throw new IllegalStateException("Warm up of " + entry.getKey() + " failed", e.getCause());
+        }
+      }
+      result.put(entry.getKey(), finishedAt - startedAt);
+    }
+    return result;
   }
 
   @Override
   public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+    if (!warmedAdapters.isEmpty()) {
+      //retrofit asks once per method, so warmed adapter is not kept with its retrofit afterwards
+      CallAdapter<?, ?> warmed = warmedAdapters.remove(new WarmUpKey(retrofit, returnType, annotations));
+      if (warmed != null)
+        return warmed;
+    }
+    return resolve(returnType, annotations, retrofit);
+  }
+
+  /**
+   * Resolves adapter of endpoint ahead of retrofit and keeps it until retrofit asks for it
+   */
+  private CallAdapter<?, ?> warm(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+    WarmUpKey key = new WarmUpKey(retrofit, returnType, annotations);
+    CallAdapter<?, ?> result = warmedAdapters.get(key);
+    if (result != null)
+      return result;
+    result = resolve(returnType, annotations, retrofit);
+    if (result == null)
+      return null;
+    if (result instanceof RegistryCallAdapter)
+      ((RegistryCallAdapter<?>) result).current();
+    CallAdapter<?, ?> existing = warmedAdapters.putIfAbsent(key, result);
+    return existing == null ? result : existing;
+  }
+
+  private CallAdapter<?, ?> resolve(Type returnType, Annotation[] annotations, Retrofit retrofit) {
     CallAdapter<?, ?> result = wrapped.get(returnType, annotations, retrofit);
-    List<Preprocessor> preprocessors;
-    if (result != null && !containsAnnotation(annotations, PreprocessIgnore.class) && !(preprocessors = getNeededPreprocessors(returnType)).isEmpty())
-      return new PremapperCallAdapter(result, preprocessors);
+    if (result == null) {
+      if (!decorateNextAdapters)
+        return null;
+      result = retrofit.nextCallAdapter(this, returnType, annotations);
+      if (result instanceof PremapperCallAdapter || result instanceof RegistryCallAdapter)
+        return result;
+    }
+    String endpoint = describeEndpoint(annotations, returnType);
+    boolean ignored = containsAnnotation(annotations, PreprocessIgnore.class);
+    List<AsyncPreprocessor> async = ignored ? Collections.<AsyncPreprocessor>emptyList() : asyncPreprocessors.lookup(result.responseType());
+    if (registry != null && !ignored)
+      return new RegistryCallAdapter(result, endpoint, returnType, getDecorator(endpoint, annotations, async, retrofit, result.responseType(), true));
+    List<Preprocessor> needed = ignored ? Collections.<Preprocessor>emptyList() : getNeededPreprocessors(preprocessors, endpoint, returnType);
+    CallDecorator decorator = getDecorator(endpoint, annotations, async, retrofit, result.responseType(), !needed.isEmpty());
+    if (needed.isEmpty() && decorator == null)
+      return result;
+    return new PremapperCallAdapter(result, compile(endpoint, needed), decorator);
+  }
+
+  /**
+   * @return statistics of cache of type comparisons shared by all adapters, evictions mean that it is too small
+   * for endpoints and preprocessors of application and its size should be raised with -Dcodes.titanium.premapper.typeMatcherEntries
+   */
+  public static CacheStats typeMatchStats() {
+    return TypeMatcher.stats();
+  }
+
+  /**
+   * @return statistics of in memory caches of endpoints annotated with {@link Cached}, by endpoint description.
+   * Statistics of endpoints with same description are summed up
+   */
+  public Map<String, CacheStats> cacheStats() {
+    Map<String, CacheStats> result = new LinkedHashMap<>();
+    for (Map.Entry<String, List<ResponseCache>> entry : responseCaches.entrySet()) {
+      CacheStats total = null;
+      for (ResponseCache cache : entry.getValue()) {
+        total = total == null ? cache.stats() : total.plus(cache.stats());
+      }
+      result.put(entry.getKey(), total);
+    }
     return result;
   }
 
-  private List<Preprocessor> getNeededPreprocessors(Type returnType) {
-    List<Preprocessor> result = new ArrayList<>();
-    for (Preprocessor preprocessor : preprocessors) {
-      if (isAssignableFromTo(returnType, getFirstNonSyntheticMethodForName(preprocessor, "preprocess").getGenericReturnType()))
-        result.add(preprocessor);
+  /**
+   * @return statistics of kept responses of endpoints annotated with {@link Revalidate}, by endpoint description.
+   * Hits are not modified responses that were replaced with kept ones, misses are successful responses with body.
+   * Statistics of endpoints with same description are summed up
+   */
+  public Map<String, CacheStats> revalidationStats() {
+    Map<String, CacheStats> result = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Revalidator>> entry : revalidators.entrySet()) {
+      CacheStats total = null;
+      for (Revalidator revalidator : entry.getValue()) {
+        total = total == null ? revalidator.stats() : total.plus(revalidator.stats());
+      }
+      result.put(entry.getKey(), total);
     }
     return result;
   }
 
+  /**
+   * Interceptor that adds If-None-Match and If-Modified-Since headers to requests of endpoints annotated with {@link Revalidate}.
+   * Should be added to OkHttp client as first application interceptor, so it sees requests as they are created by retrofit
+   */
+  public Interceptor revalidationInterceptor() {
+    return new Interceptor() {
+      @Override
+      public okhttp3.Response intercept(Chain chain) throws IOException {
+        Revalidator.Exchange exchange = revalidations.isEmpty() ? null : revalidations.get(chain.request());
+        return exchange == null ? chain.proceed(chain.request()) : exchange.proceed(chain);
+      }
+    };
+  }
+
+  /**
+   * @return counters of endpoints annotated with {@link Hedge}, by endpoint description.
+   * Counters of endpoints with same description are summed up, delay is the longest of them
+   */
+  public Map<String, HedgeStats> hedgeStats() {
+    Map<String, HedgeStats> result = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Hedger>> entry : hedgers.entrySet()) {
+      HedgeStats total = null;
+      for (Hedger hedger : entry.getValue()) {
+        total = total == null ? hedger.stats() : total.plus(hedger.stats());
+      }
+      result.put(entry.getKey(), total);
+    }
+    return result;
+  }
+
+  /**
+   * @return counters of bulkheads of endpoints annotated with {@link Bulkhead}, by group or endpoint description.
+   * Counters of endpoints without group with same description are summed up
+   */
+  public Map<String, BulkheadStats> bulkheadStats() {
+    Map<String, BulkheadStats> result = new LinkedHashMap<>();
+    for (Map.Entry<String, ConcurrencyLimiter> entry : limiters.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().stats());
+    }
+    for (Map.Entry<String, List<ConcurrencyLimiter>> entry : endpointLimiters.entrySet()) {
+      BulkheadStats total = null;
+      for (ConcurrencyLimiter limiter : entry.getValue()) {
+        total = total == null ? limiter.stats() : total.plus(limiter.stats());
+      }
+      result.put(entry.getKey(), total);
+    }
+    return result;
+  }
+
+  /**
+   * Creates decorators for annotations of endpoint, cache goes first so its hits skip all other decorators,
+   * revalidation goes next, so not modified responses skip async preprocessors,
+   * coalesced calls take single permit of bulkhead and hedging goes last, so hedged request does not take second permit.
+   * Async preprocessors go after coalescing, so coalesced calls share preprocessed response, and before bulkhead,
+   * so permit is released as soon as response is received.
+   * Revalidation that converts kept bytes again goes after async preprocessors, so they are applied to converted body too.
+   *
+   * @param adaptedPreprocessors true if endpoint has or can get preprocessors of adapted type
+   */
+  private CallDecorator getDecorator(String endpoint, Annotation[] annotations, List<AsyncPreprocessor> async, Retrofit retrofit,
+                                     Type responseType, boolean adaptedPreprocessors) {
+    List<CallDecorator> decorators = new ArrayList<>();
+    Cached cached = findAnnotation(annotations, Cached.class);
+    if (cached != null) {
+      ResponseCache responseCache = new ResponseCache(cached);
+      register(responseCaches, endpoint, responseCache);
+      decorators.add(responseCache);
+    }
+    Revalidate revalidate = findAnnotation(annotations, Revalidate.class);
+    Revalidator revalidator = null;
+    if (revalidate != null) {
+      //preprocessors of adapted type should not run again on kept body
+      revalidator = new Revalidator(revalidate, revalidations,
+          adaptedPreprocessors ? retrofit.responseBodyConverter(responseType, annotations) : null);
+      register(revalidators, endpoint, revalidator);
+      if (!adaptedPreprocessors)
+        decorators.add(revalidator);
+    }
+    Coalesce coalesce = findAnnotation(annotations, Coalesce.class);
+    if (coalesce != null)
+      decorators.add(new CallCoalescer(coalesce, adaptedPreprocessors));
+    if (!async.isEmpty())
+      decorators.add(new AsyncPreprocessing(async));
+    if (revalidator != null && adaptedPreprocessors)
+      decorators.add(revalidator);
+    Bulkhead bulkhead = findAnnotation(annotations, Bulkhead.class);
+    if (bulkhead != null) {
+      ConcurrencyLimiter limiter;
+      if (bulkhead.group().isEmpty()) {
+        //endpoint is resolved once per method of retrofit, so description shared by other methods does not share limit
+        limiter = new ConcurrencyLimiter(endpoint, bulkhead);
+        register(endpointLimiters, endpoint, limiter);
+      } else {
+        limiter = limiters.get(bulkhead.group());
+        if (limiter == null) {
+          ConcurrencyLimiter created = new ConcurrencyLimiter(bulkhead.group(), bulkhead);
+          limiter = limiters.putIfAbsent(bulkhead.group(), created);
+          if (limiter == null)
+            limiter = created;
+        }
+      }
+      decorators.add(limiter);
+    }
+    Hedge hedge = findAnnotation(annotations, Hedge.class);
+    if (hedge != null) {
+      //hedger sends requests itself, so it converts winner response only
+      Hedger hedger = new Hedger(hedge, retrofit.callFactory(), retrofit.responseBodyConverter(responseType, annotations));
+      register(hedgers, endpoint, hedger);
+      decorators.add(hedger);
+    }
+    return CallDecorators.compose(decorators);
+  }
+
+  /**
+   * Adds decorator to decorators of endpoints with same description
+   */
+  private static <T> void register(ConcurrentMap<String, List<T>> decorators, String endpoint, T decorator) {
+    List<T> registered = decorators.get(endpoint);
+    if (registered == null) {
+      List<T> created = new CopyOnWriteArrayList<>();
+      registered = decorators.putIfAbsent(endpoint, created);
+      if (registered == null)
+        registered = created;
+    }
+    registered.add(decorator);
+  }
+
+  /**
+   * @return compiled preprocessors, null if there are no preprocessors
+   */
+  private Preprocessor<Object> compile(String endpoint, List<Preprocessor> needed) {
+    if (needed.isEmpty())
+      return null;
+    if (metricsSink != null)
+      needed = Instrumented.wrap(needed, endpoint, metricsSink);
+    return PreprocessorChain.compile(FlightRecorder.wrap(needed, endpoint));
+  }
+
+  private static List<Preprocessor> getNeededPreprocessors(PreprocessorIndex<Preprocessor> preprocessors, String endpoint, Type returnType) {
+    Object recording = FlightRecorder.beginResolution();
+    List<PreprocessorIndex.Entry<Preprocessor>> candidates = preprocessors.candidates(returnType);
+    List<Preprocessor> result = preprocessors.match(returnType, candidates);
+    FlightRecorder.endResolution(recording, endpoint, returnType, candidates.size(), result.size());
+    return result;
+  }
+
   private static class PremapperCallAdapter<R> implements CallAdapter<R, Object> {
 
-    private CallAdapter<R, Object> wrapped;
-    private List<Preprocessor> preprocessors;
+    private final CallAdapter<R, Object> wrapped;
+    private final Preprocessor<Object> chain;
+    private final CallDecorator decorator;
 
-    private PremapperCallAdapter(CallAdapter<R, Object> wrapped, List<Preprocessor> preprocessors) {
+    /**
+     * @param chain     compiled preprocessors, null if there are no preprocessors for endpoint
+     * @param decorator decorator of calls, null if calls are passed as is
+     */
+    private PremapperCallAdapter(CallAdapter<R, Object> wrapped, Preprocessor<Object> chain, CallDecorator decorator) {
       this.wrapped = wrapped;
-      this.preprocessors = preprocessors;
+      this.chain = chain;
+      this.decorator = decorator;
     }
 
     @Override
@@ -72,14 +434,478 @@ public class PreprocessAdapter extends CallAdapter.Factory {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Object adapt(Call<R> call) {
-      Object result = wrapped.adapt(call);
+      Call<R> decorated = decorator == null ? call : decorator.decorate(call);
+      Object result = wrapped.adapt(decorated);
+      return chain == null || CallDecorators.isShared(decorated) ? result : chain.preprocess(result);
+    }
+  }
+
+  /**
+   * Adapter of endpoint that takes preprocessors from registry, they are resolved again on first call after registry is changed
+   */
+  private class RegistryCallAdapter<R> implements CallAdapter<R, Object> {
+
+    private final CallAdapter<R, Object> wrapped;
+    private final String endpoint;
+    private final Type returnType;
+    private final CallDecorator decorator;
+    //replaced without locks, concurrent resolutions of same version give same result
+    private volatile Resolved resolved;
+
+    private RegistryCallAdapter(CallAdapter<R, Object> wrapped, String endpoint, Type returnType, CallDecorator decorator) {
+      this.wrapped = wrapped;
+      this.endpoint = endpoint;
+      this.returnType = returnType;
+      this.decorator = decorator;
+    }
+
+    @Override
+    public Type responseType() {
+      return wrapped.responseType();
+    }
+
+    @Override
+    public Object adapt(Call<R> call) {
+      Resolved current = current();
+      Call<R> decorated = decorator == null ? call : decorator.decorate(call);
+      Object result = wrapped.adapt(decorated);
+      return current.chain == null || CallDecorators.isShared(decorated) ? result : current.chain.preprocess(result);
+    }
+
+    /**
+     * @return preprocessors resolved for current version of registry
+     */
+    private Resolved current() {
+      Resolved current = resolved;
+      PreprocessorRegistry.Snapshot snapshot = registry.snapshot();
+      if (current == null || current.version != snapshot.version)
+        resolved = current = new Resolved(snapshot.version, compile(endpoint, getNeededPreprocessors(snapshot.index(registryTable), endpoint, returnType)));
+      return current;
+    }
+  }
+
+  /**
+   * Resolves adapter and response converter of single service method the same way as retrofit does,
+   * both are kept until retrofit asks for them
+   */
+  private static class WarmUpTask implements Callable<Long> {
+    private final Retrofit retrofit;
+    private final PreprocessAdapter preprocessAdapter;
+    private final Method method;
+
+    private WarmUpTask(Retrofit retrofit, PreprocessAdapter preprocessAdapter, Method method) {
+      this.retrofit = retrofit;
+      this.preprocessAdapter = preprocessAdapter;
+      this.method = method;
+    }
+
+    /**
+     * @return time when method was resolved
+     */
+    @Override
+    public Long call() {
+      Type returnType = method.getGenericReturnType();
+      Annotation[] annotations = method.getAnnotations();
+      for (CallAdapter.Factory factory : retrofit.callAdapterFactories()) {
+        CallAdapter<?, ?> adapter = factory instanceof PreprocessAdapter
+            ? ((PreprocessAdapter) factory).warm(returnType, annotations, retrofit)
+            : factory.get(returnType, annotations, retrofit);
+        if (adapter != null) {
+          warmConverter(adapter.responseType(), annotations);
+          break;
+        }
+      }
+      return System.nanoTime();
+    }
+
+    /**
+     * Only converter of preprocess converter factory is kept, converters of factories before it are not resolved ahead
+     */
+    private void warmConverter(Type responseType, Annotation[] annotations) {
+      for (Converter.Factory factory : retrofit.converterFactories()) {
+        if (factory == preprocessAdapter.converterFactory) {
+          preprocessAdapter.converterFactory.warm(responseType, annotations, retrofit);
+          return;
+        }
+        //retrofit would take converter of this factory, so converter of preprocess factory would never be asked for
+        if (factory.responseBodyConverter(responseType, annotations, retrofit) != null)
+          return;
+      }
+    }
+  }
+
+  static final class WarmUpKey {
+    private final Retrofit retrofit;
+    private final Type returnType;
+    private final List<Annotation> annotations;
+
+    WarmUpKey(Retrofit retrofit, Type returnType, Annotation[] annotations) {
+      this.retrofit = retrofit;
+      this.returnType = returnType;
+      this.annotations = Arrays.asList(annotations);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof WarmUpKey)) return false;
+      WarmUpKey that = (WarmUpKey) o;
+      return retrofit == that.retrofit && returnType.equals(that.returnType) && annotations.equals(that.annotations);
+    }
+
+    @Override
+    public int hashCode() {
+      return (System.identityHashCode(retrofit) * 31 + returnType.hashCode()) * 31 + annotations.hashCode();
+    }
+  }
+
+  private static class Resolved {
+    private final long version;
+    private final Preprocessor<Object> chain;
+
+    private Resolved(long version, Preprocessor<Object> chain) {
+      this.version = version;
+      this.chain = chain;
+    }
+  }
+
+  public static final class Builder {
+
+    private final CallAdapter.Factory wrapped;
+    private final List<Preprocessor> preprocessors = new ArrayList<>();
+    //explicit types of preprocessors by their positions, null if type is resolved
+    private final List<Type> preprocessorTypes = new ArrayList<>();
+    private final List<BodyPreprocessor> bodyPreprocessors = new ArrayList<>();
+    private final List<Type> bodyPreprocessorTypes = new ArrayList<>();
+    private final List<RawBodyPreprocessor> rawPreprocessors = new ArrayList<>();
+    private final List<Type> rawPreprocessorTypes = new ArrayList<>();
+    //async preprocessors and blocking body preprocessors that are offloaded to blocking executor
+    private final List<Object> asyncPreprocessors = new ArrayList<>();
+    private final List<Type> asyncPreprocessorTypes = new ArrayList<>();
+    private final List<Boolean> blocking = new ArrayList<>();
+    private Executor blockingExecutor;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    private Executor executor;
+    private MetricsSink metricsSink;
+    private final List<DispatchTable> dispatchTables = new ArrayList<>();
+    private PreprocessorRegistry registry;
+    private ElementStreamFactory streamFactory;
+    private boolean decorateNextAdapters;
+
+    private Builder(CallAdapter.Factory wrapped) {
+      if (wrapped == null)
+        throw new NullPointerException("Wrapped call adapter factory should not be null");
+      this.wrapped = wrapped;
+    }
+
+    /**
+     * @param preprocessor that will intercept adapted responses
+     */
+    public Builder addPreprocessor(Preprocessor preprocessor) {
+      return add(preprocessor, null);
+    }
+
+    /**
+     * Adds preprocessor with explicit type, e.g. lambda or method reference
+     */
+    public <T> Builder addPreprocessor(TypeToken<T> type, Preprocessor<T> preprocessor) {
+      return addPreprocessor(type.getType(), preprocessor);
+    }
+
+    /**
+     * Adds preprocessor with explicit type, e.g. lambda or method reference, preprocessed type is not resolved by reflection
+     *
+     * @param type preprocessed type, e.g. {@code Types.parameterized(Observable.class, Cookie.class)}
+     */
+    public Builder addPreprocessor(Type type, Preprocessor preprocessor) {
+      return add(preprocessor, checkPreprocessedType(type));
+    }
+
+    private Builder add(Preprocessor preprocessor, Type type) {
+      if (preprocessor == null)
+        throw new NullPointerException("Preprocessor should not be null");
+      preprocessors.add(preprocessor);
+      preprocessorTypes.add(type);
+      return this;
+    }
+
+    public Builder addPreprocessors(List<Preprocessor> preprocessors) {
+      if (preprocessors == null)
+        throw new NullPointerException("Preprocessors should not be null");
       for (Preprocessor preprocessor : preprocessors) {
-        result = preprocessor.preprocess(result);
+        addPreprocessor(preprocessor);
+      }
+      return this;
+    }
+
+    /**
+     * @param bodyPreprocessor that will intercept entities inside of {@link #converterFactory()}
+     */
+    public Builder addBodyPreprocessor(BodyPreprocessor bodyPreprocessor) {
+      return addBody(bodyPreprocessor, null);
+    }
+
+    /**
+     * Adds body preprocessor with explicit type, e.g. lambda or method reference
+     */
+    public <T> Builder addBodyPreprocessor(TypeToken<T> type, BodyPreprocessor<T> bodyPreprocessor) {
+      return addBodyPreprocessor(type.getType(), bodyPreprocessor);
+    }
+
+    /**
+     * Adds body preprocessor with explicit type, e.g. lambda or method reference, preprocessed type is not resolved by reflection
+     *
+     * @param type preprocessed type, e.g. {@code Cookie.class}
+     */
+    public Builder addBodyPreprocessor(Type type, BodyPreprocessor bodyPreprocessor) {
+      return addBody(bodyPreprocessor, checkPreprocessedType(type));
+    }
+
+    private Builder addBody(BodyPreprocessor bodyPreprocessor, Type type) {
+      if (bodyPreprocessor == null)
+        throw new NullPointerException("Body preprocessor should not be null");
+      bodyPreprocessors.add(bodyPreprocessor);
+      bodyPreprocessorTypes.add(type);
+      return this;
+    }
+
+    /**
+     * @param bodyFilter that will drop entities inside of {@link #converterFactory()} before remaining body preprocessors
+     */
+    public Builder addBodyFilter(BodyFilter bodyFilter) {
+      return addFilter(bodyFilter, null);
+    }
+
+    /**
+     * Adds body filter with explicit type, e.g. lambda or method reference
+     */
+    public <T> Builder addBodyFilter(TypeToken<T> type, BodyFilter<T> bodyFilter) {
+      return addBodyFilter(type.getType(), bodyFilter);
+    }
+
+    /**
+     * Adds body filter with explicit type, e.g. lambda or method reference
+     *
+     * @param type filtered type, e.g. {@code Cookie.class}
+     */
+    public Builder addBodyFilter(Type type, BodyFilter bodyFilter) {
+      return addFilter(bodyFilter, checkPreprocessedType(type));
+    }
+
+    private Builder addFilter(BodyFilter bodyFilter, Type type) {
+      if (bodyFilter == null)
+        throw new NullPointerException("Body filter should not be null");
+      return addBody(new FilterPreprocessor(bodyFilter, type == null ? getPreprocessedType(bodyFilter) : type), null);
+    }
+
+    public Builder addBodyPreprocessors(List<BodyPreprocessor> bodyPreprocessors) {
+      if (bodyPreprocessors == null)
+        throw new NullPointerException("Body preprocessors should not be null");
+      for (BodyPreprocessor bodyPreprocessor : bodyPreprocessors) {
+        addBodyPreprocessor(bodyPreprocessor);
+      }
+      return this;
+    }
+
+    /**
+     * @param rawPreprocessor that will inspect bytes of responses before they are converted inside of {@link #converterFactory()}
+     */
+    public Builder addRawBodyPreprocessor(RawBodyPreprocessor rawPreprocessor) {
+      return addRaw(rawPreprocessor, null);
+    }
+
+    /**
+     * Adds raw body preprocessor with explicit type, e.g. lambda or method reference
+     */
+    public <T> Builder addRawBodyPreprocessor(TypeToken<T> type, RawBodyPreprocessor<T> rawPreprocessor) {
+      return addRawBodyPreprocessor(type.getType(), rawPreprocessor);
+    }
+
+    /**
+     * Adds raw body preprocessor with explicit type, e.g. lambda or method reference
+     *
+     * @param type type of converted response, e.g. {@code Cookie.class}
+     */
+    public Builder addRawBodyPreprocessor(Type type, RawBodyPreprocessor rawPreprocessor) {
+      return addRaw(rawPreprocessor, checkPreprocessedType(type));
+    }
+
+    private Builder addRaw(RawBodyPreprocessor rawPreprocessor, Type type) {
+      if (rawPreprocessor == null)
+        throw new NullPointerException("Raw body preprocessor should not be null");
+      rawPreprocessors.add(rawPreprocessor);
+      rawPreprocessorTypes.add(type);
+      return this;
+    }
+
+    /**
+     * @param asyncPreprocessor that will intercept entities of responses without blocking of caller
+     */
+    public Builder addAsyncPreprocessor(AsyncPreprocessor asyncPreprocessor) {
+      return addAsync(asyncPreprocessor, null, false);
+    }
+
+    /**
+     * Adds async preprocessor with explicit type, e.g. lambda or method reference
+     */
+    public <T> Builder addAsyncPreprocessor(TypeToken<T> type, AsyncPreprocessor<T> asyncPreprocessor) {
+      return addAsyncPreprocessor(type.getType(), asyncPreprocessor);
+    }
+
+    /**
+     * Adds async preprocessor with explicit type, e.g. lambda or method reference
+     *
+     * @param type type of entity, e.g. {@code Cookie.class}
+     */
+    public Builder addAsyncPreprocessor(Type type, AsyncPreprocessor asyncPreprocessor) {
+      return addAsync(asyncPreprocessor, checkPreprocessedType(type), false);
+    }
+
+    /**
+     * Adds body preprocessor that blocks, e.g. on I/O. It is applied as {@link AsyncPreprocessor} on {@link #blockingExecutor(Executor)},
+     * so it never blocks caller of endpoint
+     */
+    public Builder addBlockingPreprocessor(BodyPreprocessor bodyPreprocessor) {
+      return addAsync(bodyPreprocessor, null, true);
+    }
+
+    /**
+     * Adds blocking body preprocessor with explicit type, e.g. lambda or method reference
+     */
+    public <T> Builder addBlockingPreprocessor(TypeToken<T> type, BodyPreprocessor<T> bodyPreprocessor) {
+      return addBlockingPreprocessor(type.getType(), bodyPreprocessor);
+    }
+
+    /**
+     * Adds blocking body preprocessor with explicit type, e.g. lambda or method reference
+     *
+     * @param type type of entity, e.g. {@code Cookie.class}
+     */
+    public Builder addBlockingPreprocessor(Type type, BodyPreprocessor bodyPreprocessor) {
+      return addAsync(bodyPreprocessor, checkPreprocessedType(type), true);
+    }
+
+    private Builder addAsync(Object preprocessor, Type type, boolean blocking) {
+      if (preprocessor == null)
+        throw new NullPointerException("Async preprocessor should not be null");
+      asyncPreprocessors.add(preprocessor);
+      asyncPreprocessorTypes.add(type);
+      this.blocking.add(blocking);
+      return this;
+    }
+
+    /**
+     * Executor of blocking preprocessors, by default it starts virtual thread for every preprocessor on Java 21+
+     * and uses bounded pool of daemon threads on older runtimes
+     */
+    public Builder blockingExecutor(Executor blockingExecutor) {
+      if (blockingExecutor == null)
+        throw new NullPointerException("Blocking executor should not be null");
+      this.blockingExecutor = blockingExecutor;
+      return this;
+    }
+
+    /**
+     * @return async preprocessors in order of registration, blocking ones are offloaded to blocking executor
+     */
+    private List<AsyncPreprocessor> resolveAsyncPreprocessors() {
+      List<AsyncPreprocessor> result = new ArrayList<>(asyncPreprocessors.size());
+      for (int i = 0; i < asyncPreprocessors.size(); i++) {
+        Object preprocessor = asyncPreprocessors.get(i);
+        if (!blocking.get(i)) {
+          result.add((AsyncPreprocessor) preprocessor);
+          continue;
+        }
+        Type type = asyncPreprocessorTypes.get(i);
+        result.add(new OffloadedPreprocessor((BodyPreprocessor) preprocessor, type == null ? getPreprocessedType(preprocessor) : type,
+            blockingExecutor == null ? BlockingExecutors.shared() : blockingExecutor));
       }
       return result;
     }
+
+    /**
+     * Lists and arrays with at least this number of elements are preprocessed element by element in parallel.
+     * Disabled by default.
+     */
+    public Builder parallelThreshold(int parallelThreshold) {
+      if (parallelThreshold < 2)
+        throw new IllegalArgumentException("Parallel threshold should be at least 2");
+      this.parallelThreshold = parallelThreshold;
+      return this;
+    }
+
+    /**
+     * Executor for parallel preprocessing of elements and for {@link #warmUp(Retrofit, Class[])},
+     * {@link ForkJoinPool#commonPool()} is used by default
+     */
+    public Builder parallelExecutor(Executor executor) {
+      if (executor == null)
+        throw new NullPointerException("Executor should not be null");
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Enables instrumentation, every invocation of preprocessor is measured and reported to sink.
+     * Without sink preprocessors are invoked directly, without any overhead.
+     */
+    public Builder metricsSink(MetricsSink metricsSink) {
+      if (metricsSink == null)
+        throw new NullPointerException("Metrics sink should not be null");
+      this.metricsSink = metricsSink;
+      return this;
+    }
+
+    /**
+     * Adds dispatch table with types resolved at compile time, can be called for table of every module.
+     * By default tables generated by preprocessor annotation processor are discovered with {@link java.util.ServiceLoader},
+     * explicit tables replace discovered ones.
+     */
+    public Builder dispatchTable(DispatchTable dispatchTable) {
+      if (dispatchTable == null)
+        throw new NullPointerException("Dispatch table should not be null");
+      dispatchTables.add(dispatchTable);
+      return this;
+    }
+
+    /**
+     * Enables {@link ElementStream} responses, elements are read by streams of factory and preprocessed one by one,
+     * so memory is not bound by size of response
+     */
+    public Builder elementStreamFactory(ElementStreamFactory streamFactory) {
+      if (streamFactory == null)
+        throw new NullPointerException("Element stream factory should not be null");
+      this.streamFactory = streamFactory;
+      return this;
+    }
+
+    /**
+     * Endpoints that wrapped factory does not handle, e.g. plain {@link Call}, are adapted by next factories of retrofit
+     * and still get preprocessors and decorators, e.g. {@link AsyncPreprocessor} and {@link Revalidate}.
+     * Disabled by default, so such endpoints are left to their factories.
+     */
+    public Builder decorateNextAdapters() {
+      this.decorateNextAdapters = true;
+      return this;
+    }
+
+    /**
+     * Takes preprocessors from registry, so they can be registered and removed after adapter is built.
+     * Can't be combined with {@link #addPreprocessor(Preprocessor)}.
+     */
+    public Builder registry(PreprocessorRegistry registry) {
+      if (registry == null)
+        throw new NullPointerException("Registry should not be null");
+      this.registry = registry;
+      return this;
+    }
+
+    public PreprocessAdapter build() {
+      if (registry != null && !preprocessors.isEmpty())
+        throw new IllegalStateException("Preprocessors should be added to registry");
+      return new PreprocessAdapter(this);
+    }
   }
 
 }
@@ -0,0 +1,342 @@
+package codes.titanium.premapper;
+
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ByteString;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import static codes.titanium.premapper.ReflectionUtils.*;
+
+/**
+ * Converter factory that wraps next converter for response type and runs {@link BodyPreprocessor} on converted entity.
+ * For collection and array responses preprocessors of element type are applied to every element first.
+ * Returns null for types without matching preprocessors, so retrofit uses next converter directly.
+ * {@link RawBodyPreprocessor} of response type inspect buffered bytes of response before conversion.
+ * {@link ElementStream} responses are created by {@link ElementStreamFactory} and preprocessed element by element while they are read.
+ */
+class PreprocessConverterFactory extends Converter.Factory {
+
+  private final PreprocessorIndex<BodyPreprocessor> bodyPreprocessors;
+  private final PreprocessorIndex<RawBodyPreprocessor> rawPreprocessors;
+  private final int parallelThreshold;
+  private final Executor executor;
+  private final MetricsSink metricsSink;
+  //null if element streams are not supported
+  private final ElementStreamFactory streamFactory;
+  //converters resolved by warm up, removed when retrofit asks for them
+  private final ConcurrentMap<PreprocessAdapter.WarmUpKey, Converter<ResponseBody, ?>> warmedConverters = new ConcurrentHashMap<>();
+
+  PreprocessConverterFactory(PreprocessorIndex<BodyPreprocessor> bodyPreprocessors, PreprocessorIndex<RawBodyPreprocessor> rawPreprocessors,
+                             int parallelThreshold, Executor executor, MetricsSink metricsSink, ElementStreamFactory streamFactory) {
+    this.bodyPreprocessors = bodyPreprocessors;
+    this.rawPreprocessors = rawPreprocessors;
+    this.parallelThreshold = parallelThreshold;
+    this.executor = executor;
+    this.metricsSink = metricsSink;
+    this.streamFactory = streamFactory;
+  }
+
+  @Override
+  public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+    if (!warmedConverters.isEmpty()) {
+      Converter<ResponseBody, ?> warmed = warmedConverters.remove(new PreprocessAdapter.WarmUpKey(retrofit, type, annotations));
+      if (warmed != null)
+        return warmed;
+    }
+    return create(type, annotations, retrofit);
+  }
+
+  /**
+   * Resolves converter ahead of retrofit and keeps it until retrofit asks for it
+   */
+  void warm(Type type, Annotation[] annotations, Retrofit retrofit) {
+    Converter<ResponseBody, ?> converter = create(type, annotations, retrofit);
+    if (converter != null)
+      warmedConverters.putIfAbsent(new PreprocessAdapter.WarmUpKey(retrofit, type, annotations), converter);
+  }
+
+  private Converter<ResponseBody, ?> create(Type type, Annotation[] annotations, Retrofit retrofit) {
+    boolean ignored = containsAnnotation(annotations, PreprocessIgnore.class);
+    if (streamFactory != null && getRawType(type) == ElementStream.class && type instanceof ParameterizedType)
+      return streamConverter(((ParameterizedType) type).getActualTypeArguments()[0], annotations, ignored);
+    if (ignored)
+      return null;
+    Type elementType = getElementType(type);
+    String endpoint = describeEndpoint(annotations, type);
+    List<BodyPreprocessor> elementPreprocessors = elementType == null ? Collections.<BodyPreprocessor>emptyList() : lookup(elementType, endpoint);
+    List<BodyPreprocessor> matched = bodyPreprocessors.lookup(type);
+    List<BodyPreprocessor> preprocessors = new ArrayList<>(wrap(matched, endpoint));
+    if (!elementPreprocessors.isEmpty())
+      preprocessors.add(0, new ElementsPreprocessor(PreprocessorChain.compileBody(elementPreprocessors), parallelThreshold, executor));
+    List<RawBodyPreprocessor> raw = rawPreprocessors.lookup(type);
+    if (preprocessors.isEmpty() && raw.isEmpty())
+      return null;
+    Converter<ResponseBody, Object> result = retrofit.nextResponseBodyConverter(this, type, annotations);
+    if (!preprocessors.isEmpty())
+      result = isFingerprinted(matched) ? new FingerprintConverter(result, PreprocessorChain.compileBody(invalidatingFingerprint(matched, preprocessors))) :
+          new PreprocessConverter(result, PreprocessorChain.compileBody(preprocessors));
+    if (!raw.isEmpty())
+      result = new RawPreprocessConverter(result, raw.toArray(new RawBodyPreprocessor[raw.size()]));
+    return result;
+  }
+
+  /**
+   * @return body preprocessors of type wrapped with instrumentation
+   */
+  private List<BodyPreprocessor> lookup(Type type, String endpoint) {
+    return wrap(bodyPreprocessors.lookup(type), endpoint);
+  }
+
+  private List<BodyPreprocessor> wrap(List<BodyPreprocessor> result, String endpoint) {
+    if (metricsSink != null)
+      result = Instrumented.wrapBody(result, endpoint, metricsSink);
+    return FlightRecorder.wrapBody(result, endpoint);
+  }
+
+  /**
+   * @return true if any of preprocessors is memoized by fingerprint of response
+   */
+  private static boolean isFingerprinted(List<BodyPreprocessor> preprocessors) {
+    for (BodyPreprocessor preprocessor : preprocessors) {
+      if (preprocessor instanceof PurePreprocessor && ((PurePreprocessor) preprocessor).isByContent())
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Preprocessors other than memoized by fingerprint can modify entity in place, so fingerprint is invalidated before them
+   *
+   * @param matched       body preprocessors of response type, last ones of preprocessors
+   * @param preprocessors instrumented matched preprocessors, preceded by preprocessor of elements
+   */
+  private static List<BodyPreprocessor> invalidatingFingerprint(List<BodyPreprocessor> matched, List<BodyPreprocessor> preprocessors) {
+    int offset = preprocessors.size() - matched.size();
+    List<BodyPreprocessor> result = new ArrayList<>(preprocessors.size());
+    for (int i = 0; i < preprocessors.size(); i++) {
+      BodyPreprocessor original = i < offset ? null : matched.get(i - offset);
+      boolean byContent = original instanceof PurePreprocessor && ((PurePreprocessor) original).isByContent();
+      result.add(byContent ? preprocessors.get(i) : new FingerprintInvalidating(preprocessors.get(i)));
+    }
+    return result;
+  }
+
+  private Converter<ResponseBody, ?> streamConverter(Type elementType, Annotation[] annotations, boolean ignored) {
+    List<BodyPreprocessor> preprocessors = ignored ? Collections.<BodyPreprocessor>emptyList() :
+        lookup(elementType, describeEndpoint(annotations, elementType));
+    return new StreamConverter(streamFactory, elementType, preprocessors.isEmpty() ? null : PreprocessorChain.compileBody(preprocessors));
+  }
+
+  private static class PreprocessConverter implements Converter<ResponseBody, Object> {
+
+    private final Converter<ResponseBody, Object> wrapped;
+    private final BodyPreprocessor<Object> chain;
+
+    private PreprocessConverter(Converter<ResponseBody, Object> wrapped, BodyPreprocessor<Object> chain) {
+      this.wrapped = wrapped;
+      this.chain = chain;
+    }
+
+    @Override
+    public Object convert(ResponseBody value) throws IOException {
+      Object result = wrapped.convert(value);
+      return result == null ? null : checkNotDropped(chain.preprocess(result), result);
+    }
+  }
+
+  /**
+   * @throws DroppedBodyException if body was dropped by chain, so adapters and their preprocessors never see null
+   */
+  private static Object checkNotDropped(Object preprocessed, Object body) throws DroppedBodyException {
+    if (preprocessed == null)
+      throw new DroppedBodyException("Body of type " + body.getClass().getName() + " was dropped");
+    return preprocessed;
+  }
+
+  /**
+   * Hashes buffered response and binds hash to converted entity while its preprocessors run, for {@link PurePreprocessor}
+   */
+  private static class FingerprintConverter implements Converter<ResponseBody, Object> {
+
+    private final Converter<ResponseBody, Object> wrapped;
+    private final BodyPreprocessor<Object> chain;
+
+    private FingerprintConverter(Converter<ResponseBody, Object> wrapped, BodyPreprocessor<Object> chain) {
+      this.wrapped = wrapped;
+      this.chain = chain;
+    }
+
+    @Override
+    public Object convert(ResponseBody value) throws IOException {
+      BufferedSource source = value.source();
+      ResponseBody buffered = ResponseBody.create(value.contentType(), value.contentLength(), source);
+      ByteString hash;
+      try {
+        source.request(Long.MAX_VALUE);
+        hash = source.buffer().sha256();
+      } catch (IOException | RuntimeException e) {
+        buffered.close();
+        throw e;
+      }
+      Object result = wrapped.convert(buffered);
+      if (result == null)
+        return null;
+      ContentFingerprint previous = ContentFingerprint.bind(result, hash);
+      try {
+        return checkNotDropped(chain.preprocess(result), result);
+      } finally {
+        ContentFingerprint.restore(previous);
+      }
+    }
+  }
+
+  private static class FingerprintInvalidating implements BodyPreprocessor<Object> {
+
+    private final BodyPreprocessor<Object> wrapped;
+
+    @SuppressWarnings("unchecked")
+    private FingerprintInvalidating(BodyPreprocessor wrapped) {
+      this.wrapped = wrapped;
+    }
+
+    @Override
+    public Object preprocess(Object body) {
+      ContentFingerprint.invalidate();
+      return wrapped.preprocess(body);
+    }
+  }
+
+  /**
+   * Buffers whole response and passes its zero copy clones to raw preprocessors, buffered response is converted afterwards
+   */
+  private static class RawPreprocessConverter implements Converter<ResponseBody, Object> {
+
+    private final Converter<ResponseBody, Object> wrapped;
+    private final RawBodyPreprocessor[] preprocessors;
+
+    private RawPreprocessConverter(Converter<ResponseBody, Object> wrapped, RawBodyPreprocessor[] preprocessors) {
+      this.wrapped = wrapped;
+      this.preprocessors = preprocessors;
+    }
+
+    @Override
+    public Object convert(ResponseBody value) throws IOException {
+      //response body can create new source for every call, so same source is passed to converter inside of new body
+      BufferedSource source = value.source();
+      ResponseBody buffered = ResponseBody.create(value.contentType(), value.contentLength(), source);
+      try {
+        source.request(Long.MAX_VALUE);
+        for (RawBodyPreprocessor preprocessor : preprocessors) {
+          //clone of buffer shares its segments, bytes are not copied
+          preprocessor.preprocess(source.buffer().clone(), value.contentType());
+        }
+      } catch (IOException | RuntimeException e) {
+        buffered.close();
+        throw e;
+      }
+      return wrapped.convert(buffered);
+    }
+  }
+
+  private static class StreamConverter implements Converter<ResponseBody, ElementStream<?>> {
+
+    private final ElementStreamFactory factory;
+    private final Type elementType;
+    private final BodyPreprocessor<Object> chain;
+
+    /**
+     * @param chain preprocessors of elements, null if elements are not preprocessed
+     */
+    private StreamConverter(ElementStreamFactory factory, Type elementType, BodyPreprocessor<Object> chain) {
+      this.factory = factory;
+      this.elementType = elementType;
+      this.chain = chain;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ElementStream<?> convert(ResponseBody value) throws IOException {
+      ElementStream<Object> stream;
+      try {
+        stream = (ElementStream<Object>) factory.create(elementType, value.source());
+      } catch (IOException | RuntimeException e) {
+        value.close();
+        throw e;
+      }
+      if (stream == null) {
+        value.close();
+        throw new IllegalStateException("Element stream factory does not support " + elementType);
+      }
+      return new PreprocessingStream(stream, value, chain);
+    }
+  }
+
+  /**
+   * Preprocesses every element when it is read, closes response as soon as last element is read.
+   * Element is read ahead by {@link #hasNext()}, so elements dropped by chain are skipped
+   */
+  private static class PreprocessingStream implements ElementStream<Object> {
+
+    private final ElementStream<Object> wrapped;
+    private final ResponseBody body;
+    private final BodyPreprocessor<Object> chain;
+    private boolean ready;
+    private Object next;
+
+    private PreprocessingStream(ElementStream<Object> wrapped, ResponseBody body, BodyPreprocessor<Object> chain) {
+      this.wrapped = wrapped;
+      this.body = body;
+      this.chain = chain;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (!ready) {
+        if (!wrapped.hasNext()) {
+          close();
+          return false;
+        }
+        Object element = wrapped.next();
+        Object result = element == null || chain == null ? element : chain.preprocess(element);
+        if (element != null && result == null)
+          continue;
+        next = result;
+        ready = true;
+      }
+      return true;
+    }
+
+    @Override
+    public Object next() throws IOException {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      Object result = next;
+      next = null;
+      ready = false;
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        wrapped.close();
+      } finally {
+        body.close();
+      }
+    }
+  }
+
+}
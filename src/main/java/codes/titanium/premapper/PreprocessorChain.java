@@ -0,0 +1,108 @@
+package codes.titanium.premapper;
+
+import java.util.List;
+
+/**
+ * Compiles matched preprocessors into single {@link Preprocessor}, once per endpoint.
+ * Short chains are unrolled into fields, so they are invoked without loop over array, long chains are iterated over array
+ * without iterator allocation. Call sites inside of unrolled chains are shared by chains of all endpoints,
+ * so they stay monomorphic only while those chains hold preprocessors of same classes at same positions.
+ * Body chains stop on null, so entity dropped by {@link BodyFilter} is not passed to remaining preprocessors.
+ */
+final class PreprocessorChain {
+
+  private PreprocessorChain() {
+  }
+
+  @SuppressWarnings("unchecked")
+  static Preprocessor<Object> compile(List<Preprocessor> preprocessors) {
+    switch (preprocessors.size()) {
+      case 0:
+        throw new IllegalArgumentException("Chain should contain at least one preprocessor");
+      case 1:
+        return preprocessors.get(0);
+      case 2:
+        return new Pair(preprocessors.get(0), preprocessors.get(1));
+      case 3:
+        return new Triple(preprocessors.get(0), preprocessors.get(1), preprocessors.get(2));
+      default:
+        return new Sequence(preprocessors.toArray(new Preprocessor[preprocessors.size()]));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static BodyPreprocessor<Object> compileBody(List<BodyPreprocessor> preprocessors) {
+    if (preprocessors.isEmpty())
+      throw new IllegalArgumentException("Chain should contain at least one preprocessor");
+    if (preprocessors.size() == 1)
+      return preprocessors.get(0);
+    return new BodySequence(preprocessors.toArray(new BodyPreprocessor[preprocessors.size()]));
+  }
+
+  private static final class Pair implements Preprocessor<Object> {
+    private final Preprocessor<Object> first;
+    private final Preprocessor<Object> second;
+
+    private Pair(Preprocessor<Object> first, Preprocessor<Object> second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    public Object preprocess(Object source) {
+      return second.preprocess(first.preprocess(source));
+    }
+  }
+
+  private static final class Triple implements Preprocessor<Object> {
+    private final Preprocessor<Object> first;
+    private final Preprocessor<Object> second;
+    private final Preprocessor<Object> third;
+
+    private Triple(Preprocessor<Object> first, Preprocessor<Object> second, Preprocessor<Object> third) {
+      this.first = first;
+      this.second = second;
+      this.third = third;
+    }
+
+    @Override
+    public Object preprocess(Object source) {
+      return third.preprocess(second.preprocess(first.preprocess(source)));
+    }
+  }
+
+  private static final class Sequence implements Preprocessor<Object> {
+    private final Preprocessor<Object>[] preprocessors;
+
+    private Sequence(Preprocessor<Object>[] preprocessors) {
+      this.preprocessors = preprocessors;
+    }
+
+    @Override
+    public Object preprocess(Object source) {
+      Object result = source;
+      for (int i = 0; i < preprocessors.length; i++) {
+        result = preprocessors[i].preprocess(result);
+      }
+      return result;
+    }
+  }
+
+  private static final class BodySequence implements BodyPreprocessor<Object> {
+    private final BodyPreprocessor<Object>[] preprocessors;
+
+    private BodySequence(BodyPreprocessor<Object>[] preprocessors) {
+      this.preprocessors = preprocessors;
+    }
+
+    @Override
+    public Object preprocess(Object body) {
+      Object result = body;
+      for (int i = 0; i < preprocessors.length && result != null; i++) {
+        result = preprocessors[i].preprocess(result);
+      }
+      return result;
+    }
+  }
+
+}
@@ -0,0 +1,234 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static codes.titanium.premapper.ReflectionUtils.*;
+
+/**
+ * Index of preprocessors by signature, built once per adapter.
+ * Preprocessed type of every preprocessor is resolved only once and stored in bucket by its raw type (Observable, Single, Call...)
+ * and raw type of its first type argument, wildcard arguments are stored in separate bucket.
+ * Top level wildcards like {@code ? extends Cookie} have no raw type, they are candidates for every type.
+ * Lookup checks only preprocessors from matching buckets and keeps registration order,
+ * except for {@link Prioritized} preprocessors which are ordered by priority.
+ * Preprocessors from {@link DispatchTable} are matched by table which contains them, without comparing of types,
+ * all other candidates are compared by {@link TypeMatcher}.
+ */
+class PreprocessorIndex<P> {
+
+  private final Map<Class<?>, Bucket<P>> buckets = new HashMap<>();
+
+  //preprocessed type is top level wildcard, e.g. BodyPreprocessor registered for ? extends Cookie
+  private final List<Entry<P>> subtypes = new ArrayList<>();
+
+  //true if any preprocessor has priority, so matched ones have to be sorted
+  private boolean prioritized;
+
+  PreprocessorIndex(List<Entry<P>> entries) {
+    for (Entry<P> entry : entries) {
+      add(entry);
+    }
+  }
+
+  /**
+   * Creates index resolving preprocessed type of every preprocessor by reflection
+   */
+  static <P> PreprocessorIndex<P> of(List<? extends P> preprocessors) {
+    return of(preprocessors, null);
+  }
+
+  /**
+   * Creates index taking preprocessed types from table, preprocessors that are not in table are resolved by reflection
+   *
+   * @param table generated dispatch table, null if there is no one
+   */
+  static <P> PreprocessorIndex<P> of(List<? extends P> preprocessors, DispatchTable table) {
+    return of(preprocessors, Collections.<Type>nCopies(preprocessors.size(), null), table);
+  }
+
+  /**
+   * Creates index using explicit types of preprocessors, preprocessors without them are resolved by table or reflection
+   *
+   * @param types explicit preprocessed types by positions of preprocessors, null for preprocessors that are resolved
+   */
+  static <P> PreprocessorIndex<P> of(List<? extends P> preprocessors, List<Type> types, DispatchTable table) {
+    List<Entry<P>> entries = new ArrayList<>(preprocessors.size());
+    for (int i = 0; i < preprocessors.size(); i++) {
+      entries.add(resolve(preprocessors.get(i), types.get(i), entries.size(), table));
+    }
+    return new PreprocessorIndex<>(entries);
+  }
+
+  /**
+   * Resolves preprocessed type of preprocessor by table or by reflection if it is not in table
+   *
+   * @param type explicit preprocessed type, nothing is resolved if it is not null
+   */
+  static <P> Entry<P> resolve(P preprocessor, Type type, int order, DispatchTable table) {
+    if (type != null)
+      return new Entry<>(preprocessor, type, order);
+    DispatchTable owner = table == null ? null : DispatchTables.ownerOf(table, preprocessor.getClass());
+    if (owner != null)
+      return new Entry<>(preprocessor, owner.getPreprocessedType(preprocessor.getClass()), order, owner);
+    return new Entry<>(preprocessor, getPreprocessedType(preprocessor), order);
+  }
+
+  /**
+   * @return all preprocessors that can be applied to specified type, in order they were registered
+   */
+  List<P> lookup(Type type) {
+    return match(type, candidates(type));
+  }
+
+  /**
+   * @return preprocessors from buckets that can match specified type, in order they were registered
+   */
+  List<Entry<P>> candidates(Type type) {
+    Class<?> rawType = getRawType(type);
+    if (rawType == null)
+      return Collections.emptyList();
+    Bucket<P> bucket = buckets.get(rawType);
+    if (bucket == null)
+      return merge(null, subtypes);
+    if (type instanceof Class) {
+      //raw type can only be matched by same class or by parametrized type which arguments accept Object
+      return merge(merge(bucket.plain, merge(bucket.byArgument.get(Object.class), bucket.wildcard)), subtypes);
+    }
+    Class<?> argumentRawType = getRawType(((ParameterizedType) type).getActualTypeArguments()[0]);
+    return merge(merge(argumentRawType == null ? null : bucket.byArgument.get(argumentRawType), bucket.wildcard), subtypes);
+  }
+
+  /**
+   * @return preprocessors from candidates that can be applied to specified type
+   */
+  List<P> match(Type type, List<Entry<P>> candidates) {
+    List<P> result = new ArrayList<>();
+    if (candidates.isEmpty())
+      return result;
+    TypeMatcher.TypeKey key = TypeMatcher.TypeKey.of(type);
+    List<Entry<P>> matched = new ArrayList<>();
+    for (Entry<P> candidate : candidates) {
+      //return type that is not in table of preprocessor is compared as if preprocessor is not in table
+      Class<?>[] tabled = candidate.table == null ? null : candidate.table.getPreprocessors(type);
+      if (tabled != null ? contains(tabled, candidate.preprocessor.getClass()) :
+          TypeMatcher.isAssignableFromTo(type, key, candidate.type, candidate.key))
+        matched.add(candidate);
+    }
+    //sort is stable, so preprocessors with same priority keep registration order
+    if (prioritized && matched.size() > 1)
+      Collections.sort(matched, BY_PRIORITY);
+    for (Entry<P> entry : matched) {
+      result.add(entry.preprocessor);
+    }
+    return result;
+  }
+
+  private static final Comparator<Entry<?>> BY_PRIORITY = new Comparator<Entry<?>>() {
+    @Override
+    public int compare(Entry<?> first, Entry<?> second) {
+      return Integer.compare(second.priority, first.priority);
+    }
+  };
+
+  private static boolean contains(Class<?>[] classes, Class<?> target) {
+    for (Class<?> type : classes) {
+      if (type == target)
+        return true;
+    }
+    return false;
+  }
+
+  private void add(Entry<P> entry) {
+    prioritized |= entry.priority != 0;
+    if (entry.type instanceof WildcardType) {
+      subtypes.add(entry);
+      return;
+    }
+    Class<?> rawType = getRawType(entry.type);
+    //type variables and generic arrays are never assignable, so they are not indexed at all
+    if (rawType == null)
+      return;
+    Bucket<P> bucket = buckets.get(rawType);
+    if (bucket == null)
+      buckets.put(rawType, bucket = new Bucket<>());
+    if (entry.type instanceof Class) {
+      bucket.plain.add(entry);
+      return;
+    }
+    Type argument = ((ParameterizedType) entry.type).getActualTypeArguments()[0];
+    if (argument instanceof WildcardType) {
+      bucket.wildcard.add(entry);
+      return;
+    }
+    Class<?> argumentRawType = getRawType(argument);
+    if (argumentRawType == null)
+      return;
+    List<Entry<P>> entries = bucket.byArgument.get(argumentRawType);
+    if (entries == null)
+      bucket.byArgument.put(argumentRawType, entries = new ArrayList<>());
+    entries.add(entry);
+  }
+
+  /**
+   * Merges two lists sorted by registration order
+   */
+  private static <P> List<Entry<P>> merge(List<Entry<P>> first, List<Entry<P>> second) {
+    if (first == null || first.isEmpty())
+      return second == null ? Collections.<Entry<P>>emptyList() : second;
+    if (second == null || second.isEmpty())
+      return first;
+    List<Entry<P>> result = new ArrayList<>(first.size() + second.size());
+    int i = 0, j = 0;
+    while (i < first.size() && j < second.size()) {
+      result.add(first.get(i).order < second.get(j).order ? first.get(i++) : second.get(j++));
+    }
+    result.addAll(first.subList(i, first.size()));
+    result.addAll(second.subList(j, second.size()));
+    return result;
+  }
+
+  /**
+   * Preprocessor with its resolved preprocessed type
+   */
+  static class Entry<P> {
+    final P preprocessor;
+    final Type type;
+    final int order;
+    //table which type is taken from, null if type is resolved otherwise
+    final DispatchTable table;
+    //structural key of type for memoized matching
+    final TypeMatcher.TypeKey key;
+    final int priority;
+
+    Entry(P preprocessor, Type type, int order) {
+      this(preprocessor, type, order, null);
+    }
+
+    Entry(P preprocessor, Type type, int order, DispatchTable table) {
+      this.preprocessor = preprocessor;
+      this.type = type;
+      this.order = order;
+      this.table = table;
+      this.key = TypeMatcher.TypeKey.of(type);
+      this.priority = preprocessor instanceof Prioritized ? ((Prioritized) preprocessor).getPriority() : 0;
+    }
+  }
+
+  private static class Bucket<P> {
+    //preprocessed type is class, e.g. Preprocessor<String>
+    private final List<Entry<P>> plain = new ArrayList<>();
+    //preprocessed type is parametrized, key is raw type of first argument, e.g. TestEntity for Preprocessor<Observable<TestEntity>>
+    private final Map<Class<?>, List<Entry<P>>> byArgument = new HashMap<>();
+    //first argument is wildcard, e.g. Preprocessor<Observable<? extends TestEntity>>
+    private final List<Entry<P>> wildcard = new ArrayList<>();
+  }
+
+}
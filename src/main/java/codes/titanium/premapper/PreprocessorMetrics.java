@@ -0,0 +1,97 @@
+package codes.titanium.premapper;
+
+/**
+ * Immutable metrics of preprocessor invocations, for single endpoint or aggregated
+ */
+public final class PreprocessorMetrics {
+
+  private final String endpoint;
+  private final Class<?> preprocessor;
+  private final long count;
+  private final long errors;
+  private final long totalNanos;
+  private final long[] histogram;
+
+  PreprocessorMetrics(String endpoint, Class<?> preprocessor, long count, long errors, long totalNanos, long[] histogram) {
+    this.endpoint = endpoint;
+    this.preprocessor = preprocessor;
+    this.count = count;
+    this.errors = errors;
+    this.totalNanos = totalNanos;
+    this.histogram = histogram;
+  }
+
+  /**
+   * @return description of endpoint, null if metrics are aggregated for all endpoints
+   */
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * @return class of preprocessor, null if metrics are aggregated for all preprocessors of endpoint
+   */
+  public Class<?> getPreprocessor() {
+    return preprocessor;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getErrors() {
+    return errors;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getMeanNanos() {
+    return count == 0 ? 0 : totalNanos / count;
+  }
+
+  /**
+   * @param percentile from 0 to 100
+   * @return upper bound of duration for specified percentile of invocations
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100)
+      throw new IllegalArgumentException("Percentile should be between 0 and 100");
+    long total = 0;
+    for (long bucketCount : histogram) {
+      total += bucketCount;
+    }
+    if (total == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < histogram.length; i++) {
+      seen += histogram[i];
+      if (seen >= rank)
+        return LatencyHistogram.highestValueOf(i);
+    }
+    return LatencyHistogram.highestValueOf(histogram.length - 1);
+  }
+
+  PreprocessorMetrics merge(PreprocessorMetrics other, String endpoint, Class<?> preprocessor) {
+    long[] mergedHistogram = histogram.clone();
+    for (int i = 0; i < mergedHistogram.length; i++) {
+      mergedHistogram[i] += other.histogram[i];
+    }
+    return new PreprocessorMetrics(endpoint, preprocessor, count + other.count, errors + other.errors,
+        totalNanos + other.totalNanos, mergedHistogram);
+  }
+
+  @Override
+  public String toString() {
+    return "PreprocessorMetrics{" +
+        "endpoint=" + endpoint +
+        ", preprocessor=" + (preprocessor == null ? null : preprocessor.getName()) +
+        ", count=" + count +
+        ", errors=" + errors +
+        ", meanNanos=" + getMeanNanos() +
+        ", p99Nanos=" + getPercentileNanos(99) +
+        '}';
+  }
+}
@@ -0,0 +1,178 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static codes.titanium.premapper.ReflectionUtils.checkPreprocessedType;
+
+/**
+ * Set of preprocessors that can be changed at runtime, e.g. to toggle sampling logger.
+ * Every change atomically replaces immutable versioned snapshot, adapters built with registry
+ * see snapshot version on every call and re-resolve their preprocessors when it is changed.
+ * Can be shared between several adapters, preprocessors are resolved by generated dispatch table
+ * and matched by dispatch table of adapter which uses them.
+ */
+public final class PreprocessorRegistry {
+
+  private final DispatchTable table = ReflectionUtils.loadGeneratedDispatchTable();
+
+  private final AtomicReference<Snapshot> snapshot =
+      new AtomicReference<>(new Snapshot(0, Collections.<PreprocessorIndex.Entry<Preprocessor>>emptyList(),
+          Collections.<Type>emptyList()));
+
+  /**
+   * Adds preprocessor after all registered preprocessors, adding of same instance twice has no effect
+   *
+   * @return true if preprocessor was added
+   */
+  public boolean register(Preprocessor preprocessor) {
+    return add(preprocessor, null);
+  }
+
+  /**
+   * Adds preprocessor with explicit type, e.g. lambda
+   *
+   * @return true if preprocessor was added
+   */
+  public <T> boolean register(TypeToken<T> type, Preprocessor<T> preprocessor) {
+    return register(type.getType(), preprocessor);
+  }
+
+  /**
+   * Adds preprocessor with explicit type, e.g. lambda, preprocessed type is not resolved by reflection
+   *
+   * @param type preprocessed type, e.g. {@code Types.parameterized(Observable.class, Cookie.class)}
+   * @return true if preprocessor was added
+   */
+  public boolean register(Type type, Preprocessor preprocessor) {
+    return add(preprocessor, checkPreprocessedType(type));
+  }
+
+  private boolean add(Preprocessor preprocessor, Type type) {
+    if (preprocessor == null)
+      throw new NullPointerException("Preprocessor should not be null");
+    //resolved only once, outside of retry loop
+    PreprocessorIndex.Entry<Preprocessor> resolved = PreprocessorIndex.resolve(preprocessor, type, 0, table);
+    while (true) {
+      Snapshot current = snapshot.get();
+      if (current.indexOf(preprocessor) >= 0)
+        return false;
+      List<PreprocessorIndex.Entry<Preprocessor>> entries = new ArrayList<>(current.entries.size() + 1);
+      entries.addAll(current.entries);
+      int order = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).order + 1;
+      entries.add(new PreprocessorIndex.Entry<>(preprocessor, resolved.type, order, resolved.table));
+      List<Type> types = new ArrayList<>(current.types);
+      types.add(type);
+      if (snapshot.compareAndSet(current, new Snapshot(current.version + 1, entries, types)))
+        return true;
+    }
+  }
+
+  /**
+   * @return true if preprocessor was registered and it is removed
+   */
+  public boolean unregister(Preprocessor preprocessor) {
+    while (true) {
+      Snapshot current = snapshot.get();
+      int index = current.indexOf(preprocessor);
+      if (index < 0)
+        return false;
+      List<PreprocessorIndex.Entry<Preprocessor>> entries = new ArrayList<>(current.entries);
+      entries.remove(index);
+      List<Type> types = new ArrayList<>(current.types);
+      types.remove(index);
+      if (snapshot.compareAndSet(current, new Snapshot(current.version + 1, entries, types)))
+        return true;
+    }
+  }
+
+  /**
+   * @return registered preprocessors in order they were registered
+   */
+  public List<Preprocessor> getPreprocessors() {
+    List<PreprocessorIndex.Entry<Preprocessor>> entries = snapshot.get().entries;
+    List<Preprocessor> result = new ArrayList<>(entries.size());
+    for (PreprocessorIndex.Entry<Preprocessor> entry : entries) {
+      result.add(entry.preprocessor);
+    }
+    return result;
+  }
+
+  /**
+   * @return number of changes made to registry
+   */
+  public long getVersion() {
+    return snapshot.get().version;
+  }
+
+  Snapshot snapshot() {
+    return snapshot.get();
+  }
+
+  /**
+   * Immutable state of registry
+   */
+  static final class Snapshot {
+    final long version;
+    //resolved by generated dispatch table
+    final PreprocessorIndex<Preprocessor> index;
+    private final List<PreprocessorIndex.Entry<Preprocessor>> entries;
+    //explicit types by positions of entries, null for resolved ones
+    private final List<Type> types;
+    //indexes for explicit tables of adapters, built once per table
+    private final ConcurrentMap<DispatchTable, PreprocessorIndex<Preprocessor>> indexes = new ConcurrentHashMap<>();
+
+    private Snapshot(long version, List<PreprocessorIndex.Entry<Preprocessor>> entries, List<Type> types) {
+      this.version = version;
+      this.entries = entries;
+      this.types = types;
+      this.index = new PreprocessorIndex<>(entries);
+    }
+
+    /**
+     * @param table explicit dispatch table of adapter, null if adapter uses generated one
+     * @return index which matches preprocessors by specified table
+     */
+    PreprocessorIndex<Preprocessor> index(DispatchTable table) {
+      if (table == null)
+        return index;
+      PreprocessorIndex<Preprocessor> result = indexes.get(table);
+      if (result == null) {
+        result = resolve(table);
+        PreprocessorIndex<Preprocessor> previous = indexes.putIfAbsent(table, result);
+        if (previous != null)
+          result = previous;
+      }
+      return result;
+    }
+
+    /**
+     * Takes types and owners from table, preprocessors that are not in table keep types resolved by registry
+     * and are compared by types
+     */
+    private PreprocessorIndex<Preprocessor> resolve(DispatchTable table) {
+      List<PreprocessorIndex.Entry<Preprocessor>> resolved = new ArrayList<>(entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        PreprocessorIndex.Entry<Preprocessor> entry = entries.get(i);
+        DispatchTable owner = types.get(i) == null ? DispatchTables.ownerOf(table, entry.preprocessor.getClass()) : null;
+        resolved.add(owner == null ? new PreprocessorIndex.Entry<>(entry.preprocessor, entry.type, entry.order) :
+            new PreprocessorIndex.Entry<>(entry.preprocessor, owner.getPreprocessedType(entry.preprocessor.getClass()), entry.order, owner));
+      }
+      return new PreprocessorIndex<>(resolved);
+    }
+
+    private int indexOf(Preprocessor preprocessor) {
+      for (int i = 0; i < entries.size(); i++) {
+        if (entries.get(i).preprocessor == preprocessor)
+          return i;
+      }
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,12 @@
+package codes.titanium.premapper;
+
+/**
+ * Preprocessor of any kind with explicit priority, e.g. cheap validation that should run before expensive preprocessors.
+ * Matched preprocessors of endpoint are ordered once when endpoint is resolved: higher priority goes first,
+ * preprocessors with same priority keep order of registration. Preprocessors without priority have priority 0.
+ */
+public interface Prioritized {
+
+  int getPriority();
+
+}
@@ -0,0 +1,97 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+
+/**
+ * Body preprocessor for pure but expensive transformation, its results are memoized in bounded cache.
+ * By default result is memoized by SHA-256 of response bytes, so it is applied to whole converted body only,
+ * and only if no other preprocessor of response, including preprocessors of its elements, runs before it.
+ * Override {@link #keyOf(Object)} to memoize by key of entity, e.g. elements of lists.
+ * Memoized results are shared by responses, so they should be immutable, otherwise override {@link #copy(Object)}.
+ * Result that is input entity itself is not memoized, as that entity belongs to single response.
+ * <p>
+ * Should be extended with concrete type, e.g. {@code new PurePreprocessor<Cookie>(1000) {...}},
+ * and added with {@link PreprocessAdapter.Builder#addBodyPreprocessor(BodyPreprocessor)}.
+ */
+public abstract class PurePreprocessor<T> implements BodyPreprocessor<T>, Typed {
+
+  private final Type preprocessedType;
+  private final LruCache<Object, T> cache;
+  private final boolean byContent;
+
+  /**
+   * @param maxEntries max number of memoized results, least recently used are evicted first
+   */
+  protected PurePreprocessor(int maxEntries) {
+    this.preprocessedType = ReflectionUtils.getSupertypeArgument(getClass(), PurePreprocessor.class);
+    this.cache = new LruCache<>(maxEntries);
+    this.byContent = !overridesKeyOf(getClass());
+  }
+
+  /**
+   * Transformation that depends only on entity, called only when there is no memoized result
+   */
+  protected abstract T compute(T body);
+
+  /**
+   * @return key of entity with equals and hash code, null to compute result without memoization
+   */
+  protected Object keyOf(T body) {
+    return ContentFingerprint.of(body);
+  }
+
+  /**
+   * Called for every memoized result before it is passed further, including the one that was just computed.
+   * Override to return copy if results are modified by next preprocessors, adapters or subscribers
+   */
+  protected T copy(T memoized) {
+    return memoized;
+  }
+
+  @Override
+  public final T preprocess(T body) {
+    Object key = keyOf(body);
+    if (key == null)
+      return compute(body);
+    T result = cache.get(key);
+    if (result == null) {
+      result = compute(body);
+      if (result == null || result == body)
+        return result;
+      cache.put(key, result);
+    }
+    return copy(result);
+  }
+
+  @Override
+  public final Type getPreprocessedType() {
+    return preprocessedType;
+  }
+
+  /**
+   * @return hits, misses and evictions of memoized results, entities without key are not counted
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * @return true if preprocessor is memoized by fingerprint of response, so response bytes have to be hashed
+   */
+  boolean isByContent() {
+    return byContent;
+  }
+
+  private static boolean overridesKeyOf(Class<?> type) {
+    for (Class<?> current = type; current != PurePreprocessor.class; current = current.getSuperclass()) {
+      try {
+        //erased override or its bridge method
+        current.getDeclaredMethod("keyOf", Object.class);
+        return true;
+      } catch (NoSuchMethodException ignored) {
+      }
+    }
+    return false;
+  }
+
+}
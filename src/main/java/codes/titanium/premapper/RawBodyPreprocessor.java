@@ -0,0 +1,23 @@
+package codes.titanium.premapper;
+
+import okhttp3.MediaType;
+import okio.BufferedSource;
+
+import java.io.IOException;
+
+/**
+ * Inspects bytes of response before it is converted, e.g. to verify checksum or signature.
+ * Applied to responses that are converted to type of preprocessor, e.g. {@code RawBodyPreprocessor<Cookie>} for {@code Observable<Cookie>}.
+ *
+ * @param <T> type of converted response
+ */
+public interface RawBodyPreprocessor<T> {
+
+  /**
+   * @param source      whole body of response, it shares memory with response and reading it does not consume response for converter
+   * @param contentType content type of response, null if it is unknown
+   * @throws IOException to fail call, e.g. when checksum does not match
+   */
+  void preprocess(BufferedSource source, MediaType contentType) throws IOException;
+
+}
@@ -1,10 +1,25 @@
 package codes.titanium.premapper;
 
+import retrofit2.http.DELETE;
+import retrofit2.http.GET;
+import retrofit2.http.HEAD;
+import retrofit2.http.HTTP;
+import retrofit2.http.OPTIONS;
+import retrofit2.http.PATCH;
+import retrofit2.http.POST;
+import retrofit2.http.PUT;
+
 import java.lang.annotation.Annotation;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 
 class ReflectionUtils {
 
@@ -13,7 +28,7 @@ class ReflectionUtils {
    */
   static Method getFirstNonSyntheticMethodForName(Object instance, String name) {
     if (instance.getClass().isSynthetic())
-      throw new IllegalStateException("Do not use preprocessors as lambdas because of type erasure");
+      throw new IllegalStateException("Type of lambda preprocessor is erased, add it with explicit type");
     for (Method method : instance.getClass().getMethods()) {
       if (method.getName().equals(name) && !method.isBridge() && !method.isSynthetic())
         return method;
@@ -21,6 +36,146 @@ class ReflectionUtils {
     throw new NullPointerException("Not found non synthetic method for name " + name);
   }
 
+  /**
+   * Gets type that is preprocessed by specified preprocessor, e.g. Observable<String> for Preprocessor<Observable<String>>
+   */
+  static Type getPreprocessedType(Object preprocessor) {
+    if (preprocessor instanceof Typed)
+      return ((Typed) preprocessor).getPreprocessedType();
+    //raw body preprocessors return nothing, so their type is taken from declaration
+    if (preprocessor instanceof RawBodyPreprocessor)
+      return getSupertypeArgument(preprocessor.getClass(), RawBodyPreprocessor.class);
+    //async preprocessors return stage and filters return boolean, so their type is taken from declaration too
+    if (preprocessor instanceof AsyncPreprocessor)
+      return getSupertypeArgument(preprocessor.getClass(), AsyncPreprocessor.class);
+    if (preprocessor instanceof BodyFilter)
+      return getSupertypeArgument(preprocessor.getClass(), BodyFilter.class);
+    return getFirstNonSyntheticMethodForName(preprocessor, "preprocess").getGenericReturnType();
+  }
+
+  /**
+   * Checks that explicitly specified preprocessed type can be matched, top level wildcard like {@code ? extends Cookie}
+   * matches its bound and all its subtypes
+   */
+  static Type checkPreprocessedType(Type type) {
+    if (type == null)
+      throw new NullPointerException("Preprocessed type should not be null");
+    Type bound = type;
+    if (type instanceof WildcardType && ((WildcardType) type).getLowerBounds().length == 0)
+      bound = ((WildcardType) type).getUpperBounds()[0];
+    if (getRawType(bound) == null)
+      throw new IllegalArgumentException("Preprocessed type should be class, parametrized type or wildcard with upper bound, but was " + type);
+    return type;
+  }
+
+  /**
+   * Loads dispatch tables generated by annotation processor in every module, they are registered as services
+   *
+   * @return generated tables, null if annotation processor was not used
+   */
+  static DispatchTable loadGeneratedDispatchTable() {
+    List<DispatchTable> tables = new ArrayList<>();
+    try {
+      for (DispatchTable table : ServiceLoader.load(DispatchTable.class, DispatchTable.class.getClassLoader())) {
+        tables.add(table);
+      }
+    } catch (ServiceConfigurationError e) {
+      throw new IllegalStateException("Can't instantiate generated dispatch table", e);
+    }
+    return DispatchTables.of(tables);
+  }
+
+  /**
+   * Gets first type argument of generic superclass or interface, e.g. String for class that extends Supertype<String>
+   *
+   * @param type      class that extends or implements target
+   * @param supertype generic superclass or interface with single type argument
+   */
+  static Type getSupertypeArgument(Class<?> type, Class<?> supertype) {
+    Type result = findSupertypeArgument(type, supertype);
+    if (!(result instanceof Class || result instanceof ParameterizedType))
+      throw new IllegalStateException("Type argument of " + supertype.getSimpleName() + " can't be resolved for " + type.getName() +
+          ", it should be declared with concrete type");
+    return result;
+  }
+
+  private static Type findSupertypeArgument(Class<?> type, Class<?> supertype) {
+    for (Type genericInterface : type.getGenericInterfaces()) {
+      Type result = findSupertypeArgument(genericInterface, supertype);
+      if (result != null)
+        return result;
+    }
+    return type.getGenericSuperclass() == null ? null : findSupertypeArgument(type.getGenericSuperclass(), supertype);
+  }
+
+  private static Type findSupertypeArgument(Type type, Class<?> supertype) {
+    if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == supertype)
+      return ((ParameterizedType) type).getActualTypeArguments()[0];
+    Class<?> rawType = getRawType(type);
+    return rawType == null || rawType == supertype ? null : findSupertypeArgument(rawType, supertype);
+  }
+
+  /**
+   * Gets raw class of class or parametrized type, null for all other types
+   */
+  static Class<?> getRawType(Type type) {
+    if (type instanceof Class)
+      return (Class<?>) type;
+    if (type instanceof ParameterizedType)
+      return (Class<?>) ((ParameterizedType) type).getRawType();
+    return null;
+  }
+
+  /**
+   * Gets type of elements for collections and arrays, e.g. String for List<String> or String[], null for all other types
+   */
+  static Type getElementType(Type type) {
+    if (type instanceof Class)
+      return ((Class<?>) type).getComponentType();
+    if (type instanceof GenericArrayType)
+      return ((GenericArrayType) type).getGenericComponentType();
+    if (type instanceof ParameterizedType) {
+      ParameterizedType parameterizedType = (ParameterizedType) type;
+      if (Collection.class.isAssignableFrom((Class<?>) parameterizedType.getRawType()) && parameterizedType.getActualTypeArguments().length == 1)
+        return parameterizedType.getActualTypeArguments()[0];
+    }
+    return null;
+  }
+
+  /**
+   * Describes endpoint by its http annotation, e.g. "GET /cookies"
+   */
+  static String describeEndpoint(Annotation[] annotations, Type returnType) {
+    for (Annotation annotation : annotations) {
+      if (annotation instanceof GET)
+        return "GET " + ((GET) annotation).value();
+      if (annotation instanceof POST)
+        return "POST " + ((POST) annotation).value();
+      if (annotation instanceof PUT)
+        return "PUT " + ((PUT) annotation).value();
+      if (annotation instanceof DELETE)
+        return "DELETE " + ((DELETE) annotation).value();
+      if (annotation instanceof PATCH)
+        return "PATCH " + ((PATCH) annotation).value();
+      if (annotation instanceof HEAD)
+        return "HEAD " + ((HEAD) annotation).value();
+      if (annotation instanceof OPTIONS)
+        return "OPTIONS " + ((OPTIONS) annotation).value();
+      if (annotation instanceof HTTP)
+        return ((HTTP) annotation).method() + " " + ((HTTP) annotation).path();
+    }
+    return returnType.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  static <A extends Annotation> A findAnnotation(Annotation[] annotations, Class<A> targetAnnotation) {
+    for (Annotation annotation : annotations) {
+      if (annotation.annotationType().equals(targetAnnotation))
+        return (A) annotation;
+    }
+    return null;
+  }
+
   static boolean containsAnnotation(Annotation[] annotations, Class targetAnnotation) {
     for (Annotation annotation : annotations) {
       if (annotation.annotationType().equals(targetAnnotation))
@@ -44,15 +199,16 @@ class ReflectionUtils {
       //from == Observable<String>
       if (fromType instanceof ParameterizedType) {
         ParameterizedType from = (ParameterizedType) fromType;
-        return from.getRawType().equals(to.getRawType()) &&
-            from.getActualTypeArguments().length == to.getActualTypeArguments().length &&
-            all(from.getActualTypeArguments().length, i -> isAssignableFromTo(from.getActualTypeArguments()[i], to.getActualTypeArguments()[i]));
-        // from == Observable
+        return from.getRawType().equals(to.getRawType()) && allAssignable(from.getActualTypeArguments(), to.getActualTypeArguments());
       }
-      return to.getRawType().equals(fromType) &&
-          all(to.getActualTypeArguments().length,
-              i -> isAssignableFromTo(Object.class, to.getActualTypeArguments()[i]));
-
+      // from == Observable
+      if (!to.getRawType().equals(fromType))
+        return false;
+      for (Type toArgument : to.getActualTypeArguments()) {
+        if (!isAssignableFromTo(Object.class, toArgument))
+          return false;
+      }
+      return true;
     }
     if (toType instanceof WildcardType) {
       WildcardType to = (WildcardType) toType;
@@ -72,11 +228,8 @@ class ReflectionUtils {
           return parametrizedToRawType.isAssignableFrom((Class<?>) fromType);
         //from == HashSet<Number>
         ParameterizedType from = (ParameterizedType) fromType;
-        Class<?> parametrizedFromRawType = (Class<?>) from.getRawType();
-        return toParametrized.getActualTypeArguments().length == from.getActualTypeArguments().length &&
-            parametrizedToRawType.isAssignableFrom(parametrizedFromRawType) &&
-            all(from.getActualTypeArguments().length,
-                i -> isAssignableFromTo(from.getActualTypeArguments()[i], toParametrized.getActualTypeArguments()[i]));
+        return parametrizedToRawType.isAssignableFrom((Class<?>) from.getRawType()) &&
+            allAssignable(from.getActualTypeArguments(), toParametrized.getActualTypeArguments());
       }
     }
     //never reached
@@ -84,22 +237,17 @@ class ReflectionUtils {
   }
 
   /**
-   * Helper method for iteration and checking indexes until length
-   * As this library can be used in android, functional interfaces and stream api is not used
+   * Checks type arguments pairwise, arrays are iterated directly as this library can be used in android,
+   * where functional interfaces and stream api are not used
    */
-  private static boolean all(int length, Predicate<Integer> predicate) {
-    for (int i = 0; i < length; i++) {
-      if (!predicate.test(i))
+  private static boolean allAssignable(Type[] fromArguments, Type[] toArguments) {
+    if (fromArguments.length != toArguments.length)
+      return false;
+    for (int i = 0; i < fromArguments.length; i++) {
+      if (!isAssignableFromTo(fromArguments[i], toArguments[i]))
         return false;
     }
     return true;
   }
 
-  /**
-   * As this library can be used in android, functional interfaces and stream api is not used
-   */
-  private interface Predicate<T> {
-    boolean test(T t);
-  }
-
 }
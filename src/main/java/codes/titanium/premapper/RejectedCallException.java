@@ -0,0 +1,16 @@
+package codes.titanium.premapper;
+
+import java.io.IOException;
+
+/**
+ * Call was rejected by {@link Bulkhead} without sending request
+ */
+public class RejectedCallException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public RejectedCallException(String message) {
+    super(message);
+  }
+
+}
@@ -0,0 +1,164 @@
+package codes.titanium.premapper;
+
+import okhttp3.Request;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches successful responses of single endpoint annotated with {@link Cached}.
+ * Responses are stored after conversion, so their bodies are already preprocessed by {@link BodyPreprocessor}.
+ * Cache is looked up when call is decorated, so adapter knows about hit before it applies {@link Preprocessor} of adapted type
+ * and skips them, cached body is shared and they should not run on it again. Clones of call return the same response.
+ */
+class ResponseCache implements CallDecorator {
+
+  private static final LruCache.Weigher<Entry> BY_LENGTH = new LruCache.Weigher<Entry>() {
+    @Override
+    public long weigh(Entry entry) {
+      return entry.bytes;
+    }
+  };
+
+  private final LruCache<String, Entry> cache;
+  private final long ttlNanos;
+  private final long maxBytes;
+
+  ResponseCache(Cached cached) {
+    if (cached.ttl() <= 0)
+      throw new IllegalArgumentException("Ttl of cached endpoint should be positive");
+    if (cached.maxBytes() < 0)
+      throw new IllegalArgumentException("Max bytes of cached endpoint should not be negative");
+    this.maxBytes = cached.maxBytes() == 0 ? Long.MAX_VALUE : cached.maxBytes();
+    this.cache = new LruCache<>(cached.maxEntries(), maxBytes, BY_LENGTH);
+    this.ttlNanos = cached.unit().toNanos(cached.ttl());
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <R> Call<R> decorate(Call<R> call) {
+    return new CachingCall<>(call, this, (Response<R>) lookup(CallDecorators.keyOf(call.request())));
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * @return cached response that is not expired yet, null otherwise, expired response is counted as miss
+   */
+  private Response<?> lookup(String key) {
+    Entry entry = cache.peek(key);
+    if (entry != null && System.nanoTime() - entry.storedAt >= ttlNanos) {
+      cache.remove(key, entry);
+      entry = null;
+    }
+    cache.record(entry != null);
+    return entry == null ? null : entry.response;
+  }
+
+  private void store(String key, Response<?> response) {
+    if (!response.isSuccessful())
+      return;
+    //converted response keeps content length of its raw body
+    long bytes = response.raw().body() == null ? 0 : Math.max(response.raw().body().contentLength(), 0);
+    if (bytes <= maxBytes)
+      cache.put(key, new Entry(response, System.nanoTime(), bytes));
+  }
+
+  private static class Entry {
+    private final Response<?> response;
+    private final long storedAt;
+    private final long bytes;
+
+    private Entry(Response<?> response, long storedAt, long bytes) {
+      this.response = response;
+      this.storedAt = storedAt;
+      this.bytes = bytes;
+    }
+  }
+
+  private static class CachingCall<R> implements Call<R>, CallDecorators.SharedCall {
+
+    private final Call<R> delegate;
+    private final ResponseCache cache;
+    //cached response found when call was decorated, null if request is sent
+    private final Response<R> hit;
+    private final AtomicBoolean executed = new AtomicBoolean();
+
+    private CachingCall(Call<R> delegate, ResponseCache cache, Response<R> hit) {
+      this.delegate = delegate;
+      this.cache = cache;
+      this.hit = hit;
+    }
+
+    @Override
+    public Response<R> execute() throws IOException {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      if (hit != null)
+        return hit;
+      Response<R> response = delegate.execute();
+      cache.store(CallDecorators.keyOf(delegate.request()), response);
+      return response;
+    }
+
+    @Override
+    public void enqueue(final Callback<R> callback) {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      if (hit != null) {
+        callback.onResponse(this, hit);
+        return;
+      }
+      final String key = CallDecorators.keyOf(delegate.request());
+      delegate.enqueue(new Callback<R>() {
+        @Override
+        public void onResponse(Call<R> call, Response<R> response) {
+          cache.store(key, response);
+          callback.onResponse(CachingCall.this, response);
+        }
+
+        @Override
+        public void onFailure(Call<R> call, Throwable t) {
+          callback.onFailure(CachingCall.this, t);
+        }
+      });
+    }
+
+    @Override
+    public boolean isShared() {
+      return hit != null || CallDecorators.isShared(delegate);
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    @Override
+    public void cancel() {
+      delegate.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return delegate.isCanceled();
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<R> clone() {
+      return new CachingCall<>(delegate.clone(), cache, hit);
+    }
+
+    @Override
+    public Request request() {
+      return delegate.request();
+    }
+  }
+
+}
@@ -0,0 +1,28 @@
+package codes.titanium.premapper;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last successful response of annotated endpoint with ETag or Last-Modified header is kept already preprocessed, by url and headers of request.
+ * Next requests are sent with conditional headers by {@link PreprocessAdapter#revalidationInterceptor()},
+ * not modified response is replaced with kept one without conversion and body preprocessing.
+ * Endpoints with preprocessors of adapted type keep bytes of response instead and convert them again on not modified response.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Revalidate {
+
+  /**
+   * Max number of kept responses for endpoint, least recently used are evicted first
+   */
+  int maxEntries() default 100;
+
+  /**
+   * Max age of kept response, older responses are requested again unconditionally. 0 means that age is not limited
+   */
+  long maxAge() default 0;
+
+  TimeUnit unit() default TimeUnit.SECONDS;
+
+}
@@ -0,0 +1,264 @@
+package codes.titanium.premapper;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Converter;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps last response of every request of single endpoint annotated with {@link Revalidate} together with its validators.
+ * Kept entry is pinned when call starts and is found by {@link PreprocessAdapter#revalidationInterceptor()} by request of call,
+ * not modified response is replaced with entry which validators were sent, even if it was evicted meanwhile.
+ * Endpoints without preprocessors of adapted type keep preprocessed body, it is returned without conversion and preprocessing.
+ * Endpoints with them keep bytes of response instead, they are converted again on every not modified response,
+ * so preprocessors of adapted type never run twice on the same body.
+ */
+class Revalidator implements CallDecorator {
+
+  static final int NOT_MODIFIED = 304;
+
+  private final LruCache<String, Entry> cache;
+  //0 if age is not limited
+  private final long maxAgeNanos;
+  //calls in flight by their requests, shared by all revalidators of adapter
+  private final ConcurrentMap<Request, Exchange> exchanges;
+  //converter of kept bytes, null if kept bodies are returned as is
+  private final Converter<ResponseBody, ?> converter;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  Revalidator(Revalidate revalidate, ConcurrentMap<Request, Exchange> exchanges, Converter<ResponseBody, ?> converter) {
+    if (revalidate.maxAge() < 0)
+      throw new IllegalArgumentException("Max age of revalidated endpoint should not be negative");
+    this.cache = new LruCache<>(revalidate.maxEntries());
+    this.maxAgeNanos = revalidate.unit().toNanos(revalidate.maxAge());
+    this.exchanges = exchanges;
+    this.converter = converter;
+  }
+
+  @Override
+  public <R> Call<R> decorate(Call<R> call) {
+    return new RevalidatingCall<>(call, this);
+  }
+
+  /**
+   * @return hits are not modified responses replaced with kept ones, misses are successful responses with body
+   */
+  CacheStats stats() {
+    CacheStats stats = cache.stats();
+    return new CacheStats(hits.get(), misses.get(), stats.getEvictions(), stats.getSize());
+  }
+
+  /**
+   * Pins fresh kept entry of request and registers call for interceptor
+   *
+   * @return null if interceptor has nothing to do with request
+   */
+  private Exchange begin(Request request, String key) {
+    Entry entry = cache.peek(key);
+    if (entry != null && maxAgeNanos != 0 && System.nanoTime() - entry.storedAt >= maxAgeNanos)
+      entry = null;
+    if (entry == null && converter == null)
+      return null;
+    Exchange exchange = new Exchange(entry, converter != null);
+    exchanges.put(request, exchange);
+    return exchange;
+  }
+
+  private void end(Request request, Exchange exchange) {
+    if (exchange != null)
+      exchanges.remove(request, exchange);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <R> Response<R> handle(String key, Exchange exchange, Response<R> response) throws IOException {
+    if (response.code() == NOT_MODIFIED) {
+      //coalesced calls share response, so validated entry is taken from its request instead of exchange of call
+      Object validated = response.raw().request().tag();
+      if (!(validated instanceof Entry))
+        return response;
+      Entry entry = (Entry) validated;
+      hits.incrementAndGet();
+      Object body = converter == null ? entry.body : converter.convert(ResponseBody.create(entry.contentType, entry.bytes));
+      //new response keeps headers of not modified one, but it is successful for call adapter
+      return Response.success((R) body, response.raw().newBuilder().code(200).message("OK").build());
+    }
+    if (!response.isSuccessful())
+      return response;
+    misses.incrementAndGet();
+    String etag = response.headers().get("ETag");
+    String lastModified = response.headers().get("Last-Modified");
+    if (etag == null && lastModified == null)
+      return response;
+    if (converter == null)
+      cache.put(key, new Entry(response.body(), null, null, etag, lastModified, System.nanoTime()));
+    else if (exchange != null && exchange.bytes != null)
+      cache.put(key, new Entry(null, exchange.bytes, exchange.contentType, etag, lastModified, System.nanoTime()));
+    return response;
+  }
+
+  private static boolean hasValidators(okhttp3.Response response) {
+    return response.header("ETag") != null || response.header("Last-Modified") != null;
+  }
+
+  static class Entry {
+    //preprocessed body, null if bytes are kept
+    private final Object body;
+    private final byte[] bytes;
+    private final MediaType contentType;
+    private final String etag;
+    private final String lastModified;
+    private final long storedAt;
+
+    private Entry(Object body, byte[] bytes, MediaType contentType, String etag, String lastModified, long storedAt) {
+      this.body = body;
+      this.bytes = bytes;
+      this.contentType = contentType;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.storedAt = storedAt;
+    }
+  }
+
+  /**
+   * Request of call in flight, its pinned entry and bytes of its response
+   */
+  static class Exchange {
+    //entry which validators are sent, null if request is sent unconditionally
+    private final Entry pinned;
+    private final boolean keepsBytes;
+    private volatile byte[] bytes;
+    private volatile MediaType contentType;
+
+    private Exchange(Entry pinned, boolean keepsBytes) {
+      this.pinned = pinned;
+      this.keepsBytes = keepsBytes;
+    }
+
+    /**
+     * Sends request with validators of pinned entry, request of not modified response is tagged with that entry
+     */
+    okhttp3.Response proceed(Interceptor.Chain chain) throws IOException {
+      Request request = chain.request();
+      if (pinned == null || request.header("If-None-Match") != null || request.header("If-Modified-Since") != null)
+        return keep(chain.proceed(request));
+      Request.Builder conditional = request.newBuilder().tag(pinned);
+      if (pinned.etag != null)
+        conditional.header("If-None-Match", pinned.etag);
+      if (pinned.lastModified != null)
+        conditional.header("If-Modified-Since", pinned.lastModified);
+      Request sent = conditional.build();
+      okhttp3.Response response = chain.proceed(sent);
+      if (response.code() == NOT_MODIFIED)
+        return response.newBuilder().request(sent).build();
+      return keep(response);
+    }
+
+    private okhttp3.Response keep(okhttp3.Response response) throws IOException {
+      if (keepsBytes && response.isSuccessful() && hasValidators(response)) {
+        ResponseBody copy = response.peekBody(Long.MAX_VALUE);
+        contentType = copy.contentType();
+        bytes = copy.bytes();
+      }
+      return response;
+    }
+  }
+
+  private static class RevalidatingCall<R> implements Call<R> {
+
+    private final Call<R> delegate;
+    private final Revalidator revalidator;
+    private final AtomicBoolean executed = new AtomicBoolean();
+
+    private RevalidatingCall(Call<R> delegate, Revalidator revalidator) {
+      this.delegate = delegate;
+      this.revalidator = revalidator;
+    }
+
+    @Override
+    public Response<R> execute() throws IOException {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      Request request = delegate.request();
+      String key = CallDecorators.keyOf(request);
+      Exchange exchange = revalidator.begin(request, key);
+      Response<R> response;
+      try {
+        response = delegate.execute();
+      } finally {
+        revalidator.end(request, exchange);
+      }
+      return revalidator.handle(key, exchange, response);
+    }
+
+    @Override
+    public void enqueue(final Callback<R> callback) {
+      if (!executed.compareAndSet(false, true))
+        throw new IllegalStateException("Already executed.");
+      final Request request = delegate.request();
+      final String key = CallDecorators.keyOf(request);
+      final Exchange exchange = revalidator.begin(request, key);
+      try {
+        delegate.enqueue(new Callback<R>() {
+          @Override
+          public void onResponse(Call<R> call, Response<R> response) {
+            revalidator.end(request, exchange);
+            Response<R> result;
+            try {
+              result = revalidator.handle(key, exchange, response);
+            } catch (IOException | RuntimeException e) {
+              callback.onFailure(RevalidatingCall.this, e);
+              return;
+            }
+            callback.onResponse(RevalidatingCall.this, result);
+          }
+
+          @Override
+          public void onFailure(Call<R> call, Throwable t) {
+            revalidator.end(request, exchange);
+            callback.onFailure(RevalidatingCall.this, t);
+          }
+        });
+      } catch (RuntimeException | Error e) {
+        revalidator.end(request, exchange);
+        throw e;
+      }
+    }
+
+    @Override
+    public boolean isExecuted() {
+      return executed.get();
+    }
+
+    @Override
+    public void cancel() {
+      delegate.cancel();
+    }
+
+    @Override
+    public boolean isCanceled() {
+      return delegate.isCanceled();
+    }
+
+    @Override
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    public Call<R> clone() {
+      return new RevalidatingCall<>(delegate.clone(), revalidator);
+    }
+
+    @Override
+    public Request request() {
+      return delegate.request();
+    }
+  }
+
+}
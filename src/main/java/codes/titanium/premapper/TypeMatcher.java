@@ -0,0 +1,196 @@
+package codes.titanium.premapper;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memoized {@link ReflectionUtils#isAssignableFromTo}, shared by all adapters, so adapters of several retrofit instances
+ * with same services and preprocessors compare every pair of types only once.
+ * Keys are structural, so equal types from different {@link Type} implementations share one entry,
+ * and reference classes weakly, so cache does not keep class loaders alive.
+ */
+final class TypeMatcher {
+
+  static final int DEFAULT_MAX_ENTRIES = 4096;
+
+  /**
+   * Max number of cached pairs, override it with -Dcodes.titanium.premapper.typeMatcherEntries when endpoints of all retrofits
+   * and their candidate preprocessors give more pairs, e.g. when {@link PreprocessAdapter#typeMatchStats()} reports evictions
+   */
+  static final int MAX_ENTRIES = maxEntries(System.getProperty("codes.titanium.premapper.typeMatcherEntries"));
+
+  private static final LruCache<MatchKey, Boolean> CACHE = new LruCache<>(MAX_ENTRIES);
+
+  private TypeMatcher() {
+  }
+
+  /**
+   * Same as {@link ReflectionUtils#isAssignableFromTo}, result is taken from cache when pair was already compared
+   */
+  static boolean isAssignableFromTo(Type fromType, Type toType) {
+    return isAssignableFromTo(fromType, TypeKey.of(fromType), toType, TypeKey.of(toType));
+  }
+
+  /**
+   * @param fromKey key of from type, so it is described once for many comparisons, null if type can't be cached
+   * @param toKey   key of to type, null if type can't be cached
+   */
+  static boolean isAssignableFromTo(Type fromType, TypeKey fromKey, Type toType, TypeKey toKey) {
+    if (fromKey == null || toKey == null)
+      return ReflectionUtils.isAssignableFromTo(fromType, toType);
+    MatchKey key = new MatchKey(fromKey, toKey);
+    Boolean result = CACHE.get(key);
+    if (result == null) {
+      result = ReflectionUtils.isAssignableFromTo(fromType, toType);
+      CACHE.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return counters of cache, evictions mean that max entries is smaller than number of compared pairs
+   */
+  static CacheStats stats() {
+    return CACHE.stats();
+  }
+
+  /**
+   * @param property value of system property, null if it is not set
+   */
+  static int maxEntries(String property) {
+    if (property == null)
+      return DEFAULT_MAX_ENTRIES;
+    int result;
+    try {
+      result = Integer.parseInt(property.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Max entries of type matcher should be number, but was " + property, e);
+    }
+    if (result < 1)
+      throw new IllegalArgumentException("Max entries of type matcher should be positive, but was " + result);
+    return result;
+  }
+
+  /**
+   * Type as shape with placeholders for classes, e.g. "C<C,+C>", and weakly referenced classes in order of placeholders.
+   * Key with collected class is not equal to any other key, so entries with it are never hit and are evicted by lru.
+   */
+  static final class TypeKey {
+    private final String shape;
+    private final WeakReference<Class<?>>[] classes;
+    private final int hash;
+
+    @SuppressWarnings("unchecked")
+    private TypeKey(String shape, List<Class<?>> classes) {
+      this.shape = shape;
+      this.classes = new WeakReference[classes.size()];
+      int hash = shape.hashCode();
+      for (int i = 0; i < classes.size(); i++) {
+        this.classes[i] = new WeakReference<Class<?>>(classes.get(i));
+        hash = hash * 31 + classes.get(i).hashCode();
+      }
+      this.hash = hash;
+    }
+
+    /**
+     * @return key of type, null if type contains type variables, which are never cached
+     */
+    static TypeKey of(Type type) {
+      StringBuilder shape = new StringBuilder();
+      List<Class<?>> classes = new ArrayList<>();
+      return describe(type, shape, classes) ? new TypeKey(shape.toString(), classes) : null;
+    }
+
+    private static boolean describe(Type type, StringBuilder shape, List<Class<?>> classes) {
+      if (type instanceof Class) {
+        shape.append('C');
+        classes.add((Class<?>) type);
+        return true;
+      }
+      if (type instanceof ParameterizedType) {
+        ParameterizedType parameterized = (ParameterizedType) type;
+        //class owner is always declaring class of raw type, only parametrized owner makes difference
+        if (parameterized.getOwnerType() instanceof ParameterizedType) {
+          shape.append('O');
+          if (!describe(parameterized.getOwnerType(), shape, classes))
+            return false;
+        }
+        if (!describe(parameterized.getRawType(), shape, classes))
+          return false;
+        shape.append('<');
+        Type[] arguments = parameterized.getActualTypeArguments();
+        for (int i = 0; i < arguments.length; i++) {
+          if (i > 0)
+            shape.append(',');
+          if (!describe(arguments[i], shape, classes))
+            return false;
+        }
+        shape.append('>');
+        return true;
+      }
+      if (type instanceof WildcardType) {
+        WildcardType wildcard = (WildcardType) type;
+        if (wildcard.getLowerBounds().length > 0) {
+          shape.append('-');
+          return describe(wildcard.getLowerBounds()[0], shape, classes);
+        }
+        shape.append('+');
+        return describe(wildcard.getUpperBounds()[0], shape, classes);
+      }
+      if (type instanceof GenericArrayType) {
+        shape.append('[');
+        return describe(((GenericArrayType) type).getGenericComponentType(), shape, classes);
+      }
+      return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof TypeKey)) return false;
+      TypeKey that = (TypeKey) o;
+      if (hash != that.hash || !shape.equals(that.shape))
+        return false;
+      for (int i = 0; i < classes.length; i++) {
+        Class<?> type = classes[i].get();
+        if (type == null || type != that.classes[i].get())
+          return false;
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class MatchKey {
+    private final TypeKey from;
+    private final TypeKey to;
+
+    private MatchKey(TypeKey from, TypeKey to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof MatchKey)) return false;
+      MatchKey that = (MatchKey) o;
+      return from.equals(that.from) && to.equals(that.to);
+    }
+
+    @Override
+    public int hashCode() {
+      return from.hashCode() * 31 + to.hashCode();
+    }
+  }
+
+}
@@ -0,0 +1,21 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+
+/**
+ * Captures generic type, e.g. {@code new TypeToken<Observable<Cookie>>() {}}.
+ * Used to register preprocessors that are lambdas or method references, as their types are erased.
+ */
+public abstract class TypeToken<T> {
+
+  private final Type type;
+
+  protected TypeToken() {
+    this.type = ReflectionUtils.getSupertypeArgument(getClass(), TypeToken.class);
+  }
+
+  public final Type getType() {
+    return type;
+  }
+
+}
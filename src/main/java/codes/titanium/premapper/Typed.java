@@ -0,0 +1,12 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.Type;
+
+/**
+ * Preprocessor that knows its preprocessed type, so it is not resolved by reflection of preprocess method
+ */
+interface Typed {
+
+  Type getPreprocessedType();
+
+}
@@ -0,0 +1,189 @@
+package codes.titanium.premapper;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.Arrays;
+
+/**
+ * Factory of generic types.
+ * Created types are equal to types that are returned by java reflection and have same hash codes,
+ * so they can be used as keys together with reflection types.
+ */
+public final class Types {
+
+  private static final Type[] EMPTY = new Type[0];
+
+  private Types() {
+  }
+
+  /**
+   * Creates parametrized type, e.g. {@code parameterized(Observable.class, String.class)} for {@code Observable<String>}
+   */
+  public static ParameterizedType parameterized(Class<?> rawType, Type... typeArguments) {
+    if (rawType.getTypeParameters().length != typeArguments.length)
+      throw new IllegalArgumentException(rawType.getName() + " expects " + rawType.getTypeParameters().length + " type arguments");
+    for (Type typeArgument : typeArguments) {
+      if (typeArgument == null)
+        throw new NullPointerException("Type argument should not be null");
+      if (typeArgument instanceof Class && ((Class<?>) typeArgument).isPrimitive())
+        throw new IllegalArgumentException("Type argument should not be primitive");
+    }
+    return new ParameterizedTypeImpl(rawType, typeArguments.clone());
+  }
+
+  /**
+   * Creates wildcard with upper bound, e.g. {@code subtypeOf(Number.class)} for {@code ? extends Number}
+   */
+  public static WildcardType subtypeOf(Type bound) {
+    return new WildcardTypeImpl(new Type[]{bound}, EMPTY);
+  }
+
+  /**
+   * Creates wildcard with lower bound, e.g. {@code supertypeOf(Number.class)} for {@code ? super Number}
+   */
+  public static WildcardType supertypeOf(Type bound) {
+    return new WildcardTypeImpl(new Type[]{Object.class}, new Type[]{bound});
+  }
+
+  /**
+   * Creates array of generic type, e.g. {@code arrayOf(parameterized(List.class, String.class))} for {@code List<String>[]}
+   */
+  public static GenericArrayType arrayOf(Type componentType) {
+    return new GenericArrayTypeImpl(componentType);
+  }
+
+  private static final class ParameterizedTypeImpl implements ParameterizedType {
+    private final Class<?> rawType;
+    private final Type ownerType;
+    private final Type[] typeArguments;
+
+    private ParameterizedTypeImpl(Class<?> rawType, Type[] typeArguments) {
+      this.rawType = rawType;
+      this.ownerType = rawType.getDeclaringClass();
+      this.typeArguments = typeArguments;
+    }
+
+    @Override
+    public Type[] getActualTypeArguments() {
+      return typeArguments.clone();
+    }
+
+    @Override
+    public Type getRawType() {
+      return rawType;
+    }
+
+    @Override
+    public Type getOwnerType() {
+      return ownerType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ParameterizedType)) return false;
+      ParameterizedType that = (ParameterizedType) o;
+      return rawType.equals(that.getRawType()) &&
+          (ownerType == null ? that.getOwnerType() == null : ownerType.equals(that.getOwnerType())) &&
+          Arrays.equals(typeArguments, that.getActualTypeArguments());
+    }
+
+    /**
+     * Same as hash code of reflection implementation
+     */
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(typeArguments) ^ (ownerType == null ? 0 : ownerType.hashCode()) ^ rawType.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder(rawType.getName()).append('<');
+      for (int i = 0; i < typeArguments.length; i++) {
+        if (i > 0)
+          result.append(", ");
+        result.append(typeArguments[i].getTypeName());
+      }
+      return result.append('>').toString();
+    }
+  }
+
+  private static final class WildcardTypeImpl implements WildcardType {
+    private final Type[] upperBounds;
+    private final Type[] lowerBounds;
+
+    private WildcardTypeImpl(Type[] upperBounds, Type[] lowerBounds) {
+      this.upperBounds = upperBounds;
+      this.lowerBounds = lowerBounds;
+    }
+
+    @Override
+    public Type[] getUpperBounds() {
+      return upperBounds.clone();
+    }
+
+    @Override
+    public Type[] getLowerBounds() {
+      return lowerBounds.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof WildcardType)) return false;
+      WildcardType that = (WildcardType) o;
+      return Arrays.equals(upperBounds, that.getUpperBounds()) && Arrays.equals(lowerBounds, that.getLowerBounds());
+    }
+
+    /**
+     * Same as hash code of reflection implementation
+     */
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(lowerBounds) ^ Arrays.hashCode(upperBounds);
+    }
+
+    @Override
+    public String toString() {
+      if (lowerBounds.length > 0)
+        return "? super " + lowerBounds[0].getTypeName();
+      if (upperBounds[0] == Object.class)
+        return "?";
+      return "? extends " + upperBounds[0].getTypeName();
+    }
+  }
+
+  private static final class GenericArrayTypeImpl implements GenericArrayType {
+    private final Type componentType;
+
+    private GenericArrayTypeImpl(Type componentType) {
+      this.componentType = componentType;
+    }
+
+    @Override
+    public Type getGenericComponentType() {
+      return componentType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return this == o || o instanceof GenericArrayType && componentType.equals(((GenericArrayType) o).getGenericComponentType());
+    }
+
+    /**
+     * Same as hash code of reflection implementation
+     */
+    @Override
+    public int hashCode() {
+      return componentType.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return componentType.getTypeName() + "[]";
+    }
+  }
+
+}
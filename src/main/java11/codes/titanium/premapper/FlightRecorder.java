@@ -0,0 +1,131 @@
+package codes.titanium.premapper;
+
+import jdk.jfr.EventType;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java Flight Recorder integration for Java 11+, placed into META-INF/versions/11 of multi release jar.
+ * Events are emitted unless {@code -Dcodes.titanium.premapper.jfr=false} is set.
+ * Preprocessors are always wrapped, wrapper checks if {@link PreprocessEvent} is enabled on every call,
+ * so recording started later, e.g. by {@code jcmd JFR.start}, gets events of endpoints resolved before it.
+ */
+final class FlightRecorder {
+
+  private static final boolean ENABLED = !"false".equals(System.getProperty("codes.titanium.premapper.jfr"));
+  private static final EventType PREPROCESS = EventType.getEventType(PreprocessEvent.class);
+
+  private FlightRecorder() {
+  }
+
+  static Object beginResolution() {
+    if (!ENABLED)
+      return null;
+    ResolutionEvent event = new ResolutionEvent();
+    if (!event.isEnabled())
+      return null;
+    event.begin();
+    return event;
+  }
+
+  static void endResolution(Object token, String endpoint, Type returnType, int candidates, int matched) {
+    if (token == null)
+      return;
+    ResolutionEvent event = (ResolutionEvent) token;
+    event.end();
+    if (!event.shouldCommit())
+      return;
+    event.endpoint = endpoint;
+    event.returnType = returnType.getTypeName();
+    event.candidates = candidates;
+    event.matched = matched;
+    event.commit();
+  }
+
+  static List<Preprocessor> wrap(List<Preprocessor> preprocessors, String endpoint) {
+    if (!ENABLED)
+      return preprocessors;
+    List<Preprocessor> result = new ArrayList<>(preprocessors.size());
+    for (Preprocessor preprocessor : preprocessors) {
+      result.add(new RecordedPreprocessor(preprocessor, endpoint));
+    }
+    return result;
+  }
+
+  static List<BodyPreprocessor> wrapBody(List<BodyPreprocessor> preprocessors, String endpoint) {
+    if (!ENABLED)
+      return preprocessors;
+    List<BodyPreprocessor> result = new ArrayList<>(preprocessors.size());
+    for (BodyPreprocessor preprocessor : preprocessors) {
+      result.add(new RecordedBodyPreprocessor(preprocessor, endpoint));
+    }
+    return result;
+  }
+
+  private static void commit(PreprocessEvent event, String endpoint, Class<?> preprocessor, boolean failed) {
+    event.end();
+    if (!event.shouldCommit())
+      return;
+    event.endpoint = endpoint;
+    event.preprocessor = preprocessor;
+    event.failed = failed;
+    event.commit();
+  }
+
+  private static class RecordedPreprocessor implements Preprocessor<Object> {
+    private final Preprocessor<Object> wrapped;
+    private final String endpoint;
+
+    @SuppressWarnings("unchecked")
+    private RecordedPreprocessor(Preprocessor wrapped, String endpoint) {
+      this.wrapped = wrapped;
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public Object preprocess(Object source) {
+      if (!PREPROCESS.isEnabled())
+        return wrapped.preprocess(source);
+      PreprocessEvent event = new PreprocessEvent();
+      event.begin();
+      boolean failed = true;
+      try {
+        Object result = wrapped.preprocess(source);
+        failed = false;
+        return result;
+      } finally {
+        commit(event, endpoint, wrapped.getClass(), failed);
+      }
+    }
+  }
+
+  private static class RecordedBodyPreprocessor implements BodyPreprocessor<Object> {
+    private final BodyPreprocessor<Object> wrapped;
+    private final String endpoint;
+
+    @SuppressWarnings("unchecked")
+    private RecordedBodyPreprocessor(BodyPreprocessor wrapped, String endpoint) {
+      this.wrapped = wrapped;
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public Object preprocess(Object body) {
+      if (!PREPROCESS.isEnabled())
+        return wrapped.preprocess(body);
+      PreprocessEvent event = new PreprocessEvent();
+      event.begin();
+      boolean failed = true;
+      try {
+        Object result = wrapped.preprocess(body);
+        failed = false;
+        return result;
+      } finally {
+        commit(event, endpoint, wrapped.getClass(), failed);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,27 @@
+package codes.titanium.premapper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted for every execution of preprocessor
+ */
+@Name("codes.titanium.premapper.Preprocess")
+@Label("Preprocessor Execution")
+@Category({"Retrofit", "Preprocessor"})
+@Description("Execution of single preprocessor for response of endpoint")
+class PreprocessEvent extends Event {
+
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Preprocessor")
+  Class<?> preprocessor;
+
+  @Label("Failed")
+  boolean failed;
+
+}
@@ -0,0 +1,32 @@
+package codes.titanium.premapper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emitted for every call adapter resolved by {@link PreprocessAdapter}
+ */
+@Name("codes.titanium.premapper.Resolution")
+@Label("Preprocess Adapter Resolution")
+@Category({"Retrofit", "Preprocessor"})
+@Description("Matching of preprocessors for return type of endpoint")
+class ResolutionEvent extends Event {
+
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Return Type")
+  String returnType;
+
+  @Label("Candidates")
+  @Description("Number of preprocessors that were checked by type matching")
+  int candidates;
+
+  @Label("Matched")
+  @Description("Number of preprocessors that will be applied to endpoint")
+  int matched;
+
+}
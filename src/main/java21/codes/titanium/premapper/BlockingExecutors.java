@@ -0,0 +1,25 @@
+package codes.titanium.premapper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Default executor of blocking preprocessors for Java 21+, placed into META-INF/versions/21 of multi release jar.
+ * Every preprocessor runs on its own virtual thread, so blocked preprocessors do not hold platform threads.
+ */
+final class BlockingExecutors {
+
+  private BlockingExecutors() {
+  }
+
+  static Executor shared() {
+    return Holder.INSTANCE;
+  }
+
+  private static class Holder {
+    private static final ExecutorService INSTANCE =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("premapper-blocking-", 0).factory());
+  }
+
+}
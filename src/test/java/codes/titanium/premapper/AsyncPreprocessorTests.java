@@ -0,0 +1,177 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AsyncPreprocessorTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+
+  private TestService createService(PreprocessAdapter preprocessAdapter) {
+    return createService(new OkHttpClient.Builder().addInterceptor(interceptor).build(), preprocessAdapter);
+  }
+
+  private TestService createService(OkHttpClient client, PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(client)
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void responseIsDeliveredWhenStageIsCompleted() throws Exception {
+    CompletableFuture<TestEntity> pending = new CompletableFuture<>();
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .decorateNextAdapters()
+        .addAsyncPreprocessor(new AsyncPreprocessor<TestEntity>() {
+          @Override
+          public CompletionStage<TestEntity> preprocess(TestEntity body) {
+            return pending.thenApply(ignored -> body.setTestString("async"));
+          }
+        })
+        .build());
+    interceptor.addToQueue(200, "");
+    CountDownLatch delivered = new CountDownLatch(1);
+    AtomicReference<TestEntity> result = new AtomicReference<>();
+    testService.getEntityCall().enqueue(new Callback<TestEntity>() {
+      @Override
+      public void onResponse(Call<TestEntity> call, Response<TestEntity> response) {
+        result.set(response.body());
+        delivered.countDown();
+      }
+
+      @Override
+      public void onFailure(Call<TestEntity> call, Throwable t) {
+        delivered.countDown();
+      }
+    });
+    assertFalse(delivered.await(100, TimeUnit.MILLISECONDS));
+    pending.complete(null);
+    assertTrue(delivered.await(5, TimeUnit.SECONDS));
+    assertEquals("async", result.get().getTestString());
+  }
+
+  @Test
+  public void asyncAndBlockingPreprocessorsKeepOrder() throws Exception {
+    AtomicReference<Thread> blockingThread = new AtomicReference<>();
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .decorateNextAdapters()
+        .addAsyncPreprocessor(TestEntity.class, body -> CompletableFuture.completedFuture(((TestEntity) body).setTestString("a")))
+        .addBlockingPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            blockingThread.set(Thread.currentThread());
+            return body.setTestString(body.getTestString() + "b");
+          }
+        })
+        .blockingExecutor(Executors.newSingleThreadExecutor())
+        .build());
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    assertEquals("ab", testService.getEntityCall().execute().body().getTestString());
+    assertNotSame(Thread.currentThread(), blockingThread.get());
+    assertEquals("ab", testService.getEntity().toBlocking().first().getTestString());
+  }
+
+  @Test
+  public void failedStageFailsCall() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .decorateNextAdapters()
+        .addBlockingPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            throw new IllegalStateException("enrichment failed");
+          }
+        })
+        .build());
+    interceptor.addToQueue(200, "");
+    try {
+      testService.getEntityCall().execute();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("enrichment failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void ignoredEndpointAndErrorsAreNotPreprocessed() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .decorateNextAdapters()
+        .addBlockingPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            return body.setTestString("blocking");
+          }
+        })
+        .build());
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(500, "");
+    assertNull(testService.getEntityIgnored().toBlocking().first().getTestString());
+    assertEquals(500, testService.getEntityCall().execute().code());
+  }
+
+  @Test
+  public void executeDoesNotWaitForDispatcher() throws Exception {
+    OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+    client.dispatcher().setMaxRequests(1);
+    TestService testService = createService(client, PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .decorateNextAdapters()
+        .addAsyncPreprocessor(TestEntity.class, body -> CompletableFuture.completedFuture(((TestEntity) body).setTestString("async")))
+        .build());
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicReference<String> result = new AtomicReference<>();
+    //callback of enqueued call holds the only slot of dispatcher
+    client.newCall(new Request.Builder().url("http://example.com/p").build()).enqueue(new okhttp3.Callback() {
+      @Override
+      public void onResponse(okhttp3.Call call, okhttp3.Response response) throws IOException {
+        result.set(testService.getEntityCall().execute().body().getTestString());
+        done.countDown();
+      }
+
+      @Override
+      public void onFailure(okhttp3.Call call, IOException e) {
+        done.countDown();
+      }
+    });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("async", result.get());
+  }
+
+  @Test
+  public void endpointsOfNextAdaptersAreNotDecoratedByDefault() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addAsyncPreprocessor(TestEntity.class, body -> CompletableFuture.completedFuture(((TestEntity) body).setTestString("async")))
+        .build());
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    assertNull(testService.getEntityCall().execute().body().getTestString());
+    assertEquals("async", testService.getEntity().toBlocking().first().getTestString());
+  }
+
+}
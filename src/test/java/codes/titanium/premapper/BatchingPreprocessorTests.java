@@ -0,0 +1,139 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class BatchingPreprocessorTests {
+
+  @Test
+  public void resolvesTypeFromSuperclass() throws Exception {
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(10, 1, false);
+    assertSame(TestEntity.class, ReflectionUtils.getPreprocessedType(preprocessor));
+    PreprocessorIndex<BodyPreprocessor> index = PreprocessorIndex.of(Collections.<BodyPreprocessor>singletonList(preprocessor));
+    assertEquals(Collections.singletonList(preprocessor), index.lookup(TestEntity.class));
+  }
+
+  @Test
+  public void flushesFullBatches() throws Exception {
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(5, 10_000, false);
+    for (int i = 0; i < 10; i++) {
+      preprocessor.preprocess(new TestEntity());
+    }
+    preprocessor.close();
+    assertEquals(2, preprocessor.batches.size());
+    assertEquals(5, preprocessor.batches.get(0).size());
+    assertEquals(5, preprocessor.batches.get(1).size());
+  }
+
+  @Test
+  public void flushesAfterMaxDelay() throws Exception {
+    CountDownLatch flushed = new CountDownLatch(1);
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(100, 50, false) {
+      @Override
+      protected void onBatch(List<TestEntity> batch) {
+        super.onBatch(batch);
+        flushed.countDown();
+      }
+    };
+    preprocessor.preprocess(new TestEntity());
+    assertTrue(flushed.await(5, TimeUnit.SECONDS));
+    assertEquals(1, preprocessor.batches.get(0).size());
+    preprocessor.close();
+  }
+
+  @Test
+  public void waitsForCommitOfConcurrentEntities() throws Exception {
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(8, 20, true);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<TestEntity> entities = new ArrayList<>();
+    CountDownLatch finished = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      TestEntity entity = new TestEntity();
+      entities.add(entity);
+      executor.execute(() -> {
+        preprocessor.preprocess(entity);
+        //entity is passed further only after it is committed
+        assertTrue(preprocessor.committed.contains(entity));
+        finished.countDown();
+      });
+    }
+    assertTrue(finished.await(10, TimeUnit.SECONDS));
+    executor.shutdown();
+    preprocessor.close();
+    assertEquals(100, preprocessor.committed.size());
+    assertTrue(preprocessor.committed.containsAll(entities));
+  }
+
+  @Test
+  public void errorOfBatchFailsItsEntitiesAndKeepsFlushing() throws Exception {
+    AtomicBoolean failed = new AtomicBoolean();
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(1, 10_000, true) {
+      @Override
+      protected void onBatch(List<TestEntity> batch) {
+        if (failed.compareAndSet(false, true))
+          throw new AssertionError("Batch failed");
+        super.onBatch(batch);
+      }
+    };
+    try {
+      preprocessor.preprocess(new TestEntity());
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof AssertionError);
+    }
+    TestEntity entity = new TestEntity();
+    assertSame(entity, preprocessor.preprocess(entity));
+    assertTrue(preprocessor.committed.contains(entity));
+    preprocessor.close();
+  }
+
+  @Test
+  public void interruptedEntityIsNotCommitted() throws Exception {
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(100, 10_000, true);
+    Thread.currentThread().interrupt();
+    try {
+      preprocessor.preprocess(new TestEntity());
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+      assertTrue(Thread.interrupted());
+    }
+    preprocessor.close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsAfterClose() throws Exception {
+    RecordingPreprocessor preprocessor = new RecordingPreprocessor(10, 10, false);
+    preprocessor.preprocess(new TestEntity());
+    preprocessor.close();
+    preprocessor.preprocess(new TestEntity());
+  }
+
+  private static class RecordingPreprocessor extends BatchingPreprocessor<TestEntity> {
+    private final List<List<TestEntity>> batches = new CopyOnWriteArrayList<>();
+    private final List<TestEntity> committed = new CopyOnWriteArrayList<>();
+
+    private RecordingPreprocessor(int batchSize, long maxDelayMillis, boolean awaitCommit) {
+      super(batchSize, maxDelayMillis, TimeUnit.MILLISECONDS, awaitCommit);
+    }
+
+    @Override
+    protected void onBatch(List<TestEntity> batch) {
+      batches.add(batch);
+      committed.addAll(batch);
+    }
+  }
+
+}
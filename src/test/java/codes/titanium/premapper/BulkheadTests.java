@@ -0,0 +1,177 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.http.GET;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkheadTests {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+  //delays of adaptive endpoint in milliseconds
+  private final Queue<Long> delays = new ConcurrentLinkedQueue<>();
+  private final List<Thread> threads = new ArrayList<>();
+  private PreprocessAdapter preprocessAdapter;
+  private TestService testService;
+  private OtherService otherService;
+
+  @Before
+  public void setUp() throws Exception {
+    Interceptor blockingInterceptor = chain -> {
+      requests.incrementAndGet();
+      try {
+        if (chain.request().url().encodedPath().equals("/n")) {
+          Long delay = delays.poll();
+          Thread.sleep(delay == null ? 0 : delay);
+        } else {
+          release.await(10, TimeUnit.SECONDS);
+        }
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return new Response.Builder()
+          .request(chain.request())
+          .protocol(Protocol.HTTP_1_1)
+          .body(ResponseBody.create(MediaType.parse("text/plain"), ""))
+          .message("Success")
+          .code(200)
+          .build();
+    };
+    preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create()).build();
+    Retrofit retrofit = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(blockingInterceptor).build())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build();
+    testService = retrofit.create(TestService.class);
+    otherService = retrofit.create(OtherService.class);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void groupSharesLimitAndRejectsExcessCalls() throws Exception {
+    inBackground(testService.getEntityLimited());
+    inBackground(testService.getOtherEntityLimited());
+    awaitRequests(2);
+    assertRejected(testService.getEntityLimited());
+    release.countDown();
+    tearDown();
+    BulkheadStats stats = preprocessAdapter.bulkheadStats().get("limited");
+    assertEquals(2, stats.getAccepted());
+    assertEquals(1, stats.getRejected());
+    assertEquals(0, stats.getInFlight());
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void queuedCallIsStartedWhenPermitIsReleased() throws Exception {
+    inBackground(testService.getEntityQueued());
+    awaitRequests(1);
+    inBackground(testService.getEntityQueued());
+    while (preprocessAdapter.bulkheadStats().get("GET /m").getQueued() == 0) {
+      Thread.sleep(1);
+    }
+    assertRejected(testService.getEntityQueued());
+    assertEquals(1, requests.get());
+    release.countDown();
+    tearDown();
+    BulkheadStats stats = preprocessAdapter.bulkheadStats().get("GET /m");
+    assertEquals(2, stats.getAccepted());
+    assertEquals(1, stats.getRejected());
+    assertEquals(0, stats.getQueued());
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void executedCallIsRejectedAfterMaxWait() throws Exception {
+    inBackground(testService.getEntityWaiting());
+    awaitRequests(1);
+    long startedAt = System.nanoTime();
+    assertRejected(testService.getEntityWaiting());
+    assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(50));
+    BulkheadStats stats = preprocessAdapter.bulkheadStats().get("GET /s");
+    assertEquals(0, stats.getQueued());
+    assertEquals(1, stats.getRejected());
+    release.countDown();
+    tearDown();
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void endpointsWithSameDescriptionHaveOwnLimits() throws Exception {
+    inBackground(testService.getEntityQueued());
+    awaitRequests(1);
+    inBackground(otherService.getEntityQueued());
+    awaitRequests(2);
+    release.countDown();
+    tearDown();
+    BulkheadStats stats = preprocessAdapter.bulkheadStats().get("GET /m");
+    assertEquals(2, stats.getAccepted());
+    assertEquals(2, stats.getLimit());
+  }
+
+  @Test
+  public void adaptiveLimitDecreasesOnSlowCallsAndRecovers() throws Exception {
+    delays.add(150L);
+    testService.getEntityAdaptive().toBlocking().first();
+    assertEquals(9, preprocessAdapter.bulkheadStats().get("GET /n").getLimit());
+    for (int i = 0; i < 9; i++) {
+      testService.getEntityAdaptive().toBlocking().first();
+    }
+    assertEquals(10, preprocessAdapter.bulkheadStats().get("GET /n").getLimit());
+  }
+
+  private void inBackground(Observable<TestEntity> call) {
+    Thread thread = new Thread(() -> call.toBlocking().first());
+    thread.start();
+    threads.add(thread);
+  }
+
+  private void awaitRequests(int count) throws InterruptedException {
+    while (requests.get() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  private static void assertRejected(Observable<TestEntity> call) {
+    try {
+      call.toBlocking().first();
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof RejectedCallException);
+    }
+  }
+
+  interface OtherService {
+    @GET("/m")
+    @Bulkhead(maxConcurrent = 1, maxQueued = 1)
+    Observable<TestEntity> getEntityQueued();
+  }
+
+}
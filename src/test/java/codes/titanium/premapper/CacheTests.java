@@ -0,0 +1,181 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.http.GET;
+import retrofit2.http.Query;
+import rx.Observable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CacheTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final AtomicInteger preprocessed = new AtomicInteger();
+  private final AtomicInteger adapted = new AtomicInteger();
+  private PreprocessAdapter preprocessAdapter;
+  private TestService testService;
+
+  @Before
+  public void setUp() throws Exception {
+    BodyPreprocessor<TestEntity> countingPreprocessor = new BodyPreprocessor<TestEntity>() {
+      @Override
+      public TestEntity preprocess(TestEntity body) {
+        preprocessed.incrementAndGet();
+        return body;
+      }
+    };
+    preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(countingPreprocessor)
+        .addPreprocessor(new Preprocessor<Observable<TestEntity>>() {
+          @Override
+          public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+            return source.doOnNext(entity -> entity.setTestInt(adapted.incrementAndGet()));
+          }
+        })
+        .build();
+    testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void lruCacheEvictsLeastRecentlyUsed() throws Exception {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.put("a", "a");
+    cache.put("b", "b");
+    cache.get("a");
+    cache.put("c", "c");
+    assertNull(cache.get("b"));
+    assertEquals("a", cache.get("a"));
+    assertEquals("c", cache.get("c"));
+    CacheStats stats = cache.stats();
+    assertEquals(3, stats.getHits());
+    assertEquals(1, stats.getMisses());
+    assertEquals(1, stats.getEvictions());
+    assertEquals(2, stats.getSize());
+  }
+
+  @Test
+  public void segmentedLruCacheIsBounded() throws Exception {
+    LruCache<Integer, Integer> cache = new LruCache<>(1000);
+    for (int i = 0; i < 5000; i++) {
+      cache.put(i, i);
+    }
+    assertEquals(1000, cache.size());
+    assertEquals(4000, cache.stats().getEvictions());
+  }
+
+  @Test
+  public void hitSkipsNetworkAndPreprocessing() throws Exception {
+    interceptor.addToQueue(200, "");
+    TestEntity first = testService.getEntityCached(1).toBlocking().single();
+    TestEntity second = testService.getEntityCached(1).toBlocking().single();
+    assertSame(first, second);
+    assertEquals(1, interceptor.getExecutedRequestsCount());
+    assertEquals(1, preprocessed.get());
+    assertEquals(1, adapted.get());
+    assertEquals(1, second.getTestInt());
+    CacheStats stats = preprocessAdapter.cacheStats().get("GET /f");
+    assertEquals(1, stats.getHits());
+    assertEquals(1, stats.getMisses());
+  }
+
+  @Test
+  public void differentRequestsAreCachedSeparately() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      interceptor.addToQueue(200, "");
+    }
+    TestEntity first = testService.getEntityCached(1).toBlocking().single();
+    testService.getEntityCached(2).toBlocking().single();
+    testService.getEntityCached(3).toBlocking().single();
+    assertEquals(3, interceptor.getExecutedRequestsCount());
+    assertEquals(1, preprocessAdapter.cacheStats().get("GET /f").getEvictions());
+    interceptor.addToQueue(200, "");
+    assertNotSame(first, testService.getEntityCached(1).toBlocking().single());
+  }
+
+  @Test
+  public void cacheIsBoundedBySize() throws Exception {
+    interceptor.addToQueue(200, "12345");
+    interceptor.addToQueue(200, "12345");
+    interceptor.addToQueue(200, "12345");
+    testService.getEntityCachedBySize(1).toBlocking().single();
+    testService.getEntityCachedBySize(2).toBlocking().single();
+    testService.getEntityCachedBySize(3).toBlocking().single();
+    CacheStats stats = preprocessAdapter.cacheStats().get("GET /q");
+    assertEquals(1, stats.getEvictions());
+    assertEquals(2, stats.getSize());
+    interceptor.addToQueue(200, "12345678901");
+    testService.getEntityCachedBySize(4).toBlocking().single();
+    assertEquals(2, preprocessAdapter.cacheStats().get("GET /q").getSize());
+  }
+
+  @Test
+  public void statsOfEndpointsWithSameDescriptionAreSummed() throws Exception {
+    OtherService otherService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(OtherService.class);
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    testService.getEntityCached(1).toBlocking().single();
+    otherService.getEntityCached(1).toBlocking().single();
+    otherService.getEntityCached(1).toBlocking().single();
+    CacheStats stats = preprocessAdapter.cacheStats().get("GET /f");
+    assertEquals(2, stats.getMisses());
+    assertEquals(1, stats.getHits());
+    assertEquals(2, stats.getSize());
+  }
+
+  @Test
+  public void errorsAreNotCached() throws Exception {
+    interceptor.addToQueue(500, "");
+    interceptor.addToQueue(200, "");
+    testService.getEntityCached(1).subscribe(entity -> fail(), error -> {
+    });
+    testService.getEntityCached(1).toBlocking().single();
+    assertEquals(2, interceptor.getExecutedRequestsCount());
+  }
+
+  @Test
+  public void expiredResponseIsRequestedAgain() throws Exception {
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    TestEntity first = testService.getEntityCachedShortly().toBlocking().single();
+    Thread.sleep(100);
+    assertNotSame(first, testService.getEntityCachedShortly().toBlocking().single());
+    assertEquals(2, interceptor.getExecutedRequestsCount());
+    //expired response is a miss, not a hit
+    CacheStats stats = preprocessAdapter.cacheStats().get("GET /h");
+    assertEquals(0, stats.getHits());
+    assertEquals(2, stats.getMisses());
+    assertEquals(1, stats.getSize());
+  }
+
+  interface OtherService {
+    @GET("/f")
+    @Cached(ttl = 1, unit = TimeUnit.HOURS)
+    Observable<TestEntity> getEntityCached(@Query("id") int id);
+  }
+
+}
@@ -0,0 +1,179 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.*;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalesceTests {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger preprocessed = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private volatile Error failure;
+  private Interceptor blockingInterceptor;
+  private TestService testService;
+
+  @Before
+  public void setUp() throws Exception {
+    blockingInterceptor = chain -> {
+      requests.incrementAndGet();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      if (failure != null)
+        throw failure;
+      return new Response.Builder()
+          .request(chain.request())
+          .protocol(Protocol.HTTP_1_1)
+          .body(ResponseBody.create(MediaType.parse("text/plain"), ""))
+          .message("Success")
+          .code(200)
+          .build();
+    };
+    BodyPreprocessor<TestEntity> countingPreprocessor = new BodyPreprocessor<TestEntity>() {
+      @Override
+      public TestEntity preprocess(TestEntity body) {
+        preprocessed.incrementAndGet();
+        return body;
+      }
+    };
+    testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(countingPreprocessor)
+        .build());
+  }
+
+  private TestService createService(PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(blockingInterceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void concurrentCallsShareRequestAndResult() throws Exception {
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<TestEntity>> results = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      results.add(executor.submit(() -> testService.getEntityCoalesced().toBlocking().single()));
+    }
+    Thread.sleep(300);
+    release.countDown();
+    TestEntity first = results.get(0).get(10, TimeUnit.SECONDS);
+    for (Future<TestEntity> result : results) {
+      assertSame(first, result.get(10, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    assertEquals(1, requests.get());
+    assertEquals(1, preprocessed.get());
+  }
+
+  @Test
+  public void adaptedPreprocessorsRunOnceOnSharedBody() throws Exception {
+    AtomicInteger adapted = new AtomicInteger();
+    TestService service = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(new Preprocessor<Observable<TestEntity>>() {
+          @Override
+          public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+            return source.doOnNext(entity -> {
+              adapted.incrementAndGet();
+              entity.setTestInt(entity.getTestInt() + 1);
+            });
+          }
+        })
+        .build());
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<TestEntity>> results = new ArrayList<>();
+    results.add(executor.submit(() -> service.getEntityCoalesced().toBlocking().single()));
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (requests.get() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    //calls are decorated while request is in flight, so they join it
+    for (int i = 1; i < threads; i++) {
+      results.add(executor.submit(() -> service.getEntityCoalesced().toBlocking().single()));
+    }
+    Thread.sleep(300);
+    release.countDown();
+    TestEntity first = results.get(0).get(10, TimeUnit.SECONDS);
+    for (Future<TestEntity> result : results) {
+      assertSame(first, result.get(10, TimeUnit.SECONDS));
+    }
+    executor.shutdown();
+    assertEquals(1, requests.get());
+    assertEquals(1, adapted.get());
+    assertEquals(1, first.getTestInt());
+  }
+
+  @Test
+  public void errorOfSharedRequestIsPassedToAllCalls() throws Exception {
+    failure = new AssertionError("broken upstream");
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<TestEntity>> results = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      results.add(executor.submit(() -> testService.getEntityCoalesced().toBlocking().single()));
+    }
+    Thread.sleep(300);
+    release.countDown();
+    for (Future<TestEntity> result : results) {
+      try {
+        result.get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertSame(failure, e.getCause());
+      }
+    }
+    executor.shutdown();
+    assertEquals(1, requests.get());
+    failure = null;
+    assertNotNull(testService.getEntityCoalesced().toBlocking().single());
+  }
+
+  @Test
+  public void sequentialCallsAreNotCoalesced() throws Exception {
+    release.countDown();
+    TestEntity first = testService.getEntityCoalesced().toBlocking().single();
+    TestEntity second = testService.getEntityCoalesced().toBlocking().single();
+    assertNotSame(first, second);
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void notAnnotatedCallsAreNotCoalesced() throws Exception {
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<TestEntity>> results = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      results.add(executor.submit(() -> testService.getEntity().toBlocking().single()));
+    }
+    Thread.sleep(300);
+    release.countDown();
+    for (Future<TestEntity> result : results) {
+      result.get(10, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+    assertEquals(threads, requests.get());
+  }
+
+}
@@ -0,0 +1,163 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests of adapter shared by many threads: services are created and called concurrently,
+ * every call is checked to be preprocessed exactly once and in order of preprocessors
+ */
+public class ConcurrencyTests {
+
+  private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+  private static final int CALLS_PER_THREAD = 500;
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final AtomicInteger wildcardInvocations = new AtomicInteger();
+  private final AtomicInteger bodyInvocations = new AtomicInteger();
+  private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  private PreprocessAdapter createAdapter() {
+    return PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(appendingPreprocessor("a"))
+        .addPreprocessor(appendingPreprocessor("b"))
+        .addPreprocessor(new Preprocessor<Observable<? extends TestEntity>>() {
+          @Override
+          public Observable<? extends TestEntity> preprocess(Observable<? extends TestEntity> source) {
+            return source.doOnNext(entity -> wildcardInvocations.incrementAndGet());
+          }
+        })
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            bodyInvocations.incrementAndGet();
+            return body.setTestString("body");
+          }
+        })
+        .build();
+  }
+
+  private TestService createService(PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void concurrentCallsArePreprocessedExactlyOnceInOrder() throws Exception {
+    TestService testService = createService(createAdapter());
+    queueResponses(THREADS * CALLS_PER_THREAD);
+    List<String> results = runConcurrently(THREADS, new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        List<String> names = new ArrayList<>(CALLS_PER_THREAD);
+        for (int i = 0; i < CALLS_PER_THREAD; i++) {
+          names.add(testService.getEntity().toBlocking().first().getTestString());
+        }
+        return names;
+      }
+    });
+    assertEquals(THREADS * CALLS_PER_THREAD, results.size());
+    for (String result : results) {
+      assertEquals("bodyab", result);
+    }
+    assertEquals(THREADS * CALLS_PER_THREAD, wildcardInvocations.get());
+    assertEquals(THREADS * CALLS_PER_THREAD, bodyInvocations.get());
+    assertEquals(THREADS * CALLS_PER_THREAD, interceptor.getExecutedRequestsCount());
+  }
+
+  @Test
+  public void servicesAreCreatedConcurrentlyWithSharedAdapter() throws Exception {
+    PreprocessAdapter preprocessAdapter = createAdapter();
+    int services = 20;
+    queueResponses(THREADS * services * 2);
+    List<String> results = runConcurrently(THREADS, new Callable<List<String>>() {
+      @Override
+      public List<String> call() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < services; i++) {
+          //every retrofit asks shared adapter for call adapters of its own
+          TestService testService = createService(preprocessAdapter);
+          names.add(testService.getEntity().toBlocking().first().getTestString());
+          names.add(testService.getEntityCall().execute().body().getTestString());
+        }
+        return names;
+      }
+    });
+    for (int i = 0; i < results.size(); i += 2) {
+      assertEquals("bodyab", results.get(i));
+      //adapted type preprocessors are not applied to call
+      assertEquals("body", results.get(i + 1));
+    }
+    assertEquals(THREADS * services, wildcardInvocations.get());
+    assertEquals(THREADS * services * 2, bodyInvocations.get());
+  }
+
+  private void queueResponses(int count) {
+    for (int i = 0; i < count; i++) {
+      interceptor.addToQueue(200, "");
+    }
+  }
+
+  /**
+   * Runs task in given number of threads that are started at once
+   *
+   * @return results of all threads
+   */
+  private List<String> runConcurrently(int threads, Callable<List<String>> task) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<List<String>>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        return task.call();
+      }));
+    }
+    start.countDown();
+    List<String> result = new ArrayList<>();
+    for (Future<List<String>> future : futures) {
+      result.addAll(future.get(60, TimeUnit.SECONDS));
+    }
+    return result;
+  }
+
+  private static Preprocessor<Observable<TestEntity>> appendingPreprocessor(String suffix) {
+    return new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source.doOnNext(entity -> entity.setTestString(entity.getTestString() + suffix));
+      }
+    };
+  }
+
+}
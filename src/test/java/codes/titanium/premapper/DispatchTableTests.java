@@ -0,0 +1,233 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.ParametrizedTestEntity;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static codes.titanium.premapper.ReflectionUtils.*;
+import static org.junit.Assert.*;
+
+/**
+ * Checks table generated by annotation processor for test sources against reflection
+ */
+public class DispatchTableTests {
+
+  private static final List<Object> INDEXED = Arrays.<Object>asList(new EntityPreprocessor(), new AnyObservablePreprocessor(),
+      new SubclassesPreprocessor(), new ListPreprocessor(), new ParametrizedPreprocessor(), new CallPreprocessor(),
+      new EntityBodyPreprocessor());
+
+  @Test
+  public void generatedTableIsLoaded() throws Exception {
+    //common package of annotated test classes
+    assertEquals("codes.titanium.premapper.GeneratedDispatchTable", loadGeneratedDispatchTable().getClass().getName());
+  }
+
+  @Test
+  public void tableTypesAreEqualToReflectionTypes() throws Exception {
+    DispatchTable table = loadGeneratedDispatchTable();
+    for (Object preprocessor : INDEXED) {
+      Type reflectionType = getPreprocessedType(preprocessor);
+      Type tableType = table.getPreprocessedType(preprocessor.getClass());
+      assertEquals(reflectionType, tableType);
+      assertEquals(tableType, reflectionType);
+      assertEquals(reflectionType.hashCode(), tableType.hashCode());
+    }
+    assertNull(table.getPreprocessedType(NotIndexedPreprocessor.class));
+  }
+
+  @Test
+  public void tableMatchesAreEqualToReflectionMatches() throws Exception {
+    DispatchTable table = loadGeneratedDispatchTable();
+    for (Method method : TestService.class.getDeclaredMethods()) {
+      Type returnType = method.getGenericReturnType();
+      Set<Class<?>> expected = new HashSet<>();
+      for (Object preprocessor : INDEXED) {
+        if (isAssignableFromTo(returnType, getPreprocessedType(preprocessor)))
+          expected.add(preprocessor.getClass());
+      }
+      assertNotNull(returnType.toString(), table.getPreprocessors(returnType));
+      assertEquals(returnType.toString(), expected, new HashSet<>(Arrays.asList(table.getPreprocessors(returnType))));
+    }
+  }
+
+  @Test
+  public void indexUsesTableAndKeepsRegistrationOrder() throws Exception {
+    Preprocessor<Observable<TestEntity>> anonymous = new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source;
+      }
+    };
+    EntityPreprocessor entity = new EntityPreprocessor();
+    AnyObservablePreprocessor any = new AnyObservablePreprocessor();
+    PreprocessorIndex<Preprocessor> index = PreprocessorIndex.of(Arrays.<Preprocessor>asList(any, anonymous, new CallPreprocessor(), entity),
+        loadGeneratedDispatchTable());
+    Type entityType = TestService.class.getDeclaredMethod("getEntity").getGenericReturnType();
+    assertEquals(Arrays.<Preprocessor>asList(any, anonymous, entity), index.lookup(entityType));
+  }
+
+  @Test
+  public void preprocessorsAreMatchedByTableOfTheirModule() throws Exception {
+    //table of another module knows NotIndexedPreprocessor but not return types of TestService
+    final Type entityObservable = getPreprocessedType(new NotIndexedPreprocessor());
+    DispatchTable other = new DispatchTable() {
+      @Override
+      public Type getPreprocessedType(Class<?> preprocessorClass) {
+        return preprocessorClass == NotIndexedPreprocessor.class ? entityObservable : null;
+      }
+
+      @Override
+      public Class<?>[] getPreprocessors(Type returnType) {
+        return null;
+      }
+    };
+    EntityPreprocessor entity = new EntityPreprocessor();
+    NotIndexedPreprocessor notIndexed = new NotIndexedPreprocessor();
+    PreprocessorIndex<Preprocessor> index = PreprocessorIndex.of(Arrays.<Preprocessor>asList(entity, notIndexed),
+        DispatchTables.of(Arrays.asList(loadGeneratedDispatchTable(), other)));
+    Type entityType = TestService.class.getDeclaredMethod("getEntity").getGenericReturnType();
+    assertEquals(Arrays.<Preprocessor>asList(entity, notIndexed), index.lookup(entityType));
+  }
+
+  @Test
+  public void registryPreprocessorsAreMatchedByTableOfAdapter() throws Exception {
+    //explicit table knows EntityPreprocessor but doesn't match it to any return type
+    final Type entityObservable = getPreprocessedType(new EntityPreprocessor());
+    DispatchTable explicit = new DispatchTable() {
+      @Override
+      public Type getPreprocessedType(Class<?> preprocessorClass) {
+        return preprocessorClass == EntityPreprocessor.class ? entityObservable : null;
+      }
+
+      @Override
+      public Class<?>[] getPreprocessors(Type returnType) {
+        return new Class<?>[0];
+      }
+    };
+    PreprocessorRegistry registry = new PreprocessorRegistry();
+    registry.register(new EntityPreprocessor());
+    HttpTestInterceptor interceptor = new HttpTestInterceptor();
+    TestService explicitService = createService(interceptor, PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .registry(registry)
+        .dispatchTable(explicit)
+        .build());
+    TestService generatedService = createService(interceptor, PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .registry(registry)
+        .build());
+    interceptor.addToQueue(200, "");
+    assertEquals(0, explicitService.getEntity().toBlocking().first().getTestInt());
+    interceptor.addToQueue(200, "");
+    assertEquals(1, generatedService.getEntity().toBlocking().first().getTestInt());
+  }
+
+  private static TestService createService(HttpTestInterceptor interceptor, PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void indexedPreprocessorsAreApplied() throws Exception {
+    HttpTestInterceptor interceptor = new HttpTestInterceptor();
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(new EntityPreprocessor())
+        .addBodyPreprocessor(new EntityBodyPreprocessor())
+        .build();
+    TestService testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "");
+    TestEntity result = testService.getEntity().toBlocking().first();
+    assertEquals("body", result.getTestString());
+    assertEquals(1, result.getTestInt());
+  }
+
+  @IndexedPreprocessor
+  static class EntityPreprocessor implements Preprocessor<Observable<TestEntity>> {
+    @Override
+    public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+      return source.map(entity -> entity.setTestInt(1));
+    }
+  }
+
+  @IndexedPreprocessor
+  static class AnyObservablePreprocessor implements Preprocessor<Observable<?>> {
+    @Override
+    public Observable<?> preprocess(Observable<?> source) {
+      return source;
+    }
+  }
+
+  @IndexedPreprocessor
+  static class SubclassesPreprocessor implements Preprocessor<Observable<? extends TestEntity>> {
+    @Override
+    public Observable<? extends TestEntity> preprocess(Observable<? extends TestEntity> source) {
+      return source;
+    }
+  }
+
+  @IndexedPreprocessor
+  static class ListPreprocessor implements Preprocessor<Observable<? extends List<? extends TestEntity>>> {
+    @Override
+    public Observable<? extends List<? extends TestEntity>> preprocess(Observable<? extends List<? extends TestEntity>> source) {
+      return source;
+    }
+  }
+
+  @IndexedPreprocessor
+  static class ParametrizedPreprocessor implements Preprocessor<Observable<List<ParametrizedTestEntity<? extends Map, String>>>> {
+    @Override
+    public Observable<List<ParametrizedTestEntity<? extends Map, String>>> preprocess(Observable<List<ParametrizedTestEntity<? extends Map, String>>> source) {
+      return source;
+    }
+  }
+
+  @IndexedPreprocessor
+  static class CallPreprocessor implements Preprocessor<Call<TestEntity>> {
+    @Override
+    public Call<TestEntity> preprocess(Call<TestEntity> source) {
+      return source;
+    }
+  }
+
+  @IndexedPreprocessor
+  static class EntityBodyPreprocessor implements BodyPreprocessor<TestEntity> {
+    @Override
+    public TestEntity preprocess(TestEntity body) {
+      return body.setTestString("body");
+    }
+  }
+
+  static class NotIndexedPreprocessor implements Preprocessor<Observable<TestEntity>> {
+    @Override
+    public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+      return source;
+    }
+  }
+
+}
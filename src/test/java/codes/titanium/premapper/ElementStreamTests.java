@@ -0,0 +1,97 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.LineStreamFactory;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElementStreamTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final LineStreamFactory streamFactory = new LineStreamFactory();
+  private final AtomicInteger preprocessed = new AtomicInteger();
+  private TestService testService;
+
+  @Before
+  public void setUp() throws Exception {
+    BodyPreprocessor<TestEntity> countingPreprocessor = new BodyPreprocessor<TestEntity>() {
+      @Override
+      public TestEntity preprocess(TestEntity body) {
+        return body.setTestInt(preprocessed.incrementAndGet());
+      }
+    };
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(countingPreprocessor)
+        .elementStreamFactory(streamFactory)
+        .build();
+    testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void elementsArePreprocessedWhileTheyAreRead() throws Exception {
+    interceptor.addToQueue(200, "a\nb\nc\n");
+    ElementStream<TestEntity> stream = testService.streamEntities().execute().body();
+    assertEquals(0, preprocessed.get());
+    assertTrue(stream.hasNext());
+    TestEntity first = stream.next();
+    assertEquals("a", first.getTestString());
+    assertEquals(1, first.getTestInt());
+    assertEquals(1, preprocessed.get());
+    assertEquals("b", stream.next().getTestString());
+    assertEquals("c", stream.next().getTestString());
+    assertEquals(3, preprocessed.get());
+    assertFalse(stream.hasNext());
+    assertEquals(1, streamFactory.getClosedStreams());
+  }
+
+  @Test
+  public void notFinishedStreamIsClosed() throws Exception {
+    interceptor.addToQueue(200, "a\nb\n");
+    ElementStream<TestEntity> stream = testService.streamEntities().execute().body();
+    stream.next();
+    stream.close();
+    assertEquals(1, preprocessed.get());
+    assertEquals(1, streamFactory.getClosedStreams());
+  }
+
+  @Test
+  public void droppedElementsAreSkipped() throws Exception {
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyFilter(TestEntity.class, body -> !((TestEntity) body).getTestString().equals("b"))
+        .elementStreamFactory(streamFactory)
+        .build();
+    TestService filtered = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "a\nb\nc\n");
+    ElementStream<TestEntity> stream = filtered.streamEntities().execute().body();
+    assertEquals("a", stream.next().getTestString());
+    assertTrue(stream.hasNext());
+    assertEquals("c", stream.next().getTestString());
+    assertFalse(stream.hasNext());
+    assertEquals(1, streamFactory.getClosedStreams());
+  }
+
+}
@@ -0,0 +1,210 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ElementsPreprocessorTests {
+
+  @Test
+  public void replacesElementsOfList() throws Exception {
+    List<String> list = new LinkedList<>(Arrays.asList("a", "b"));
+    createUpperCasePreprocessor(Integer.MAX_VALUE).preprocess(list);
+    assertEquals(Arrays.asList("A", "B"), list);
+  }
+
+  @Test
+  public void replacesElementsOfArray() throws Exception {
+    String[] array = {"a", null, "c"};
+    createUpperCasePreprocessor(Integer.MAX_VALUE).preprocess(array);
+    assertArrayEquals(new String[]{"A", null, "C"}, array);
+  }
+
+  @Test
+  public void refillsSetOnlyIfElementsReplaced() throws Exception {
+    Set<String> set = new LinkedHashSet<>(Arrays.asList("a", "b"));
+    createUpperCasePreprocessor(Integer.MAX_VALUE).preprocess(set);
+    assertEquals(new LinkedHashSet<>(Arrays.asList("A", "B")), set);
+    Set<String> unmodifiable = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList("A", "B")));
+    createUpperCasePreprocessor(Integer.MAX_VALUE).preprocess(unmodifiable);
+  }
+
+  @Test
+  public void processesEveryElementOnceInParallel() throws Exception {
+    int size = 10_000;
+    List<TestEntity> entities = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      entities.add(new TestEntity());
+    }
+    Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    AtomicInteger invocations = new AtomicInteger();
+    Thread caller = Thread.currentThread();
+    CountDownLatch helped = new CountDownLatch(1);
+    BodyPreprocessor<Object> chain = new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        threads.add(Thread.currentThread());
+        //calling thread takes chunks too, so it waits until executor takes some of them
+        if (Thread.currentThread() == caller)
+          await(helped);
+        else
+          helped.countDown();
+        invocations.incrementAndGet();
+        TestEntity testEntity = (TestEntity) body;
+        return testEntity.setTestInt(testEntity.getTestInt() + 1);
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      new ElementsPreprocessor(chain, 100, executor).preprocess(entities);
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(size, invocations.get());
+    for (TestEntity entity : entities) {
+      assertEquals(1, entity.getTestInt());
+    }
+    assertTrue(threads.size() > 1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void rethrowsFailureOfParallelChunk() throws Exception {
+    List<Integer> numbers = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      numbers.add(i);
+    }
+    BodyPreprocessor<Object> chain = new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        if (body.equals(999))
+          throw new IllegalStateException();
+        return body;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      new ElementsPreprocessor(chain, 2, executor).preprocess(numbers);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void removesDroppedElements() throws Exception {
+    List<Integer> numbers = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      numbers.add(i);
+    }
+    numbers.add(null);
+    BodyPreprocessor<Object> dropOdd = new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        return (Integer) body % 2 == 0 ? body : null;
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      assertSame(numbers, new ElementsPreprocessor(dropOdd, 100, executor).preprocess(numbers));
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(501, numbers.size());
+    for (int i = 0; i < 500; i++) {
+      assertEquals(i * 2, (int) numbers.get(i));
+    }
+    assertNull(numbers.get(500));
+    Integer[] array = {1, 2, 3, 4};
+    assertArrayEquals(new Integer[]{2, 4}, (Integer[]) new ElementsPreprocessor(dropOdd, Integer.MAX_VALUE, Runnable::run).preprocess(array));
+    Set<Integer> set = new LinkedHashSet<>(Arrays.asList(1, 2, 3));
+    new ElementsPreprocessor(dropOdd, Integer.MAX_VALUE, Runnable::run).preprocess(set);
+    assertEquals(Collections.singleton(2), set);
+  }
+
+  @Test
+  public void processesRejectedChunksOnCallingThread() throws Exception {
+    List<Integer> numbers = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      numbers.add(i);
+    }
+    AtomicInteger submitted = new AtomicInteger();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Executor rejectingAfterFirst = task -> {
+      if (submitted.incrementAndGet() > 1)
+        throw new RejectedExecutionException();
+      executor.execute(task);
+    };
+    BodyPreprocessor<Object> increment = new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        return (Integer) body + 1;
+      }
+    };
+    try {
+      new ElementsPreprocessor(increment, 2, rejectingAfterFirst).preprocess(numbers);
+    } finally {
+      executor.shutdown();
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i + 1, (int) numbers.get(i));
+    }
+  }
+
+  @Test
+  public void doesNotStarveForkJoinPoolThatCallsIt() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(1);
+    List<Integer> numbers = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      numbers.add(i);
+    }
+    BodyPreprocessor<Object> identity = new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        return body;
+      }
+    };
+    try {
+      ForkJoinTask<Object> task = pool.submit(() -> new ElementsPreprocessor(identity, 2, pool).preprocess(numbers));
+      assertSame(numbers, task.get(5, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static ElementsPreprocessor createUpperCasePreprocessor(int parallelThreshold) {
+    BodyPreprocessor<Object> chain = new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        return ((String) body).toUpperCase();
+      }
+    };
+    return new ElementsPreprocessor(chain, parallelThreshold, Runnable::run);
+  }
+
+}
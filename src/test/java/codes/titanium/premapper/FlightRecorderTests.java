@@ -0,0 +1,67 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with Java 11 overlay of FlightRecorder, like multi release jar on Java 11+
+ */
+public class FlightRecorderTests {
+
+  @Test
+  public void recordingStartedAfterResolutionGetsPreprocessorEvents() throws Exception {
+    HttpTestInterceptor interceptor = new HttpTestInterceptor();
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(new EntityPreprocessor())
+        .build();
+    TestService testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "");
+    //endpoint is resolved before recording is started
+    testService.getEntity().toBlocking().first();
+    Path file = Files.createTempFile("premapper", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("codes.titanium.premapper.Preprocess");
+      recording.start();
+      interceptor.addToQueue(200, "");
+      testService.getEntity().toBlocking().first();
+      recording.stop();
+      recording.dump(file);
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      assertEquals(1, events.size());
+      assertEquals("codes.titanium.premapper.Preprocess", events.get(0).getEventType().getName());
+      assertEquals(EntityPreprocessor.class.getName(), events.get(0).getClass("preprocessor").getName());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  static class EntityPreprocessor implements Preprocessor<Observable<TestEntity>> {
+    @Override
+    public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+      return source;
+    }
+  }
+
+}
@@ -0,0 +1,170 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.*;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.http.GET;
+import rx.Observable;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgeTests {
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger preprocessed = new AtomicInteger();
+  private final AtomicInteger bodiesPreprocessed = new AtomicInteger();
+  //delays of responses in milliseconds, in order of requests
+  private final Queue<Long> delays = new ConcurrentLinkedQueue<>();
+  private final Queue<Thread> threads = new ConcurrentLinkedQueue<>();
+  private Interceptor delayingInterceptor;
+  private PreprocessAdapter preprocessAdapter;
+  private TestService testService;
+
+  @Before
+  public void setUp() throws Exception {
+    delayingInterceptor = chain -> {
+      requests.incrementAndGet();
+      threads.add(Thread.currentThread());
+      Long delay = delays.poll();
+      //canceled call stops waiting like call that stops reading from closed socket
+      long until = System.currentTimeMillis() + (delay == null ? 0 : delay);
+      while (System.currentTimeMillis() < until) {
+        if (chain.call().isCanceled())
+          throw new IOException("Canceled");
+        try {
+          Thread.sleep(10);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException(e);
+        }
+      }
+      return new Response.Builder()
+          .request(chain.request())
+          .protocol(Protocol.HTTP_1_1)
+          .body(ResponseBody.create(MediaType.parse("text/plain"), ""))
+          .message("Success")
+          .code(200)
+          .build();
+    };
+    Preprocessor<Observable<TestEntity>> countingPreprocessor = new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source.doOnNext(entity -> preprocessed.incrementAndGet());
+      }
+    };
+    preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(countingPreprocessor)
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            bodiesPreprocessed.incrementAndGet();
+            return body;
+          }
+        })
+        .build();
+    testService = createService(TestService.class);
+  }
+
+  private <T> T createService(Class<T> service) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(delayingInterceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(service);
+  }
+
+  @Test
+  public void fastResponseIsNotHedged() throws Exception {
+    assertNotNull(testService.getEntityHedged().toBlocking().first());
+    HedgeStats stats = preprocessAdapter.hedgeStats().get("GET /i");
+    assertEquals(1, stats.getCalls());
+    assertEquals(0, stats.getHedges());
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void slowResponseIsHedgedAndPreprocessedOnce() throws Exception {
+    delays.add(2000L);
+    long start = System.nanoTime();
+    assertNotNull(testService.getEntityHedged().toBlocking().first());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    HedgeStats stats = preprocessAdapter.hedgeStats().get("GET /i");
+    assertEquals(1, stats.getHedges());
+    assertEquals(1, stats.getHedgeWins());
+    assertEquals(2, requests.get());
+    assertEquals(1, preprocessed.get());
+  }
+
+  @Test
+  public void executedCallSendsFirstRequestOnCallingThread() throws Exception {
+    delays.add(2000L);
+    assertNotNull(testService.getEntityHedged().toBlocking().first());
+    assertSame(Thread.currentThread(), threads.poll());
+    assertNotSame(Thread.currentThread(), threads.poll());
+  }
+
+  @Test
+  public void statsOfEndpointsWithSameDescriptionAreSummed() throws Exception {
+    OtherService otherService = createService(OtherService.class);
+    testService.getEntityHedged().toBlocking().first();
+    otherService.getEntityHedged().toBlocking().first();
+    otherService.getEntityHedged().toBlocking().first();
+    HedgeStats stats = preprocessAdapter.hedgeStats().get("GET /i");
+    assertEquals(3, stats.getCalls());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), stats.getDelayNanos());
+  }
+
+  @Test
+  public void loserIsNotConverted() throws Exception {
+    delays.add(300L);
+    assertNotNull(testService.getEntityHedged().toBlocking().first());
+    //loser finishes meanwhile
+    Thread.sleep(500);
+    assertEquals(2, requests.get());
+    assertEquals(1, bodiesPreprocessed.get());
+  }
+
+  @Test
+  public void hedgesAreLimitedByBudget() throws Exception {
+    delays.add(2000L);
+    testService.getEntityHedged().toBlocking().first();
+    delays.add(300L);
+    long start = System.nanoTime();
+    testService.getEntityHedged().toBlocking().first();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+    HedgeStats stats = preprocessAdapter.hedgeStats().get("GET /i");
+    assertEquals(2, stats.getCalls());
+    assertEquals(1, stats.getHedges());
+  }
+
+  @Test
+  public void delayFollowsPercentileOfRecentLatencies() throws Exception {
+    Hedger hedger = new Hedger(TestService.class.getDeclaredMethod("getEntityHedgedByPercentile").getAnnotation(Hedge.class), null, null);
+    assertEquals(TimeUnit.SECONDS.toNanos(1), hedger.stats().getDelayNanos());
+    for (int i = 1; i <= 32; i++) {
+      hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(29), hedger.stats().getDelayNanos());
+  }
+
+  interface OtherService {
+    @GET("/i")
+    @Hedge(delay = 100)
+    Observable<TestEntity> getEntityHedged();
+  }
+
+}
@@ -0,0 +1,185 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import retrofit2.http.GET;
+import rx.Observable;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.Assert.*;
+
+public class InterningPreprocessorTests {
+
+  @Test
+  public void equalEntitiesShareInstance() throws Exception {
+    InterningPreprocessor<String> preprocessor = new InterningPreprocessor<String>(100) {
+    };
+    String first = new String("value");
+    String second = new String("value");
+    assertSame(first, preprocessor.preprocess(first));
+    assertSame(first, preprocessor.preprocess(second));
+    assertNull(preprocessor.preprocess(null));
+    InternStats stats = preprocessor.stats();
+    assertEquals(1, stats.getEntityHits());
+    assertEquals(1, stats.getEntityMisses());
+    assertEquals(16, stats.getBytesSaved());
+  }
+
+  @Test
+  public void stringFieldsAreInterned() throws Exception {
+    InterningPreprocessor<TestEntity> preprocessor = createEntityInterner(100);
+    TestEntity first = preprocessor.preprocess(new TestEntity().setTestString(new String("name")));
+    TestEntity second = preprocessor.preprocess(new TestEntity().setTestString(new String("name")));
+    assertNotSame(first, second);
+    assertSame(first.getTestString(), second.getTestString());
+    assertEquals(1, preprocessor.stats().getStringHits());
+    assertEquals(48, preprocessor.stats().getBytesSaved());
+  }
+
+  @Test
+  public void tableIsBounded() throws Exception {
+    InterningPreprocessor<String> preprocessor = new InterningPreprocessor<String>(10) {
+    };
+    List<String> retained = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      retained.add(preprocessor.preprocess(String.valueOf(i)));
+    }
+    assertEquals(10, preprocessor.stats().getSize());
+    assertEquals(90, preprocessor.stats().getEvictions());
+  }
+
+  @Test
+  public void collectedEntitiesAreRemoved() throws Exception {
+    InterningPreprocessor<String> preprocessor = new InterningPreprocessor<String>(100) {
+    };
+    for (int i = 0; i < 10; i++) {
+      preprocessor.preprocess(new String("value" + i));
+    }
+    for (int i = 0; i < 50 && preprocessor.stats().getSize() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(0, preprocessor.stats().getSize());
+  }
+
+  @Test
+  public void elementsOfResponsesAreInterned() throws Exception {
+    HttpTestInterceptor interceptor = new HttpTestInterceptor();
+    InterningPreprocessor<TestEntity> preprocessor = createEntityInterner(100);
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(preprocessor)
+        .build();
+    TestService testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new NamedEntitiesConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "3");
+    interceptor.addToQueue(200, "2");
+    List<TestEntity> first = testService.getTestEntities().toBlocking().first();
+    List<TestEntity> second = testService.getTestEntities().toBlocking().first();
+    assertSame(first.get(0).getTestString(), second.get(1).getTestString());
+    assertEquals(4, preprocessor.stats().getStringHits());
+  }
+
+  @Test
+  public void subclassesAreInternedWithWildcardType() throws Exception {
+    HttpTestInterceptor interceptor = new HttpTestInterceptor();
+    InterningPreprocessor<TestEntity> preprocessor = createEntityInterner(100);
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(Types.subtypeOf(TestEntity.class), preprocessor)
+        .build();
+    NamedService namedService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new NamedEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(NamedService.class);
+    interceptor.addToQueue(200, "name");
+    interceptor.addToQueue(200, "name");
+    NamedEntity first = namedService.getNamed().toBlocking().first();
+    NamedEntity second = namedService.getNamed().toBlocking().first();
+    assertSame(first, second);
+    assertEquals(1, preprocessor.stats().getEntityHits());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void lowerBoundedWildcardIsRejected() throws Exception {
+    PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(Types.supertypeOf(TestEntity.class), createEntityInterner(100));
+  }
+
+  private static InterningPreprocessor<TestEntity> createEntityInterner(int maxEntries) {
+    return new InterningPreprocessor<TestEntity>(maxEntries) {
+      @Override
+      protected void internFields(TestEntity entity) {
+        entity.setTestString(intern(entity.getTestString()));
+      }
+    };
+  }
+
+  interface NamedService {
+    @GET("/n")
+    Observable<NamedEntity> getNamed();
+  }
+
+  /**
+   * Entity subclass that is equal to entities with same name
+   */
+  static class NamedEntity extends TestEntity {
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof NamedEntity && Objects.equals(getTestString(), ((NamedEntity) o).getTestString());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(getTestString());
+    }
+  }
+
+  private static class NamedEntityConverter extends Converter.Factory {
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+      return value -> new NamedEntity().setTestString(value.string());
+    }
+  }
+
+  /**
+   * Creates requested number of entities with same name
+   */
+  private static class NamedEntitiesConverter extends Converter.Factory {
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+      return new Converter<ResponseBody, List<TestEntity>>() {
+        @Override
+        public List<TestEntity> convert(ResponseBody value) throws java.io.IOException {
+          int size = Integer.parseInt(value.string());
+          List<TestEntity> result = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            result.add(new TestEntity().setTestString(new String("name")));
+          }
+          return result;
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsTests {
+
+  @Test
+  public void histogramBucketsCoverValues() throws Exception {
+    long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123_456_789, 1L << 40};
+    for (long value : values) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+      if (bucket > 0)
+        assertTrue(value > LatencyHistogram.highestValueOf(bucket - 1));
+    }
+    assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void percentilesAreCalculatedWithinBucketPrecision() throws Exception {
+    InMemoryMetricsSink sink = new InMemoryMetricsSink();
+    for (int i = 1; i <= 100; i++) {
+      sink.record("GET /a", Object.class, i * 1000, i == 100);
+    }
+    PreprocessorMetrics metrics = sink.snapshot().getMetrics().get(0);
+    assertEquals(100, metrics.getCount());
+    assertEquals(1, metrics.getErrors());
+    assertEquals(50_500, metrics.getMeanNanos());
+    long median = metrics.getPercentileNanos(50);
+    assertTrue(median >= 50_000 && median < 50_000 * 17 / 16);
+  }
+
+  @Test
+  public void recordsEveryPreprocessorOfEndpoint() throws Exception {
+    HttpTestInterceptor interceptor = new HttpTestInterceptor();
+    InMemoryMetricsSink sink = new InMemoryMetricsSink();
+    Preprocessor<Observable<TestEntity>> preprocessor = new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source;
+      }
+    };
+    BodyPreprocessor<TestEntity> failingPreprocessor = new BodyPreprocessor<TestEntity>() {
+      @Override
+      public TestEntity preprocess(TestEntity body) {
+        throw new IllegalStateException();
+      }
+    };
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(preprocessor)
+        .addBodyPreprocessor(failingPreprocessor)
+        .metricsSink(sink)
+        .build();
+    TestService testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "");
+    testService.getEntity().subscribe(entity -> fail(), error -> assertTrue(error instanceof IllegalStateException));
+    Map<Class<?>, PreprocessorMetrics> byPreprocessor = sink.snapshot().byPreprocessor();
+    assertEquals(1, byPreprocessor.get(preprocessor.getClass()).getCount());
+    assertEquals(0, byPreprocessor.get(preprocessor.getClass()).getErrors());
+    assertEquals(1, byPreprocessor.get(failingPreprocessor.getClass()).getErrors());
+    assertEquals(2, sink.snapshot().byEndpoint().get("GET /a").getCount());
+    sink.reset();
+    assertTrue(sink.snapshot().getMetrics().isEmpty());
+    interceptor.addToQueue(200, "");
+    testService.getEntity().subscribe(entity -> fail(), error -> assertTrue(error instanceof IllegalStateException));
+    assertEquals(1, sink.snapshot().byPreprocessor().get(failingPreprocessor.getClass()).getErrors());
+  }
+
+}
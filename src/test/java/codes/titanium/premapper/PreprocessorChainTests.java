@@ -0,0 +1,59 @@
+package codes.titanium.premapper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreprocessorChainTests {
+
+  @Test
+  public void unrolledAndIteratedChainsKeepOrder() throws Exception {
+    for (int length = 1; length <= 5; length++) {
+      List<Preprocessor> preprocessors = new ArrayList<>();
+      StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < length; i++) {
+        preprocessors.add(appending(String.valueOf(i)));
+        expected.append(i);
+      }
+      assertEquals(expected.toString(), PreprocessorChain.compile(preprocessors).preprocess(""));
+    }
+  }
+
+  @Test
+  public void tripleChainPassesResultOfEveryPreprocessorToNextOne() throws Exception {
+    List<Preprocessor> preprocessors = Arrays.<Preprocessor>asList(appending("a"), appending("b"), appending("c"));
+    Preprocessor<Object> chain = PreprocessorChain.compile(preprocessors);
+    assertEquals("Triple", chain.getClass().getSimpleName());
+    assertEquals("-abc", chain.preprocess("-"));
+  }
+
+  @Test
+  public void bodyChainStopsOnDroppedEntity() throws Exception {
+    List<BodyPreprocessor> preprocessors = Arrays.<BodyPreprocessor>asList(new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        return null;
+      }
+    }, new BodyPreprocessor<Object>() {
+      @Override
+      public Object preprocess(Object body) {
+        throw new AssertionError("Dropped entity is passed further");
+      }
+    });
+    assertNull(PreprocessorChain.compileBody(preprocessors).preprocess("entity"));
+  }
+
+  private static Preprocessor<String> appending(String suffix) {
+    return new Preprocessor<String>() {
+      @Override
+      public String preprocess(String source) {
+        return source + suffix;
+      }
+    };
+  }
+
+}
@@ -0,0 +1,146 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestService;
+import org.junit.Test;
+import rx.Observable;
+import rx.Single;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static codes.titanium.premapper.ReflectionUtils.isAssignableFromTo;
+import static org.junit.Assert.*;
+
+public class PreprocessorIndexTests {
+
+  @Test
+  public void lookupMatchesFullScanForAllCombinations() throws Exception {
+    List<PreprocessorIndex.Entry<String>> entries = new ArrayList<>();
+    for (Method method : PreprocessorTypes.class.getDeclaredMethods()) {
+      entries.add(new PreprocessorIndex.Entry<>(method.getName(), method.getGenericReturnType(), entries.size()));
+    }
+    PreprocessorIndex<String> index = new PreprocessorIndex<>(entries);
+    List<Type> returnTypes = new ArrayList<>();
+    for (Method method : ReturnTypes.class.getDeclaredMethods()) {
+      returnTypes.add(method.getGenericReturnType());
+    }
+    for (Method method : TestService.class.getDeclaredMethods()) {
+      returnTypes.add(method.getGenericReturnType());
+    }
+    for (Type returnType : returnTypes) {
+      List<String> expected = new ArrayList<>();
+      for (PreprocessorIndex.Entry<String> entry : entries) {
+        if (isAssignableFromTo(returnType, entry.type))
+          expected.add(entry.preprocessor);
+      }
+      assertEquals(returnType.toString(), expected, index.lookup(returnType));
+    }
+  }
+
+  @Test
+  public void keepsRegistrationOrderBetweenBuckets() throws Exception {
+    Preprocessor<Observable<?>> wildcard = new Preprocessor<Observable<?>>() {
+      @Override
+      public Observable<?> preprocess(Observable<?> source) {
+        return source;
+      }
+    };
+    Preprocessor<Observable<TestEntity>> exact = new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source;
+      }
+    };
+    Preprocessor<Observable<? extends TestEntity>> subclasses = new Preprocessor<Observable<? extends TestEntity>>() {
+      @Override
+      public Observable<? extends TestEntity> preprocess(Observable<? extends TestEntity> source) {
+        return source;
+      }
+    };
+    PreprocessorIndex<Preprocessor> index = PreprocessorIndex.of(Arrays.asList(exact, wildcard, subclasses));
+    Type entityType = TestService.class.getDeclaredMethod("getEntity").getGenericReturnType();
+    assertEquals(Arrays.<Preprocessor>asList(exact, wildcard, subclasses), index.lookup(entityType));
+  }
+
+  @Test
+  public void notMatchedTypesReturnEmptyList() throws Exception {
+    PreprocessorIndex<Preprocessor> index = PreprocessorIndex.of(Collections.<Preprocessor>emptyList());
+    Type entityType = TestService.class.getDeclaredMethod("getEntity").getGenericReturnType();
+    assertTrue(index.lookup(entityType).isEmpty());
+  }
+
+  private static abstract class PreprocessorTypes {
+
+    abstract Observable<?> fullWildCard();
+
+    abstract Observable<List<? extends Serializable>> serializableWildCard();
+
+    abstract Observable<? extends List<? extends Set>> wildListWildSet();
+
+    abstract Observable<List<HashSet>> listSet();
+
+    abstract Observable<List<String>> listString();
+
+    abstract Observable<Set<String>> setString();
+
+    abstract Observable<Object> object();
+
+    abstract Observable<List> rawList();
+
+    abstract Observable<Map<List, String>> mapListString();
+
+    abstract Observable<Map<? extends List, ?>> mapWildcardListWildcardObject();
+
+    abstract Observable<TestEntity> entity();
+
+    abstract Observable<? extends TestEntity> entitySubclasses();
+
+    abstract Single<TestEntity> singleEntity();
+
+    abstract Single<?> singleWildCard();
+
+    abstract Observable rawObservable();
+
+    abstract String string();
+
+  }
+
+  /**
+   * Retrofit does not allow wildcards inside of return types
+   */
+  private static abstract class ReturnTypes {
+
+    abstract Observable<List<HashSet>> listSet();
+
+    abstract Observable<List<String>> listString();
+
+    abstract Observable<Set<String>> setString();
+
+    abstract Observable<Object> object();
+
+    abstract Observable<List> rawList();
+
+    abstract Observable<Map<List, String>> mapListString();
+
+    abstract Observable<Map<Set, String>> mapSetString();
+
+    abstract Observable<TestEntity> entity();
+
+    abstract Single<TestEntity> singleEntity();
+
+    abstract Observable rawObservable();
+
+    abstract String string();
+
+  }
+
+}
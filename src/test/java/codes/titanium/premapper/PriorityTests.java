@@ -0,0 +1,164 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PriorityTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final AtomicInteger expensiveInvocations = new AtomicInteger();
+
+  private TestService createService(PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void preprocessorsAreOrderedByPriority() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(appending("a", 0))
+        .addPreprocessor(appending("b", 10))
+        .addPreprocessor(appending("c", 0))
+        .addPreprocessor(appending("d", -1))
+        .build());
+    interceptor.addToQueue(200, "");
+    assertEquals("bacd", testService.getEntity().toBlocking().first().getTestString());
+  }
+
+  @Test
+  public void droppedElementsSkipRemainingPreprocessors() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            expensiveInvocations.incrementAndGet();
+            return body;
+          }
+        })
+        .addBodyFilter(new PrioritizedFilter())
+        .build());
+    interceptor.addToQueue(200, "4");
+    List<TestEntity> entities = testService.getTestEntities().toBlocking().first();
+    assertEquals(2, entities.size());
+    assertNotNull(entities.get(0));
+    assertNotNull(entities.get(1));
+    assertEquals(2, expensiveInvocations.get());
+  }
+
+  @Test
+  public void droppedBodyFailsCallBeforeAdapterPreprocessors() throws Exception {
+    AtomicInteger adapted = new AtomicInteger();
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(new Preprocessor<Observable<TestEntity>>() {
+          @Override
+          public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+            return source.doOnNext(entity -> adapted.incrementAndGet());
+          }
+        })
+        .addBodyFilter(TestEntity.class, body -> false)
+        .build());
+    interceptor.addToQueue(200, "");
+    try {
+      testService.getEntity().toBlocking().first();
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof DroppedBodyException);
+    }
+    assertEquals(0, adapted.get());
+  }
+
+  @Test
+  public void bodyPreprocessorReturningNullDropsBody() throws Exception {
+    AtomicInteger remaining = new AtomicInteger();
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(TestEntity.class, body -> null)
+        .addBodyPreprocessor(TestEntity.class, body -> {
+          remaining.incrementAndGet();
+          return body;
+        })
+        .build());
+    interceptor.addToQueue(200, "");
+    try {
+      testService.getEntityCall().execute();
+      fail();
+    } catch (DroppedBodyException e) {
+      assertEquals(0, remaining.get());
+    }
+  }
+
+  @Test
+  public void rejectingFilterFailsCall() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyFilter(TestEntity.class, body -> {
+          throw new IllegalStateException("invalid entity");
+        })
+        .build());
+    interceptor.addToQueue(200, "");
+    try {
+      testService.getEntityCall().execute();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("invalid entity", e.getMessage());
+    }
+  }
+
+  private static Preprocessor<Observable<TestEntity>> appending(String suffix, int priority) {
+    return new AppendingPreprocessor(suffix, priority);
+  }
+
+  private static class AppendingPreprocessor implements Preprocessor<Observable<TestEntity>>, Prioritized {
+    private final String suffix;
+    private final int priority;
+
+    private AppendingPreprocessor(String suffix, int priority) {
+      this.suffix = suffix;
+      this.priority = priority;
+    }
+
+    @Override
+    public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+      return source.doOnNext(entity -> entity.setTestString(entity.getTestString() == null ? suffix : entity.getTestString() + suffix));
+    }
+
+    @Override
+    public int getPriority() {
+      return priority;
+    }
+  }
+
+  /**
+   * Drops every second entity, registered after expensive preprocessor but runs before it
+   */
+  private static class PrioritizedFilter implements BodyFilter<TestEntity>, Prioritized {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public boolean accept(TestEntity body) {
+      return count.getAndIncrement() % 2 == 0;
+    }
+
+    @Override
+    public int getPriority() {
+      return 100;
+    }
+  }
+
+}
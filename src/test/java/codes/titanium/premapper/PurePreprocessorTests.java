@@ -0,0 +1,169 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PurePreprocessorTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final AtomicInteger computations = new AtomicInteger();
+
+  @Test
+  public void resultIsMemoizedByResponseContent() throws Exception {
+    PurePreprocessor<TestEntity> preprocessor = new PurePreprocessor<TestEntity>(10) {
+      @Override
+      protected TestEntity compute(TestEntity body) {
+        return new TestEntity().setTestInt(computations.incrementAndGet());
+      }
+    };
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(preprocessor)
+        .build();
+    TestService testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "same");
+    interceptor.addToQueue(200, "same");
+    interceptor.addToQueue(200, "other");
+    TestEntity first = testService.getEntityCall().execute().body();
+    assertSame(first, testService.getEntityCall().execute().body());
+    assertEquals(2, testService.getEntityCall().execute().body().getTestInt());
+    assertEquals(2, computations.get());
+    assertEquals(1, preprocessor.stats().getHits());
+    assertEquals(2, preprocessor.stats().getMisses());
+  }
+
+  @Test
+  public void resultIsMemoizedByKeyOfEntity() throws Exception {
+    PurePreprocessor<TestEntity> preprocessor = new PurePreprocessor<TestEntity>(1) {
+      @Override
+      protected TestEntity compute(TestEntity body) {
+        computations.incrementAndGet();
+        return new TestEntity().setTestString(body.getTestString().toUpperCase());
+      }
+
+      @Override
+      protected Object keyOf(TestEntity body) {
+        return body.getTestString();
+      }
+    };
+    TestEntity first = preprocessor.preprocess(new TestEntity().setTestString("a"));
+    assertSame(first, preprocessor.preprocess(new TestEntity().setTestString("a")));
+    assertEquals("B", preprocessor.preprocess(new TestEntity().setTestString("b")).getTestString());
+    assertNotSame(first, preprocessor.preprocess(new TestEntity().setTestString("a")));
+    assertEquals(3, computations.get());
+    assertEquals(2, preprocessor.stats().getEvictions());
+    assertEquals(0.25, preprocessor.stats().getHitRatio(), 0.001);
+  }
+
+  @Test
+  public void entityWithoutFingerprintIsComputedEveryTime() throws Exception {
+    PurePreprocessor<TestEntity> preprocessor = new PurePreprocessor<TestEntity>(10) {
+      @Override
+      protected TestEntity compute(TestEntity body) {
+        computations.incrementAndGet();
+        return body;
+      }
+    };
+    TestEntity entity = new TestEntity();
+    preprocessor.preprocess(entity);
+    preprocessor.preprocess(entity);
+    assertEquals(2, computations.get());
+    assertEquals(0, preprocessor.stats().getMisses());
+  }
+
+  @Test
+  public void inputReturnedAsResultIsNotMemoized() throws Exception {
+    PurePreprocessor<TestEntity> preprocessor = new PurePreprocessor<TestEntity>(10) {
+      @Override
+      protected TestEntity compute(TestEntity body) {
+        computations.incrementAndGet();
+        return body;
+      }
+
+      @Override
+      protected Object keyOf(TestEntity body) {
+        return body.getTestString();
+      }
+    };
+    TestEntity first = new TestEntity().setTestString("a");
+    TestEntity second = new TestEntity().setTestString("a");
+    assertSame(first, preprocessor.preprocess(first));
+    assertSame(second, preprocessor.preprocess(second));
+    assertEquals(2, computations.get());
+    assertEquals(0, preprocessor.stats().getSize());
+  }
+
+  @Test
+  public void memoizedResultIsCopied() throws Exception {
+    PurePreprocessor<TestEntity> preprocessor = new PurePreprocessor<TestEntity>(10) {
+      @Override
+      protected TestEntity compute(TestEntity body) {
+        computations.incrementAndGet();
+        return new TestEntity().setTestString(body.getTestString().toUpperCase());
+      }
+
+      @Override
+      protected Object keyOf(TestEntity body) {
+        return body.getTestString();
+      }
+
+      @Override
+      protected TestEntity copy(TestEntity memoized) {
+        return new TestEntity().setTestString(memoized.getTestString());
+      }
+    };
+    preprocessor.preprocess(new TestEntity().setTestString("a")).setTestString("modified");
+    assertEquals("A", preprocessor.preprocess(new TestEntity().setTestString("a")).getTestString());
+    assertEquals(1, computations.get());
+  }
+
+  @Test
+  public void fingerprintIsNotUsedAfterOtherPreprocessors() throws Exception {
+    PurePreprocessor<TestEntity> preprocessor = new PurePreprocessor<TestEntity>(10) {
+      @Override
+      protected TestEntity compute(TestEntity body) {
+        return new TestEntity().setTestInt(computations.incrementAndGet());
+      }
+    };
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            return body.setTestString("modified");
+          }
+        })
+        .addBodyPreprocessor(preprocessor)
+        .build();
+    TestService testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+    interceptor.addToQueue(200, "same");
+    interceptor.addToQueue(200, "same");
+    testService.getEntityCall().execute();
+    testService.getEntityCall().execute();
+    assertEquals(2, computations.get());
+    assertEquals(0, preprocessor.stats().getMisses());
+  }
+
+}
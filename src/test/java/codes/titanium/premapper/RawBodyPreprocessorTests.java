@@ -0,0 +1,99 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okio.BufferedSource;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RawBodyPreprocessorTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final List<String> seenBodies = new ArrayList<>();
+
+  private TestService createService(PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  private RawBodyPreprocessor<List<TestEntity>> recordingPreprocessor() {
+    return new RawBodyPreprocessor<List<TestEntity>>() {
+      @Override
+      public void preprocess(BufferedSource source, MediaType contentType) throws IOException {
+        seenBodies.add(source.readUtf8());
+      }
+    };
+  }
+
+  @Test
+  public void rawPreprocessorDoesNotConsumeResponse() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addRawBodyPreprocessor(recordingPreprocessor())
+        .addRawBodyPreprocessor(recordingPreprocessor())
+        .build());
+    interceptor.addToQueue(200, "3");
+    List<TestEntity> entities = testService.getTestEntities().toBlocking().first();
+    assertEquals(3, entities.size());
+    assertEquals(2, seenBodies.size());
+    assertEquals("3", seenBodies.get(0));
+    assertEquals("3", seenBodies.get(1));
+  }
+
+  @Test
+  public void rawPreprocessorIsMatchedByType() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addRawBodyPreprocessor(recordingPreprocessor())
+        .build());
+    interceptor.addToQueue(200, "");
+    testService.getEntity().toBlocking().first();
+    assertTrue(seenBodies.isEmpty());
+  }
+
+  @Test
+  public void rawPreprocessorWithExplicitType() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addRawBodyPreprocessor(TestEntity.class, (source, contentType) -> seenBodies.add(contentType.subtype()))
+        .build());
+    interceptor.addToQueue(200, "");
+    testService.getEntity().toBlocking().first();
+    assertEquals("plain", seenBodies.get(0));
+  }
+
+  @Test
+  public void rawPreprocessorFailsCall() throws Exception {
+    TestService testService = createService(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addRawBodyPreprocessor(new RawBodyPreprocessor<List<TestEntity>>() {
+          @Override
+          public void preprocess(BufferedSource source, MediaType contentType) throws IOException {
+            if (!source.readUtf8().equals("2"))
+              throw new IOException("Checksum does not match");
+          }
+        })
+        .build());
+    interceptor.addToQueue(200, "3");
+    try {
+      testService.getTestEntities().toBlocking().first();
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("Checksum does not match", e.getCause().getMessage());
+    }
+  }
+
+}
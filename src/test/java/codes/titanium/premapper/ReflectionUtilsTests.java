@@ -32,6 +32,7 @@ public class ReflectionUtilsTests {
   @Test
   public void notWorkingForLambdas() throws Exception {
     Preprocessor<String> lambdaPreprocessor = source -> source;
+    thrown.expectMessage("explicit type");
     thrown.expect(IllegalStateException.class);
     getFirstNonSyntheticMethodForName(lambdaPreprocessor, "preprocess");
   }
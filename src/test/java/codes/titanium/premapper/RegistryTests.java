@@ -0,0 +1,132 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class RegistryTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final PreprocessorRegistry registry = new PreprocessorRegistry();
+  private TestService testService;
+
+  @Before
+  public void setUp() throws Exception {
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .registry(registry)
+        .build();
+    testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void registeredPreprocessorIsAppliedToBuiltService() throws Exception {
+    assertNull(fetch().getTestString());
+    Preprocessor<Observable<TestEntity>> preprocessor = namePreprocessor("registered");
+    assertTrue(registry.register(preprocessor));
+    assertEquals("registered", fetch().getTestString());
+    assertTrue(registry.unregister(preprocessor));
+    assertNull(fetch().getTestString());
+  }
+
+  @Test
+  public void keepsRegistrationOrder() throws Exception {
+    Preprocessor<Observable<TestEntity>> first = namePreprocessor("first");
+    Preprocessor<Observable<TestEntity>> second = namePreprocessor("second");
+    registry.register(first);
+    registry.register(second);
+    assertFalse(registry.register(first));
+    assertEquals(Arrays.<Preprocessor>asList(first, second), registry.getPreprocessors());
+    assertEquals("second", fetch().getTestString());
+    registry.unregister(second);
+    assertEquals("first", fetch().getTestString());
+    assertFalse(registry.unregister(second));
+    assertEquals(3, registry.getVersion());
+  }
+
+  @Test
+  public void ignoredEndpointIsNotPreprocessed() throws Exception {
+    registry.register(namePreprocessor("registered"));
+    interceptor.addToQueue(200, "");
+    assertNull(testService.getEntityIgnored().toBlocking().first().getTestString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void registryCantBeCombinedWithFixedPreprocessors() throws Exception {
+    PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .registry(registry)
+        .addPreprocessor(namePreprocessor("fixed"))
+        .build();
+  }
+
+  @Test
+  public void concurrentRegistrationsAreNotLost() throws Exception {
+    int threads = 4;
+    int perThread = 250;
+    List<Thread> workers = new ArrayList<>();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Preprocessor> removed = Collections.synchronizedList(new ArrayList<Preprocessor>());
+    for (int t = 0; t < threads; t++) {
+      Thread worker = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < perThread; i++) {
+          Preprocessor<Observable<TestEntity>> kept = namePreprocessor("kept");
+          Preprocessor<Observable<TestEntity>> dropped = namePreprocessor("dropped");
+          registry.register(kept);
+          registry.register(dropped);
+          if (registry.unregister(dropped))
+            removed.add(dropped);
+        }
+      });
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    assertEquals(threads * perThread, removed.size());
+    assertEquals(threads * perThread, registry.getPreprocessors().size());
+    assertEquals(threads * perThread * 3, registry.getVersion());
+    assertEquals("kept", fetch().getTestString());
+  }
+
+  private TestEntity fetch() {
+    interceptor.addToQueue(200, "");
+    return testService.getEntity().toBlocking().first();
+  }
+
+  private static Preprocessor<Observable<TestEntity>> namePreprocessor(String name) {
+    return new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source.map(entity -> entity.setTestString(name));
+      }
+    };
+  }
+
+}
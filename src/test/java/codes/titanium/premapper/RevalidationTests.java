@@ -0,0 +1,155 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RevalidationTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final AtomicInteger preprocessed = new AtomicInteger();
+  //runs once before next request reaches network
+  private volatile Runnable beforeNetwork;
+  private PreprocessAdapter preprocessAdapter;
+  private TestService testService;
+
+  @Before
+  public void setUp() throws Exception {
+    preprocessAdapter = PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .decorateNextAdapters()
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            return body.setTestInt(preprocessed.incrementAndGet());
+          }
+        })
+        .addPreprocessor(new Preprocessor<Observable<TestEntity>>() {
+          @Override
+          public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+            return source.map(entity -> entity.setTestString(entity.getTestString() == null ? "adapted" : "adapted twice"));
+          }
+        })
+        .build();
+    testService = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder()
+            .addInterceptor(preprocessAdapter.revalidationInterceptor())
+            .addInterceptor(chain -> {
+              Runnable runnable = beforeNetwork;
+              beforeNetwork = null;
+              if (runnable != null)
+                runnable.run();
+              return chain.proceed(chain.request());
+            })
+            .addInterceptor(interceptor)
+            .build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+  @Test
+  public void notModifiedResponseIsReplacedWithKeptOne() throws Exception {
+    interceptor.addToQueue(200, "", Headers.of("ETag", "\"v1\"", "Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT"));
+    interceptor.addToQueue(304, "", Headers.of("ETag", "\"v1\""));
+    TestEntity first = testService.getEntityRevalidated(1).execute().body();
+    assertNull(interceptor.getLastRequest().header("If-None-Match"));
+    Response<TestEntity> second = testService.getEntityRevalidated(1).execute();
+    assertEquals("\"v1\"", interceptor.getLastRequest().header("If-None-Match"));
+    assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", interceptor.getLastRequest().header("If-Modified-Since"));
+    assertTrue(second.isSuccessful());
+    assertSame(first, second.body());
+    assertEquals(1, preprocessed.get());
+    assertEquals(1, preprocessAdapter.revalidationStats().get("GET /p").getHits());
+  }
+
+  @Test
+  public void modifiedResponseReplacesKeptOne() throws Exception {
+    interceptor.addToQueue(200, "", Headers.of("ETag", "\"v1\""));
+    interceptor.addToQueue(200, "", Headers.of("ETag", "\"v2\""));
+    interceptor.addToQueue(304, "");
+    testService.getEntityRevalidated(1).execute();
+    TestEntity second = testService.getEntityRevalidated(1).execute().body();
+    assertSame(second, testService.getEntityRevalidated(1).execute().body());
+    assertEquals("\"v2\"", interceptor.getLastRequest().header("If-None-Match"));
+    assertEquals(2, preprocessed.get());
+  }
+
+  @Test
+  public void responsesAreKeptPerRequestAndBounded() throws Exception {
+    for (int id = 0; id < 3; id++) {
+      interceptor.addToQueue(200, "", Headers.of("ETag", "\"" + id + "\""));
+      testService.getEntityRevalidated(id).execute();
+    }
+    interceptor.addToQueue(200, "");
+    testService.getEntityRevalidated(0).execute();
+    assertNull(interceptor.getLastRequest().header("If-None-Match"));
+    interceptor.addToQueue(304, "");
+    testService.getEntityRevalidated(2).execute();
+    assertEquals("\"2\"", interceptor.getLastRequest().header("If-None-Match"));
+    assertEquals(1, preprocessAdapter.revalidationStats().get("GET /p").getEvictions());
+  }
+
+  @Test
+  public void responseWithoutValidatorsIsNotKept() throws Exception {
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    testService.getEntityRevalidated(1).execute();
+    testService.getEntityRevalidated(1).execute();
+    assertNull(interceptor.getLastRequest().header("If-None-Match"));
+    assertEquals(0, preprocessAdapter.revalidationStats().get("GET /p").getSize());
+  }
+
+  @Test
+  public void validatedEntryIsReturnedEvenIfEvicted() throws Exception {
+    interceptor.addToQueue(200, "", Headers.of("ETag", "\"v1\""));
+    TestEntity first = testService.getEntityRevalidated(1).execute().body();
+    beforeNetwork = () -> {
+      try {
+        for (int id = 2; id < 4; id++) {
+          interceptor.addToQueue(200, "", Headers.of("ETag", "\"" + id + "\""));
+          testService.getEntityRevalidated(id).execute();
+        }
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+      interceptor.addToQueue(304, "");
+    };
+    Response<TestEntity> second = testService.getEntityRevalidated(1).execute();
+    assertEquals("\"v1\"", interceptor.getLastRequest().header("If-None-Match"));
+    assertTrue(second.isSuccessful());
+    assertSame(first, second.body());
+    assertEquals(1, preprocessAdapter.revalidationStats().get("GET /p").getEvictions());
+  }
+
+  @Test
+  public void keptBodyIsConvertedAgainForAdapterPreprocessors() throws Exception {
+    interceptor.addToQueue(200, "", Headers.of("ETag", "\"v1\""));
+    interceptor.addToQueue(304, "");
+    TestEntity first = testService.getEntityRevalidatedObservable().toBlocking().first();
+    TestEntity second = testService.getEntityRevalidatedObservable().toBlocking().first();
+    assertEquals("\"v1\"", interceptor.getLastRequest().header("If-None-Match"));
+    assertNotSame(first, second);
+    assertEquals("adapted", first.getTestString());
+    assertEquals("adapted", second.getTestString());
+    assertEquals(2, preprocessed.get());
+    assertEquals(1, preprocessAdapter.revalidationStats().get("GET /r").getHits());
+  }
+
+}
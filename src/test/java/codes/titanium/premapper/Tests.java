@@ -30,15 +30,21 @@ public class Tests {
   }
 
   private void initRetrofit(List<Preprocessor> preprocessors) {
+    initRetrofit(preprocessors, Collections.emptyList());
+  }
+
+  private void initRetrofit(List<Preprocessor> preprocessors, List<BodyPreprocessor> bodyPreprocessors) {
     OkHttpClient client = new OkHttpClient.Builder()
         .addInterceptor(interceptor)
         .build();
+    PreprocessAdapter preprocessAdapter = PreprocessAdapter.create(RxJavaCallAdapterFactory.create(), preprocessors, bodyPreprocessors);
     Retrofit retrofit = new Retrofit.Builder()
         .baseUrl("http://example.com")
         .client(client)
+        .addConverterFactory(preprocessAdapter.converterFactory())
         .addConverterFactory(new TestEntityConverter())
         .addConverterFactory(new StringConverter())
-        .addCallAdapterFactory(PreprocessAdapter.create(RxJavaCallAdapterFactory.create(), preprocessors))
+        .addCallAdapterFactory(preprocessAdapter)
         .build();
     testService = retrofit.create(TestService.class);
   }
@@ -125,6 +131,69 @@ public class Tests {
     subscriber.assertNoErrors();
   }
 
+  @Test
+  public void longChainKeepsOrder() throws Exception {
+    List<Preprocessor> preprocessors = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      preprocessors.add(createAppendingTestEntityPreprocessor(String.valueOf(i)));
+    }
+    initRetrofit(preprocessors);
+    interceptor.addToQueue(200, "");
+    TestSubscriber<TestEntity> subscriber = new TestSubscriber<>();
+    testService.getEntity().subscribe(subscriber);
+    TestEntity testEntity = subscriber.getOnNextEvents().get(0);
+    Assert.assertEquals("01234", testEntity.getTestString());
+    subscriber.assertCompleted();
+    subscriber.assertNoErrors();
+  }
+
+  @Test
+  public void bodyPreprocessorWorksWithObservable() throws Exception {
+    String name = "testName";
+    initRetrofit(Collections.emptyList(), Collections.singletonList(createDefaultTestEntityBodyPreprocessor(name)));
+    interceptor.addToQueue(200, "");
+    TestSubscriber<TestEntity> subscriber = new TestSubscriber<>();
+    testService.getEntity().subscribe(subscriber);
+    TestEntity testEntity = subscriber.getOnNextEvents().get(0);
+    Assert.assertSame(name, testEntity.getTestString());
+    subscriber.assertCompleted();
+    subscriber.assertNoErrors();
+  }
+
+  @Test
+  public void bodyPreprocessorWorksWithCall() throws Exception {
+    String name = "testName";
+    initRetrofit(Collections.emptyList(), Collections.singletonList(createDefaultTestEntityBodyPreprocessor(name)));
+    interceptor.addToQueue(200, "");
+    TestEntity testEntity = testService.getEntityCall().execute().body();
+    Assert.assertSame(name, testEntity.getTestString());
+  }
+
+  @Test
+  public void bodyPreprocessorIgnoredCorrectly() throws Exception {
+    initRetrofit(Collections.emptyList(), Collections.singletonList(createDefaultTestEntityBodyPreprocessor("testName")));
+    interceptor.addToQueue(200, "");
+    TestSubscriber<TestEntity> subscriber = new TestSubscriber<>();
+    testService.getEntityIgnored().subscribe(subscriber);
+    Assert.assertNull(subscriber.getOnNextEvents().get(0).getTestString());
+    subscriber.assertNoErrors();
+  }
+
+  @Test
+  public void bodyPreprocessorAppliedToListElements() throws Exception {
+    String name = "testName";
+    initRetrofit(Collections.emptyList(), Collections.singletonList(createDefaultTestEntityBodyPreprocessor(name)));
+    interceptor.addToQueue(200, "3");
+    TestSubscriber<List<TestEntity>> subscriber = new TestSubscriber<>();
+    testService.getTestEntities().subscribe(subscriber);
+    List<TestEntity> testEntities = subscriber.getOnNextEvents().get(0);
+    Assert.assertEquals(3, testEntities.size());
+    for (TestEntity testEntity : testEntities) {
+      Assert.assertSame(name, testEntity.getTestString());
+    }
+    subscriber.assertNoErrors();
+  }
+
   @Test
   public void noPreprocessorDoesNotChangesAnything() throws Exception {
     initRetrofit(new ArrayList<>());
@@ -146,4 +215,22 @@ public class Tests {
     };
   }
 
+  private BodyPreprocessor<TestEntity> createDefaultTestEntityBodyPreprocessor(String testName) {
+    return new BodyPreprocessor<TestEntity>() {
+      @Override
+      public TestEntity preprocess(TestEntity body) {
+        return body.setTestString(testName);
+      }
+    };
+  }
+
+  private Preprocessor<Observable<TestEntity>> createAppendingTestEntityPreprocessor(String suffix) {
+    return new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source.doOnNext(testEntity -> testEntity.setTestString(testEntity.getTestString() == null ? suffix : testEntity.getTestString() + suffix));
+      }
+    };
+  }
+
 }
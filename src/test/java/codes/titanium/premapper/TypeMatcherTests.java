@@ -0,0 +1,78 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.ParametrizedTestEntity;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestService;
+import org.junit.Test;
+import rx.Observable;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TypeMatcherTests {
+
+  @Test
+  public void keysOfEqualTypesFromDifferentImplementationsAreEqual() throws Exception {
+    Type reflectionType = TestService.class.getDeclaredMethod("getParametrized").getGenericReturnType();
+    Type createdType = Types.parameterized(Observable.class, Types.parameterized(List.class,
+        Types.parameterized(ParametrizedTestEntity.class, Types.parameterized(Map.class, ArrayList.class, Set.class), String.class)));
+    TypeMatcher.TypeKey reflectionKey = TypeMatcher.TypeKey.of(reflectionType);
+    TypeMatcher.TypeKey createdKey = TypeMatcher.TypeKey.of(createdType);
+    assertEquals(reflectionKey, createdKey);
+    assertEquals(reflectionKey.hashCode(), createdKey.hashCode());
+    assertNotEquals(reflectionKey, TypeMatcher.TypeKey.of(Types.parameterized(Observable.class, Types.subtypeOf(List.class))));
+  }
+
+  @Test
+  public void wildcardsAndClassesHaveDifferentKeys() throws Exception {
+    assertNotEquals(TypeMatcher.TypeKey.of(Types.parameterized(List.class, String.class)),
+        TypeMatcher.TypeKey.of(Types.parameterized(List.class, Types.subtypeOf(String.class))));
+    assertNotEquals(TypeMatcher.TypeKey.of(Types.parameterized(List.class, Types.supertypeOf(String.class))),
+        TypeMatcher.TypeKey.of(Types.parameterized(List.class, Types.subtypeOf(String.class))));
+  }
+
+  @Test
+  public void sameComparisonIsMemoized() throws Exception {
+    Type reflectionType = TestService.class.getDeclaredMethod("getTestEntities").getGenericReturnType();
+    Type preprocessedType = Types.parameterized(Observable.class, Types.subtypeOf(Types.parameterized(List.class, Types.subtypeOf(Object.class))));
+    assertTrue(TypeMatcher.isAssignableFromTo(reflectionType, preprocessedType));
+    long hits = TypeMatcher.stats().getHits();
+    Type sameType = Types.parameterized(Observable.class, Types.parameterized(List.class, codes.titanium.premapper.infra.TestEntity.class));
+    assertTrue(TypeMatcher.isAssignableFromTo(sameType, preprocessedType));
+    assertEquals(hits + 1, TypeMatcher.stats().getHits());
+  }
+
+  @Test
+  public void statsAreExposedByAdapter() throws Exception {
+    Type preprocessedType = Types.parameterized(Observable.class, Types.subtypeOf(Number.class));
+    long misses = PreprocessAdapter.typeMatchStats().getMisses();
+    assertTrue(TypeMatcher.isAssignableFromTo(Types.parameterized(Observable.class, Short.class), preprocessedType));
+    CacheStats stats = PreprocessAdapter.typeMatchStats();
+    assertEquals(misses + 1, stats.getMisses());
+    assertEquals(TypeMatcher.stats().getEvictions(), stats.getEvictions());
+  }
+
+  @Test
+  public void maxEntriesAreConfigurable() throws Exception {
+    assertEquals(TypeMatcher.DEFAULT_MAX_ENTRIES, TypeMatcher.maxEntries(null));
+    assertEquals(20000, TypeMatcher.maxEntries(" 20000"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void nonPositiveMaxEntriesAreRejected() throws Exception {
+    TypeMatcher.maxEntries("0");
+  }
+
+  @Test
+  public void typeVariablesAreComparedWithoutCache() throws Exception {
+    Type variable = Observable.class.getTypeParameters()[0];
+    assertNull(TypeMatcher.TypeKey.of(Types.parameterized(Observable.class, variable)));
+    assertFalse(TypeMatcher.isAssignableFromTo(Types.parameterized(Observable.class, String.class), Types.parameterized(Observable.class, variable)));
+  }
+
+}
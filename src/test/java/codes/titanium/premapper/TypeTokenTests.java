@@ -0,0 +1,78 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import org.junit.Test;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TypeTokenTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+
+  @Test
+  public void capturesGenericType() throws Exception {
+    Type expected = TestService.class.getDeclaredMethod("getTestEntities").getGenericReturnType();
+    assertEquals(expected, new TypeToken<Observable<List<TestEntity>>>() {
+    }.getType());
+    assertEquals(expected, Types.parameterized(Observable.class, Types.parameterized(List.class, TestEntity.class)));
+  }
+
+  @Test
+  public void lambdasWithTypeTokensArePreprocessing() throws Exception {
+    TestService testService = create(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create())
+        .addPreprocessor(new TypeToken<Observable<TestEntity>>() {
+        }, source -> source.map(entity -> entity.setTestInt(1)))
+        .addBodyPreprocessor(TestEntity.class, (BodyPreprocessor<TestEntity>) body -> body.setTestString("body")));
+    interceptor.addToQueue(200, "");
+    TestEntity result = testService.getEntity().toBlocking().first();
+    assertEquals(1, result.getTestInt());
+    assertEquals("body", result.getTestString());
+  }
+
+  @Test
+  public void methodReferencesWithTypesArePreprocessing() throws Exception {
+    PreprocessorRegistry registry = new PreprocessorRegistry();
+    TestService testService = create(PreprocessAdapter.builder(RxJavaCallAdapterFactory.create()).registry(registry));
+    registry.register(Types.parameterized(Observable.class, Types.subtypeOf(TestEntity.class)), (Preprocessor<Observable<TestEntity>>) TypeTokenTests::named);
+    interceptor.addToQueue(200, "");
+    assertEquals("named", testService.getEntity().toBlocking().first().getTestString());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void lambdasWithoutTypesAreRejected() throws Exception {
+    Preprocessor<Observable<TestEntity>> lambda = source -> source;
+    PreprocessAdapter.builder(RxJavaCallAdapterFactory.create()).addPreprocessor(lambda).build();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void typeVariablesAreRejected() throws Exception {
+    PreprocessAdapter.builder(RxJavaCallAdapterFactory.create()).addPreprocessor(Observable.class.getTypeParameters()[0], source -> source);
+  }
+
+  private static Observable<TestEntity> named(Observable<TestEntity> source) {
+    return source.map(entity -> entity.setTestString("named"));
+  }
+
+  private TestService create(PreprocessAdapter.Builder builder) {
+    PreprocessAdapter preprocessAdapter = builder.build();
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build()
+        .create(TestService.class);
+  }
+
+}
@@ -0,0 +1,130 @@
+package codes.titanium.premapper;
+
+import codes.titanium.premapper.infra.HttpTestInterceptor;
+import codes.titanium.premapper.infra.TestEntity;
+import codes.titanium.premapper.infra.TestEntityConverter;
+import codes.titanium.premapper.infra.TestService;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+import retrofit2.CallAdapter;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava.RxJavaCallAdapterFactory;
+import rx.Observable;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WarmUpTests {
+
+  private final HttpTestInterceptor interceptor = new HttpTestInterceptor();
+  private final AtomicInteger resolutions = new AtomicInteger();
+
+  private Retrofit createRetrofit(PreprocessAdapter preprocessAdapter) {
+    return new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new TestEntityConverter())
+        .addCallAdapterFactory(preprocessAdapter)
+        .build();
+  }
+
+  private PreprocessAdapter.Builder countingBuilder() {
+    final RxJavaCallAdapterFactory rxFactory = RxJavaCallAdapterFactory.create();
+    return PreprocessAdapter.builder(new CallAdapter.Factory() {
+      @Override
+      public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+        resolutions.incrementAndGet();
+        return rxFactory.get(returnType, annotations, retrofit);
+      }
+    });
+  }
+
+  @Test
+  public void warmedEndpointsAreNotResolvedAgain() throws Exception {
+    PreprocessAdapter preprocessAdapter = countingBuilder()
+        .addPreprocessor(new Preprocessor<Observable<TestEntity>>() {
+          @Override
+          public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+            return source.doOnNext(entity -> entity.setTestString("warm"));
+          }
+        })
+        .build();
+    Retrofit retrofit = createRetrofit(preprocessAdapter);
+    Map<Class<?>, Long> report = PreprocessAdapter.warmUp(retrofit, TestService.class);
+    assertEquals(TestService.class.getDeclaredMethods().length, resolutions.get());
+    assertTrue(report.get(TestService.class) > 0);
+    TestService testService = retrofit.create(TestService.class);
+    interceptor.addToQueue(200, "");
+    interceptor.addToQueue(200, "");
+    assertEquals("warm", testService.getEntity().toBlocking().first().getTestString());
+    assertNull(testService.getEntityIgnored().toBlocking().first().getTestString());
+    assertEquals(TestService.class.getDeclaredMethods().length, resolutions.get());
+  }
+
+  @Test
+  public void registryPreprocessorsAreResolvedByWarmUp() throws Exception {
+    PreprocessorRegistry registry = new PreprocessorRegistry();
+    registry.register(new Preprocessor<Observable<TestEntity>>() {
+      @Override
+      public Observable<TestEntity> preprocess(Observable<TestEntity> source) {
+        return source.doOnNext(entity -> entity.setTestString("registered"));
+      }
+    });
+    Retrofit retrofit = createRetrofit(countingBuilder().registry(registry).build());
+    PreprocessAdapter.warmUp(retrofit, TestService.class);
+    interceptor.addToQueue(200, "");
+    assertEquals("registered", retrofit.create(TestService.class).getEntity().toBlocking().first().getTestString());
+  }
+
+  @Test
+  public void warmedConvertersAreUsedOnce() throws Exception {
+    AtomicInteger converters = new AtomicInteger();
+    TestEntityConverter entityConverter = new TestEntityConverter();
+    PreprocessAdapter preprocessAdapter = countingBuilder()
+        .addBodyPreprocessor(new BodyPreprocessor<TestEntity>() {
+          @Override
+          public TestEntity preprocess(TestEntity body) {
+            return body.setTestString("converted");
+          }
+        })
+        .build();
+    Retrofit retrofit = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .client(new OkHttpClient.Builder().addInterceptor(interceptor).build())
+        .addConverterFactory(preprocessAdapter.converterFactory())
+        .addConverterFactory(new Converter.Factory() {
+          @Override
+          public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+            converters.incrementAndGet();
+            return entityConverter.responseBodyConverter(type, annotations, retrofit);
+          }
+        })
+        .addCallAdapterFactory(preprocessAdapter)
+        .build();
+    PreprocessAdapter.warmUp(retrofit, TestService.class);
+    int warmed = converters.get();
+    interceptor.addToQueue(200, "");
+    assertEquals("converted", retrofit.create(TestService.class).getEntity().toBlocking().first().getTestString());
+    assertEquals(warmed, converters.get());
+    Annotation[] annotations = TestService.class.getDeclaredMethod("getEntity").getAnnotations();
+    retrofit.responseBodyConverter(TestEntity.class, annotations);
+    assertEquals(warmed + 1, converters.get());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void retrofitWithoutAdapterIsRejected() throws Exception {
+    Retrofit retrofit = new Retrofit.Builder()
+        .baseUrl("http://example.com")
+        .addCallAdapterFactory(RxJavaCallAdapterFactory.create())
+        .build();
+    PreprocessAdapter.warmUp(retrofit, TestService.class);
+  }
+
+}
@@ -3,17 +3,27 @@ package codes.titanium.premapper.infra;
 import okhttp3.*;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Returns queued responses instead of network, safe to be used by concurrent calls
+ */
 public class HttpTestInterceptor implements Interceptor {
-  private Queue<Response> responsesQueue = new ArrayDeque<>();
-  private int executedRequestsCount;
+  private final Queue<Response> responsesQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger executedRequestsCount = new AtomicInteger();
+  private final AtomicReference<Request> lastRequest = new AtomicReference<>();
 
   @Override
   public Response intercept(Chain chain) throws IOException {
-    executedRequestsCount++;
-    return responsesQueue.poll();
+    executedRequestsCount.incrementAndGet();
+    lastRequest.set(chain.request());
+    Response response = responsesQueue.poll();
+    if (response == null)
+      throw new IOException("No queued response");
+    return response;
   }
 
   /**
@@ -34,10 +44,26 @@ public class HttpTestInterceptor implements Interceptor {
    * @param message HTTP status message
    */
   public void addToQueue(int code, String body, String message) {
+    addToQueue(code, body, message, new Headers.Builder().build());
+  }
+
+  /**
+   * Adds pending request with headers to queue
+   *
+   * @param code    response code
+   * @param body    request body to return to user
+   * @param headers headers of response
+   */
+  public void addToQueue(int code, String body, Headers headers) {
+    addToQueue(code, body, "Success", headers);
+  }
+
+  private void addToQueue(int code, String body, String message, Headers headers) {
     ResponseBody responseBody = ResponseBody.create(MediaType.parse("text/plain; charset=utf-8"), body);
     responsesQueue.add(new Response.Builder()
         .request(new Request.Builder().url("http://f8.ai").build())
         .protocol(Protocol.HTTP_2)
+        .headers(headers)
         .body(responseBody)
         .message(message)
         .code(code)
@@ -49,13 +75,20 @@ public class HttpTestInterceptor implements Interceptor {
    */
   public void clearQueue() {
     responsesQueue.clear();
-    executedRequestsCount = 0;
+    executedRequestsCount.set(0);
+  }
+
+  /**
+   * @return last request received by this test interceptor, null if there were no requests
+   */
+  public Request getLastRequest() {
+    return lastRequest.get();
   }
 
   /**
    * @return number of executed requests by this test interceptor
    */
   public int getExecutedRequestsCount() {
-    return executedRequestsCount;
+    return executedRequestsCount.get();
   }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package codes.titanium.premapper.infra;
+
+import codes.titanium.premapper.ElementStream;
+import codes.titanium.premapper.ElementStreamFactory;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads every line of response as test entity with line as its string, supports only test entities
+ */
+public class LineStreamFactory implements ElementStreamFactory {
+
+  private int closedStreams;
+
+  @Override
+  public ElementStream<?> create(Type elementType, BufferedSource source) throws IOException {
+    if (elementType != TestEntity.class)
+      return null;
+    return new ElementStream<TestEntity>() {
+      @Override
+      public boolean hasNext() throws IOException {
+        return !source.exhausted();
+      }
+
+      @Override
+      public TestEntity next() throws IOException {
+        String line = source.readUtf8Line();
+        if (line == null)
+          throw new NoSuchElementException();
+        return new TestEntity().setTestString(line);
+      }
+
+      @Override
+      public void close() throws IOException {
+        closedStreams++;
+        source.close();
+      }
+    };
+  }
+
+  public int getClosedStreams() {
+    return closedStreams;
+  }
+}
@@ -7,15 +7,32 @@ import retrofit2.Converter;
 import retrofit2.Retrofit;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TestEntityConverter extends Converter.Factory {
   @Override
   public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations,
                                                           Retrofit retrofit) {
+    if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class)
+      return value -> createEntities(value.string());
     return value -> new TestEntity();
   }
 
+  /**
+   * @param count number of entities to create, empty string stands for empty list
+   */
+  private static List<TestEntity> createEntities(String count) {
+    int size = count.isEmpty() ? 0 : Integer.parseInt(count);
+    List<TestEntity> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(new TestEntity());
+    }
+    return result;
+  }
+
   @Override
   public Converter<?, RequestBody> requestBodyConverter(Type type,
                                                         Annotation[] parameterAnnotations, Annotation[] methodAnnotations, Retrofit retrofit) {
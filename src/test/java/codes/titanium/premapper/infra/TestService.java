@@ -1,14 +1,26 @@
 package codes.titanium.premapper.infra;
 
+import codes.titanium.premapper.Bulkhead;
+import codes.titanium.premapper.Cached;
+import codes.titanium.premapper.Coalesce;
+import codes.titanium.premapper.ElementStream;
+import codes.titanium.premapper.Hedge;
+import codes.titanium.premapper.IndexedService;
 import codes.titanium.premapper.PreprocessIgnore;
+import codes.titanium.premapper.Revalidate;
+import retrofit2.Call;
 import retrofit2.http.GET;
+import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 import rx.Observable;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+@IndexedService
 public interface TestService {
   @GET("/a")
   Observable<TestEntity> getEntity();
@@ -19,8 +31,66 @@ public interface TestService {
   @GET("/c")
   Observable<List<TestEntity>> getTestEntities();
 
+  @GET("/d")
+  Call<TestEntity> getEntityCall();
+
+  @GET("/e")
+  @Coalesce
+  Observable<TestEntity> getEntityCoalesced();
+
+  @GET("/f")
+  @Cached(ttl = 1, unit = TimeUnit.HOURS, maxEntries = 2)
+  Observable<TestEntity> getEntityCached(@Query("id") int id);
+
+  @GET("/q")
+  @Cached(ttl = 1, unit = TimeUnit.HOURS, maxBytes = 10)
+  Observable<TestEntity> getEntityCachedBySize(@Query("id") int id);
+
+  @GET("/h")
+  @Cached(ttl = 50, unit = TimeUnit.MILLISECONDS)
+  Observable<TestEntity> getEntityCachedShortly();
+
+  @GET("/i")
+  @Hedge(delay = 50)
+  Observable<TestEntity> getEntityHedged();
+
+  @GET("/j")
+  @Hedge(delay = 1, unit = TimeUnit.SECONDS, percentile = 90, budgetPercent = 50)
+  Observable<TestEntity> getEntityHedgedByPercentile();
+
+  @GET("/k")
+  @Bulkhead(maxConcurrent = 2, group = "limited")
+  Observable<TestEntity> getEntityLimited();
+
+  @GET("/l")
+  @Bulkhead(maxConcurrent = 2, group = "limited")
+  Observable<TestEntity> getOtherEntityLimited();
+
+  @GET("/m")
+  @Bulkhead(maxConcurrent = 1, maxQueued = 1)
+  Observable<TestEntity> getEntityQueued();
+
+  @GET("/s")
+  @Bulkhead(maxConcurrent = 1, maxQueued = 1, maxWait = 50)
+  Observable<TestEntity> getEntityWaiting();
+
+  @GET("/n")
+  @Bulkhead(maxConcurrent = 10, latencyThreshold = 100)
+  Observable<TestEntity> getEntityAdaptive();
+
+  @GET("/o")
+  @Streaming
+  Call<ElementStream<TestEntity>> streamEntities();
+
   @GET("/g")
   @PreprocessIgnore
   Observable<TestEntity> getEntityIgnored();
 
+  @GET("/p")
+  @Revalidate(maxEntries = 2)
+  Call<TestEntity> getEntityRevalidated(@Query("id") int id);
+
+  @GET("/r")
+  @Revalidate
+  Observable<TestEntity> getEntityRevalidatedObservable();
 }